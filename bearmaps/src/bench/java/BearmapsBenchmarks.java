@@ -0,0 +1,179 @@
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+/**
+ * Microbenchmarks of the server's hot paths: building the graph from OSM XML, nearest-vertex
+ * lookups, shortest paths over the queries in <code>path_params.txt</code>, rastering the queries
+ * in <code>raster_params.txt</code>, and drawing the resulting images. Run them from the
+ * <code>bearmaps</code> directory, where the test fixtures live, after compiling the main and
+ * benchmark sources together:
+ *
+ * <pre>
+ * javac -cp CLASSPATH -d bench-classes src/main/java/*.java src/bench/java/*.java
+ * java -cp bench-classes:CLASSPATH BearmapsBenchmarks -f 2 -wi 5 -i 10 -prof gc [REGEX]
+ * </pre>
+ *
+ * The graph defaults to the Berkeley extract; set <code>-Dbearmaps.osm=PATH</code> to benchmark
+ * another one. Missing map tiles are skipped when drawing, so <code>renderImage</code> measures
+ * only the route overlay and compositing unless the tile set is present.
+ */
+public class BearmapsBenchmarks {
+    /** Private constructor to prevent instantiation; all members are static. */
+    private BearmapsBenchmarks() {
+    }
+
+    /**
+     * Runs the selected benchmarks.
+     * @param args Options for <code>BenchmarkRunner</code>.
+     * @throws Exception If a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        String osm = System.getProperty(OSM_PROPERTY, DEFAULT_OSM_DB_PATH);
+        List<BenchmarkRunner.Benchmark> benchmarks = Arrays.asList(
+            new BenchmarkRunner.Benchmark("graphConstruction") {
+                @Override
+                Object run(int i) {
+                    return new GraphDB(osm);
+                }
+            },
+            new BenchmarkRunner.Benchmark("closest") {
+                private GraphDB g;
+                private double[] points;
+
+                @Override
+                void setup() {
+                    g = new GraphDB(osm);
+                    points = randomPoints(g, NUM_RANDOM_POINTS);
+                }
+
+                @Override
+                Object run(int i) {
+                    int k = 2 * (i % NUM_RANDOM_POINTS);
+                    return g.closest(points[k], points[k + 1]);
+                }
+            },
+            new BenchmarkRunner.Benchmark("shortestPath") {
+                private GraphDB g;
+                private List<RouteRequestParams> queries;
+
+                @Override
+                void setup() throws Exception {
+                    g = new GraphDB(osm);
+                    queries = routeQueries();
+                }
+
+                @Override
+                Object run(int i) {
+                    RouteRequestParams q = queries.get(i % queries.size());
+                    return Router.shortestPath(g, q.startLon, q.startLat, q.endLon, q.endLat);
+                }
+            },
+            new BenchmarkRunner.Benchmark("getMapRaster") {
+                private Rasterer rasterer;
+                private List<RasterRequestParams> queries;
+
+                @Override
+                void setup() throws Exception {
+                    rasterer = new Rasterer();
+                    queries = rasterQueries();
+                }
+
+                @Override
+                Object run(int i) {
+                    return rasterer.getMapRaster(queries.get(i % queries.size()));
+                }
+            },
+            new BenchmarkRunner.Benchmark("renderImage") {
+                private List<RasterResultParams> rasters;
+
+                @Override
+                void setup() throws Exception {
+                    GraphDB g = new GraphDB(osm);
+                    MapServer.initialize(g);
+                    /* Draw a route over every image, as the server does after a /route call. */
+                    RouteRequestParams q = routeQueries().get(0);
+                    MapServer.route = RouteGeometry.of(g,
+                            Router.shortestPath(g, q.startLon, q.startLat, q.endLon, q.endLat));
+                    Rasterer rasterer = new Rasterer();
+                    rasters = new ArrayList<>();
+                    for (RasterRequestParams params : rasterQueries()) {
+                        RasterResultParams result = rasterer.getMapRaster(params);
+                        if (result.querySuccess) {
+                            rasters.add(result);
+                        }
+                    }
+                }
+
+                @Override
+                Object run(int i) {
+                    return MapServer.renderImage(rasters.get(i % rasters.size()));
+                }
+            });
+        BenchmarkRunner.main(BearmapsBenchmarks.class, benchmarks, args);
+    }
+
+    /** Returns interleaved longitudes and latitudes drawn uniformly from the graph's bounds. */
+    private static double[] randomPoints(GraphDB g, int n) {
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (long v : g.vertices()) {
+            minLon = Math.min(minLon, g.lon(v));
+            maxLon = Math.max(maxLon, g.lon(v));
+            minLat = Math.min(minLat, g.lat(v));
+            maxLat = Math.max(maxLat, g.lat(v));
+        }
+        Random random = new Random(SEED);
+        double[] points = new double[2 * n];
+        for (int i = 0; i < n; i += 1) {
+            points[2 * i] = minLon + random.nextDouble() * (maxLon - minLon);
+            points[2 * i + 1] = minLat + random.nextDouble() * (maxLat - minLat);
+        }
+        return points;
+    }
+
+    private static List<RouteRequestParams> routeQueries() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(PATH_PARAMS_FILE),
+                Charset.defaultCharset());
+        List<RouteRequestParams> queries = new ArrayList<>();
+        for (int lineIdx = 2; lineIdx + 3 < lines.size(); lineIdx += 4) {
+            queries.add(new RouteRequestParams.Builder()
+                    .setStartLon(Double.parseDouble(lines.get(lineIdx)))
+                    .setStartLat(Double.parseDouble(lines.get(lineIdx + 1)))
+                    .setEndLon(Double.parseDouble(lines.get(lineIdx + 2)))
+                    .setEndLat(Double.parseDouble(lines.get(lineIdx + 3)))
+                    .create());
+        }
+        return queries;
+    }
+
+    private static List<RasterRequestParams> rasterQueries() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(RASTER_PARAMS_FILE),
+                Charset.defaultCharset());
+        List<RasterRequestParams> queries = new ArrayList<>();
+        for (int lineIdx = 2; lineIdx + 5 < lines.size(); lineIdx += 6) {
+            queries.add(new RasterRequestParams.Builder()
+                    .setUllon(Double.parseDouble(lines.get(lineIdx)))
+                    .setUllat(Double.parseDouble(lines.get(lineIdx + 1)))
+                    .setLrlon(Double.parseDouble(lines.get(lineIdx + 2)))
+                    .setLrlat(Double.parseDouble(lines.get(lineIdx + 3)))
+                    .setW(Double.parseDouble(lines.get(lineIdx + 4)))
+                    .setH(Double.parseDouble(lines.get(lineIdx + 5)))
+                    .create());
+        }
+        return queries;
+    }
+
+    private static final String OSM_PROPERTY = "bearmaps.osm";
+    private static final String DEFAULT_OSM_DB_PATH =
+            "../library-su18/bearmaps/berkeley-2018.osm.xml";
+    private static final String PATH_PARAMS_FILE = "path_params.txt";
+    private static final String RASTER_PARAMS_FILE = "raster_params.txt";
+    private static final int NUM_RANDOM_POINTS = 1024;
+    private static final long SEED = 61;
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+/**
+ * A small benchmark harness modeled on JMH. Each benchmark is measured in fresh forked JVMs, so
+ * JIT decisions and heap state from one benchmark never leak into another. Within a fork, warm-up
+ * iterations run first and are discarded, then measurement iterations report the average time per
+ * operation. With <code>-prof gc</code>, each iteration also reports the bytes allocated per
+ * operation by the benchmark thread and the number of garbage collections, like JMH's
+ * <code>gc.alloc.rate.norm</code> and <code>gc.count</code>.
+ *
+ * Options, with their JMH equivalents:
+ * <ul>
+ *     <li><code>-f N</code>: forks per benchmark; 0 runs in this JVM (default 2).</li>
+ *     <li><code>-wi N</code>: warm-up iterations per fork (default 5).</li>
+ *     <li><code>-i N</code>: measurement iterations per fork (default 10).</li>
+ *     <li><code>-r MS</code>: minimum time per iteration in milliseconds (default 1000).</li>
+ *     <li><code>-jvmArgs "ARGS"</code>: extra arguments for forked JVMs.</li>
+ *     <li><code>-prof gc</code>: report allocation and collections.</li>
+ *     <li>Any other argument is a regular expression selecting benchmarks by name.</li>
+ * </ul>
+ */
+class BenchmarkRunner {
+    /** One benchmarked operation and the state it needs, like a JMH state plus method. */
+    abstract static class Benchmark {
+        final String name;
+        Benchmark(String name) {
+            this.name = name;
+        }
+        /** Builds the state the operation needs. Runs once per fork, before warm-up. */
+        void setup() throws Exception {
+        }
+        /**
+         * Performs the operation once.
+         * @param i The number of operations already performed in this fork, for cycling
+         *          through query sets.
+         * @return A result that is consumed so the JIT cannot eliminate the work.
+         */
+        abstract Object run(int i) throws Exception;
+    }
+
+    /** Consumes benchmark results; a volatile write cannot be optimized away. */
+    private static volatile Object sink;
+
+    private int forks = 2;
+    private int warmups = 5;
+    private int iterations = 10;
+    private long iterationMillis = 1000;
+    private String jvmArgs = "";
+    private boolean profileGc;
+    private final List<Pattern> filters = new ArrayList<>();
+    private final Class<?> mainClass;
+
+    private BenchmarkRunner(Class<?> mainClass) {
+        this.mainClass = mainClass;
+    }
+
+    /**
+     * Runs benchmarks from the command line. A forked JVM is started with
+     * <code>--fork NAME</code> followed by the remaining options, runs only that benchmark in
+     * process, and prints one <code>RESULT</code> line per measurement iteration.
+     * @param mainClass The class whose <code>main</code> method forked JVMs should run.
+     * @param benchmarks Every benchmark that can be selected.
+     * @param args The command-line options described above.
+     * @throws Exception If a benchmark fails.
+     */
+    static void main(Class<?> mainClass, List<Benchmark> benchmarks, String[] args)
+            throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(mainClass);
+        String forked = null;
+        for (int a = 0; a < args.length; a += 1) {
+            switch (args[a]) {
+                case "--fork":
+                    a += 1;
+                    forked = args[a];
+                    break;
+                case "-f":
+                    a += 1;
+                    runner.forks = Integer.parseInt(args[a]);
+                    break;
+                case "-wi":
+                    a += 1;
+                    runner.warmups = Integer.parseInt(args[a]);
+                    break;
+                case "-i":
+                    a += 1;
+                    runner.iterations = Integer.parseInt(args[a]);
+                    break;
+                case "-r":
+                    a += 1;
+                    runner.iterationMillis = Long.parseLong(args[a]);
+                    break;
+                case "-jvmArgs":
+                    a += 1;
+                    runner.jvmArgs = args[a];
+                    break;
+                case "-prof":
+                    a += 1;
+                    runner.profileGc = args[a].equals("gc");
+                    break;
+                default:
+                    runner.filters.add(Pattern.compile(args[a]));
+            }
+        }
+        if (forked != null) {
+            for (Benchmark b : benchmarks) {
+                if (b.name.equals(forked)) {
+                    runner.measure(b);
+                }
+            }
+            return;
+        }
+        System.out.printf(Locale.ROOT, "%-32s %5s %14s %12s %16s%n",
+                "Benchmark", "Cnt", "Score", "Error", "Units");
+        for (Benchmark b : benchmarks) {
+            if (runner.selected(b.name)) {
+                runner.report(b.name, runner.forks == 0 ? runner.measure(b) : runner.fork(b));
+            }
+        }
+    }
+
+    private boolean selected(String name) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (Pattern p : filters) {
+            if (p.matcher(name).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs warm-up and measurement iterations of one benchmark in this JVM, printing and
+     * returning one result per measurement iteration.
+     */
+    private List<double[]> measure(Benchmark b) throws Exception {
+        b.setup();
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        List<double[]> results = new ArrayList<>();
+        int op = 0;
+        for (int iter = 0; iter < warmups + iterations; iter += 1) {
+            long gcBefore = collections();
+            long allocBefore = threads.getThreadAllocatedBytes(thread);
+            long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+            long start = System.nanoTime();
+            int ops = 0;
+            do {
+                sink = b.run(op);
+                op += 1;
+                ops += 1;
+            } while (System.nanoTime() < deadline);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(thread) - allocBefore;
+            long gcs = collections() - gcBefore;
+            if (iter >= warmups) {
+                double[] r = {(double) elapsed / ops, (double) allocated / ops, gcs};
+                results.add(r);
+                System.out.printf(Locale.ROOT, "RESULT %s %.3f %.1f %.0f%n",
+                        b.name, r[0], r[1], r[2]);
+            }
+        }
+        return results;
+    }
+
+    /** Runs one benchmark in each of <code>forks</code> new JVMs and collects their results. */
+    private List<double[]> fork(Benchmark b) throws IOException, InterruptedException {
+        List<double[]> results = new ArrayList<>();
+        for (int f = 0; f < forks; f += 1) {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin"
+                    + File.separator + "java");
+            for (String arg : jvmArgs.trim().split("\\s+")) {
+                if (!arg.isEmpty()) {
+                    command.add(arg);
+                }
+            }
+            for (String property : System.getProperties().stringPropertyNames()) {
+                if (property.startsWith(FORWARDED_PROPERTY_PREFIX)) {
+                    command.add("-D" + property + "=" + System.getProperty(property));
+                }
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(mainClass.getName());
+            command.add("--fork");
+            command.add(b.name);
+            command.add("-wi");
+            command.add(Integer.toString(warmups));
+            command.add("-i");
+            command.add(Integer.toString(iterations));
+            command.add("-r");
+            command.add(Long.toString(iterationMillis));
+            Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader out =
+                         new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.startsWith("RESULT ")) {
+                        String[] parts = line.split(" ");
+                        results.add(new double[] {Double.parseDouble(parts[2]),
+                            Double.parseDouble(parts[3]), Double.parseDouble(parts[4])});
+                    } else {
+                        System.err.println("[" + b.name + "] " + line);
+                    }
+                }
+            }
+            if (p.waitFor() != 0) {
+                throw new IllegalStateException("Fork of " + b.name + " exited with "
+                        + p.exitValue());
+            }
+        }
+        return results;
+    }
+
+    /** Prints the mean of each measured quantity with a 99.9% confidence interval. */
+    private void report(String name, List<double[]> results) {
+        Map<String, Integer> rows = new LinkedHashMap<>();
+        rows.put("ns/op", 0);
+        if (profileGc) {
+            rows.put("B/op", 1);
+            rows.put("gc.count", 2);
+        }
+        for (Map.Entry<String, Integer> row : rows.entrySet()) {
+            int n = results.size();
+            double mean = 0;
+            for (double[] r : results) {
+                mean += r[row.getValue()] / n;
+            }
+            double variance = 0;
+            for (double[] r : results) {
+                double d = r[row.getValue()] - mean;
+                variance += d * d / Math.max(1, n - 1);
+            }
+            double error = Z_999 * Math.sqrt(variance / n);
+            String label = row.getValue() == 0 ? name : name + ":" + row.getKey();
+            System.out.printf(Locale.ROOT, "%-32s %5d %14.3f +- %10.3f %16s%n",
+                    label, n, mean, error, row.getKey());
+        }
+    }
+
+    private static long collections() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    /** System properties with this prefix are passed on to forked JVMs. */
+    static final String FORWARDED_PROPERTY_PREFIX = "bearmaps.";
+    /** The two-sided normal quantile for a 99.9% confidence interval. */
+    private static final double Z_999 = 3.291;
+}
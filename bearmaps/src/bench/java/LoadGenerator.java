@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * An end-to-end load generator for the map server. It replays the queries in
+ * <code>raster_params.txt</code> and <code>path_params.txt</code>, plus synthetic
+ * <code>/search</code> prefixes, and reports latency percentiles for each endpoint.
+ *
+ * In the open-loop mode, requests are scheduled at a fixed rate regardless of how quickly the
+ * server answers, as independent users would send them, and each latency is measured from the
+ * time the request was due rather than the time a worker got to it. In the closed-loop mode,
+ * each of the workers sends a request and waits for the response before sending the next, as a
+ * benchmark client usually does. A closed loop stops sending while the server stalls, hiding
+ * the requests that would have queued up behind the stall; when a rate is given, each
+ * worker is paced to its share of it and the hidden requests are added back with
+ * <code>Metrics.Histogram.recordCorrected</code>.
+ *
+ * Options:
+ * <ul>
+ *     <li><code>-url URL</code>: the server to load; by default a <code>MapServer</code> is
+ *     started in this JVM on Spark's default port.</li>
+ *     <li><code>-mode open|closed</code>: the loop model (default closed).</li>
+ *     <li><code>-c N</code>: workers, and so the most requests in flight (default 8).</li>
+ *     <li><code>-rate R</code>: requests per second across all workers; required in the open
+ *     loop, and optional pacing in the closed loop (default unpaced).</li>
+ *     <li><code>-d S</code> and <code>-w S</code>: seconds to measure, after seconds of warm-up
+ *     whose requests are not recorded (defaults 30 and 5).</li>
+ *     <li><code>-mix RASTER:ROUTE:SEARCH</code>: relative weights of the endpoints
+ *     (default 1:1:1).</li>
+ * </ul>
+ */
+public class LoadGenerator {
+    /** The queries and statistics of one endpoint. */
+    private static class Endpoint {
+        final String path;
+        final List<String> queries;
+        final int weight;
+        final Metrics.Histogram latency = new Metrics.Histogram();
+        /** Requests actually sent and answered, unlike the histogram's corrected count. */
+        final LongAdder completed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        Endpoint(String path, List<String> queries, int weight) {
+            this.path = path;
+            this.queries = queries;
+            this.weight = weight;
+        }
+    }
+
+    private String baseUrl;
+    private boolean openLoop;
+    private int workers = 8;
+    private double rate;
+    private long durationNanos = TimeUnit.SECONDS.toNanos(30);
+    private long warmupNanos = TimeUnit.SECONDS.toNanos(5);
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private int totalWeight;
+
+    /** Private constructor; instances are configured from the command line by main. */
+    private LoadGenerator() {
+    }
+
+    /**
+     * Loads the server and prints latency percentiles.
+     * @param args The options described above.
+     * @throws Exception If the query files cannot be read or the server does not start.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator lg = new LoadGenerator();
+        int[] mix = {1, 1, 1};
+        for (int a = 0; a < args.length; a += 1) {
+            String value = a + 1 < args.length ? args[a + 1] : "";
+            switch (args[a]) {
+                case "-url":
+                    lg.baseUrl = value;
+                    break;
+                case "-mode":
+                    lg.openLoop = value.equals("open");
+                    break;
+                case "-c":
+                    lg.workers = Integer.parseInt(value);
+                    break;
+                case "-rate":
+                    lg.rate = Double.parseDouble(value);
+                    break;
+                case "-d":
+                    lg.durationNanos = (long) (Double.parseDouble(value) * 1e9);
+                    break;
+                case "-w":
+                    lg.warmupNanos = (long) (Double.parseDouble(value) * 1e9);
+                    break;
+                case "-mix":
+                    String[] weights = value.split(":");
+                    for (int i = 0; i < mix.length; i += 1) {
+                        mix[i] = Integer.parseInt(weights[i]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[a]);
+            }
+            a += 1;
+        }
+        if (lg.openLoop && lg.rate <= 0) {
+            throw new IllegalArgumentException("The open loop needs a request rate (-rate).");
+        }
+        lg.addEndpoint("/raster", rasterQueries(), mix[0]);
+        lg.addEndpoint("/route", routeQueries(), mix[1]);
+        lg.addEndpoint("/search", searchQueries(NUM_SEARCH_PREFIXES), mix[2]);
+        if (lg.baseUrl == null) {
+            MapServer.main(new String[0]);
+            lg.baseUrl = LOCAL_URL;
+            lg.awaitServer();
+        }
+        if (lg.openLoop) {
+            lg.runOpenLoop();
+        } else {
+            lg.runClosedLoop();
+        }
+        lg.report();
+        System.exit(0);
+    }
+
+    private void addEndpoint(String path, List<String> queries, int weight) {
+        if (weight > 0 && !queries.isEmpty()) {
+            endpoints.add(new Endpoint(path, queries, weight));
+            totalWeight += weight;
+        }
+    }
+
+    /**
+     * Schedules requests at a fixed rate and hands them to a pool of workers. A request that
+     * waits for a free worker counts the wait in its latency.
+     */
+    private void runOpenLoop() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long interval = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long recordFrom = start + warmupNanos;
+        long end = recordFrom + durationNanos;
+        for (long due = start; due < end; due += interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            final long intended = due;
+            pool.execute(() -> {
+                Endpoint e = pick();
+                boolean ok = send(e);
+                if (intended >= recordFrom) {
+                    record(e, ok, System.nanoTime() - intended, 0);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs workers that each wait for a response before sending their next request, paced to
+     * their share of the rate if one was given.
+     */
+    private void runClosedLoop() throws InterruptedException {
+        long interval = rate > 0 ? (long) (1e9 * workers / rate) : 0;
+        long start = System.nanoTime();
+        long recordFrom = start + warmupNanos;
+        long end = recordFrom + durationNanos;
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < workers; w += 1) {
+            Thread t = new Thread(() -> {
+                long due = System.nanoTime();
+                while (due < end) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    long sent = System.nanoTime();
+                    Endpoint e = pick();
+                    boolean ok = send(e);
+                    long done = System.nanoTime();
+                    if (sent >= recordFrom) {
+                        record(e, ok, done - sent, interval);
+                    }
+                    /* After a stall, resume at once; the correction accounts for the gap. */
+                    due = Math.max(due + interval, done);
+                }
+            }, "load-" + w);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    /** Chooses an endpoint by weight, and one of its queries at random. */
+    private Endpoint pick() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Endpoint e : endpoints) {
+            r -= e.weight;
+            if (r < 0) {
+                return e;
+            }
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+    /**
+     * Sends one query to an endpoint and reads the whole response.
+     * @return Whether the server answered with a success status.
+     */
+    private boolean send(Endpoint e) {
+        String query = e.queries.get(ThreadLocalRandom.current().nextInt(e.queries.size()));
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(baseUrl + e.path + "?" + query).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MILLIS);
+            conn.setReadTimeout(TIMEOUT_MILLIS);
+            int status = conn.getResponseCode();
+            /* Drain the body so the connection can be kept alive and reused. */
+            try (InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                while (in != null && in.read(buf) >= 0) {
+                    /* Discard. */
+                }
+            }
+            return status < 400;
+        } catch (IOException ex) {
+            if (conn != null) {
+                conn.disconnect();
+            }
+            return false;
+        }
+    }
+
+    private static void record(Endpoint e, boolean ok, long nanos, long interval) {
+        e.latency.recordCorrected(nanos, interval);
+        e.completed.increment();
+        if (!ok) {
+            e.errors.increment();
+        }
+    }
+
+    /** Waits until the server answers, since it loads the map before serving. */
+    private void awaitServer() throws InterruptedException {
+        Endpoint probe = new Endpoint("/search", searchQueries(1), 1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS);
+        while (!send(probe)) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The server at " + baseUrl + " did not start.");
+            }
+            Thread.sleep(STARTUP_POLL_MILLIS);
+        }
+    }
+
+    private void report() {
+        System.out.printf(Locale.ROOT, "%s loop, %d workers, %s%n",
+                openLoop ? "Open" : "Closed", workers,
+                rate > 0 ? String.format(Locale.ROOT, "%.1f requests/s", rate) : "unpaced");
+        System.out.printf(Locale.ROOT, "%-10s %10s %8s %10s %10s %10s %10s %10s%n",
+                "Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p99 ms", "p999 ms",
+                "max ms");
+        double seconds = durationNanos / 1e9;
+        for (Endpoint e : endpoints) {
+            Metrics.Histogram h = e.latency;
+            long completed = e.completed.sum();
+            System.out.printf(Locale.ROOT,
+                    "%-10s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f%n",
+                    e.path, completed, e.errors.sum(), completed / seconds,
+                    h.valueAtQuantile(0.5) / 1e6, h.valueAtQuantile(0.99) / 1e6,
+                    h.valueAtQuantile(0.999) / 1e6, h.valueAtQuantile(1.0) / 1e6);
+        }
+    }
+
+    private static List<String> rasterQueries() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(RASTER_PARAMS_FILE),
+                Charset.defaultCharset());
+        List<String> queries = new ArrayList<>();
+        for (int lineIdx = 2; lineIdx + 5 < lines.size(); lineIdx += 6) {
+            queries.add("ullon=" + lines.get(lineIdx) + "&ullat=" + lines.get(lineIdx + 1)
+                    + "&lrlon=" + lines.get(lineIdx + 2) + "&lrlat=" + lines.get(lineIdx + 3)
+                    + "&w=" + lines.get(lineIdx + 4) + "&h=" + lines.get(lineIdx + 5));
+        }
+        return queries;
+    }
+
+    private static List<String> routeQueries() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(PATH_PARAMS_FILE),
+                Charset.defaultCharset());
+        List<String> queries = new ArrayList<>();
+        for (int lineIdx = 2; lineIdx + 3 < lines.size(); lineIdx += 4) {
+            queries.add("start_lon=" + lines.get(lineIdx) + "&start_lat=" + lines.get(lineIdx + 1)
+                    + "&end_lon=" + lines.get(lineIdx + 2) + "&end_lat=" + lines.get(lineIdx + 3));
+        }
+        return queries;
+    }
+
+    /** Returns prefixes of one to three letters, as typed into the search box. */
+    private static List<String> searchQueries(int n) {
+        Random random = new Random(SEED);
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            StringBuilder prefix = new StringBuilder();
+            int length = 1 + random.nextInt(MAX_PREFIX_LENGTH);
+            for (int k = 0; k < length; k += 1) {
+                prefix.append((char) ('a' + random.nextInt(26)));
+            }
+            try {
+                queries.add("term=" + URLEncoder.encode(prefix.toString(), "UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return queries;
+    }
+
+    private static final String LOCAL_URL = "http://localhost:4567";
+    private static final String RASTER_PARAMS_FILE = "raster_params.txt";
+    private static final String PATH_PARAMS_FILE = "path_params.txt";
+    private static final int NUM_SEARCH_PREFIXES = 512;
+    private static final int MAX_PREFIX_LENGTH = 3;
+    private static final long SEED = 43;
+    private static final int TIMEOUT_MILLIS = 30_000;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int STARTUP_TIMEOUT_SECONDS = 300;
+    private static final int STARTUP_POLL_MILLIS = 500;
+    private static final int DRAIN_TIMEOUT_SECONDS = 60;
+}
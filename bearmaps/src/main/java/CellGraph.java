@@ -0,0 +1,239 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+/**
+ * The full road graph of one partition cell, as shipped from a shard to a router: every vertex
+ * in the cell with its location, and every road segment leaving those vertices, including the
+ * segments that cross into neighboring cells. Targets are OSM IDs so that a router can stitch
+ * cells together without a global dense numbering.
+ */
+class CellGraph {
+    /** The ID of the cell. */
+    final int cell;
+    /** The OSM ID of each vertex in the cell, by local index. */
+    final long[] ids;
+    /** Longitude and latitude of each vertex, by local index. */
+    final double[] lon, lat;
+    /** Offsets into the adjacency arrays, one per vertex plus a trailing sentinel. */
+    final int[] adjStart;
+    /** The OSM ID of the neighbor in each adjacency slot. */
+    final long[] adjTarget;
+    /** The weight of the road segment in each adjacency slot. */
+    final double[] adjWeight;
+    /** Maps OSM vertex ID to local index. */
+    private final HashMap<Long, Integer> index;
+
+    private CellGraph(int cell, long[] ids, double[] lon, double[] lat, int[] adjStart,
+                      long[] adjTarget, double[] adjWeight) {
+        this.cell = cell;
+        this.ids = ids;
+        this.lon = lon;
+        this.lat = lat;
+        this.adjStart = adjStart;
+        this.adjTarget = adjTarget;
+        this.adjWeight = adjWeight;
+        this.index = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i += 1) {
+            index.put(ids[i], i);
+        }
+    }
+
+    /**
+     * Extracts the graph of one cell. Slots a profile may not travel are left out.
+     * @param cg The partitioned graph.
+     * @param p The partition.
+     * @param c The cell to extract.
+     * @param weights Per-slot weights of <code>cg</code>.
+     * @return The cell's graph.
+     */
+    static CellGraph build(CompactGraph cg, GraphPartition p, int c, double[] weights) {
+        int[] members = p.members(c);
+        int n = members.length;
+        int slots = 0;
+        for (int v : members) {
+            for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                if (weights[e] != Double.POSITIVE_INFINITY) {
+                    slots += 1;
+                }
+            }
+        }
+        long[] ids = new long[n];
+        double[] lon = new double[n];
+        double[] lat = new double[n];
+        int[] adjStart = new int[n + 1];
+        long[] adjTarget = new long[slots];
+        double[] adjWeight = new double[slots];
+        int i = 0;
+        int k = 0;
+        for (int v : members) {
+            ids[i] = cg.ids[v];
+            lon[i] = cg.lon[v];
+            lat[i] = cg.lat[v];
+            adjStart[i] = k;
+            for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                if (weights[e] != Double.POSITIVE_INFINITY) {
+                    adjTarget[k] = cg.ids[cg.adjTarget[e]];
+                    adjWeight[k] = weights[e];
+                    k += 1;
+                }
+            }
+            i += 1;
+        }
+        adjStart[n] = k;
+        return new CellGraph(c, ids, lon, lat, adjStart, adjTarget, adjWeight);
+    }
+
+    /**
+     * Returns the local index of a vertex.
+     * @param id The OSM ID of the vertex.
+     * @return Its local index, or -1 if it is not in this cell.
+     */
+    int indexOf(long id) {
+        Integer i = index.get(id);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Returns the local index of the vertex in this cell closest to a point, by great-circle
+     * distance.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The local index, or -1 if the cell is empty.
+     */
+    int closest(double lon, double lat) {
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < ids.length; i += 1) {
+            double d = GraphDB.distance(lon, lat, this.lon[i], this.lat[i]);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the shortest path between two vertices of this cell that stays inside it.
+     * @param from The OSM ID of the first vertex.
+     * @param to The OSM ID of the last vertex.
+     * @return The vertex IDs along the path, including both ends, or an empty list if no path
+     * stays inside the cell.
+     * @throws IllegalArgumentException If either vertex is not in this cell.
+     */
+    List<Long> shortestPath(long from, long to) {
+        int s = indexOf(from);
+        int t = indexOf(to);
+        if (s < 0 || t < 0) {
+            throw new IllegalArgumentException("Vertices not in cell " + cell);
+        }
+        SearchWorkspace ws = search(s, t);
+        List<Long> path = new ArrayList<>();
+        if (!ws.isSettled(t)) {
+            return path;
+        }
+        for (int v = t; v != -1; v = ws.pred(v)) {
+            path.add(ids[v]);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Returns the shortest distances from one vertex of this cell to others, along paths that
+     * stay inside it.
+     * @param from The local index of the first vertex.
+     * @param to The local indices of the vertices to measure to.
+     * @return The distance to each vertex of <code>to</code>, or
+     * <code>Double.POSITIVE_INFINITY</code> where no path stays inside the cell.
+     */
+    double[] distances(int from, int[] to) {
+        SearchWorkspace ws = search(from, -1);
+        double[] result = new double[to.length];
+        for (int j = 0; j < to.length; j += 1) {
+            result[j] = ws.isSettled(to[j]) ? ws.dist(to[j]) : Double.POSITIVE_INFINITY;
+        }
+        return result;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm inside this cell on the calling thread's workspace.
+     * @param s The local index of the starting vertex.
+     * @param t The local index of a vertex to stop at, or -1 to settle the whole cell.
+     * @return The workspace holding the result.
+     */
+    private SearchWorkspace search(int s, int t) {
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(ids.length);
+        ws.relax(s, -1, 0.0);
+        while (!ws.isEmpty() && (t < 0 || !ws.isSettled(t))) {
+            int v = ws.poll();
+            double dv = ws.dist(v);
+            for (int e = adjStart[v]; e < adjStart[v + 1]; e += 1) {
+                /* Slots that cross into a neighboring cell have no local index. */
+                int w = indexOf(adjTarget[e]);
+                if (w >= 0) {
+                    ws.relax(w, v, dv + adjWeight[e]);
+                }
+            }
+        }
+        return ws;
+    }
+
+    /**
+     * Writes this cell to a stream in the format read by <code>read</code>.
+     * @param out The stream to write to.
+     * @throws IOException If the stream fails.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(cell);
+        out.writeInt(ids.length);
+        out.writeInt(adjTarget.length);
+        for (int i = 0; i < ids.length; i += 1) {
+            out.writeLong(ids[i]);
+            out.writeDouble(lon[i]);
+            out.writeDouble(lat[i]);
+            out.writeInt(adjStart[i + 1] - adjStart[i]);
+            for (int e = adjStart[i]; e < adjStart[i + 1]; e += 1) {
+                out.writeLong(adjTarget[e]);
+                out.writeDouble(adjWeight[e]);
+            }
+        }
+    }
+
+    /**
+     * Reads a cell written by <code>write</code>.
+     * @param in The stream to read from.
+     * @return The cell's graph.
+     * @throws IOException If the stream fails or ends early.
+     */
+    static CellGraph read(DataInputStream in) throws IOException {
+        int cell = in.readInt();
+        int n = in.readInt();
+        long[] ids = new long[n];
+        double[] lon = new double[n];
+        double[] lat = new double[n];
+        int[] adjStart = new int[n + 1];
+        int slots = in.readInt();
+        long[] adjTarget = new long[slots];
+        double[] adjWeight = new double[slots];
+        int k = 0;
+        for (int i = 0; i < n; i += 1) {
+            ids[i] = in.readLong();
+            lon[i] = in.readDouble();
+            lat[i] = in.readDouble();
+            adjStart[i] = k;
+            int degree = in.readInt();
+            for (int j = 0; j < degree; j += 1) {
+                adjTarget[k] = in.readLong();
+                adjWeight[k] = in.readDouble();
+                k += 1;
+            }
+        }
+        adjStart[n] = k;
+        return new CellGraph(cell, ids, lon, lat, adjStart, adjTarget, adjWeight);
+    }
+}
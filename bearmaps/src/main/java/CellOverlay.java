@@ -0,0 +1,193 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+/**
+ * The overlay summary of one partition cell: its bounding box, its boundary vertices (those
+ * with a road segment leaving the cell), the shortest distance inside the cell between every
+ * pair of boundary vertices, and the segments that leave the cell. A router that holds the
+ * summaries of all cells can search across the whole map while loading full detail only for
+ * the cells containing the start and end points.
+ */
+class CellOverlay {
+    /** The ID of the cell. */
+    final int cell;
+    /** The bounding box of the cell's vertices. */
+    final double minLon, minLat, maxLon, maxLat;
+    /** The OSM IDs of the cell's boundary vertices. */
+    final long[] boundary;
+    /**
+     * Row-major matrix of shortest distances inside the cell between boundary vertices, with
+     * <code>Double.POSITIVE_INFINITY</code> where no path stays inside the cell.
+     */
+    final double[] clique;
+    /** Offsets into the cut arrays, one per boundary vertex plus a trailing sentinel. */
+    final int[] cutStart;
+    /** The OSM ID of the vertex, in another cell, at the far end of each cut segment. */
+    final long[] cutTarget;
+    /** The weight of each cut segment. */
+    final double[] cutWeight;
+
+    private CellOverlay(int cell, double minLon, double minLat, double maxLon, double maxLat,
+                        long[] boundary, double[] clique, int[] cutStart, long[] cutTarget,
+                        double[] cutWeight) {
+        this.cell = cell;
+        this.minLon = minLon;
+        this.minLat = minLat;
+        this.maxLon = maxLon;
+        this.maxLat = maxLat;
+        this.boundary = boundary;
+        this.clique = clique;
+        this.cutStart = cutStart;
+        this.cutTarget = cutTarget;
+        this.cutWeight = cutWeight;
+    }
+
+    /**
+     * Computes the overlay summary of a cell, running one search inside the cell's own graph
+     * per boundary vertex.
+     * @param cg The partitioned graph.
+     * @param p The partition.
+     * @param cell The cell to summarize, extracted with the same weights.
+     * @param weights Per-slot weights of <code>cg</code>.
+     * @return The summary.
+     */
+    static CellOverlay build(CompactGraph cg, GraphPartition p, CellGraph cell,
+                             double[] weights) {
+        int c = cell.cell;
+        int[] members = p.members(c);
+        double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        int numBoundary = 0;
+        int numCut = 0;
+        for (int v : members) {
+            minLon = Math.min(minLon, cg.lon[v]);
+            minLat = Math.min(minLat, cg.lat[v]);
+            maxLon = Math.max(maxLon, cg.lon[v]);
+            maxLat = Math.max(maxLat, cg.lat[v]);
+            int cuts = countCuts(cg, p, v);
+            if (cuts > 0) {
+                numBoundary += 1;
+                numCut += cuts;
+            }
+        }
+        int[] local = new int[numBoundary];
+        long[] boundary = new long[numBoundary];
+        int[] cutStart = new int[numBoundary + 1];
+        long[] cutTarget = new long[numCut];
+        double[] cutWeight = new double[numCut];
+        int b = 0;
+        int k = 0;
+        for (int v : members) {
+            if (countCuts(cg, p, v) == 0) {
+                continue;
+            }
+            local[b] = cell.indexOf(cg.ids[v]);
+            boundary[b] = cg.ids[v];
+            cutStart[b] = k;
+            for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                int t = cg.adjTarget[e];
+                if (p.cell[t] != c) {
+                    cutTarget[k] = cg.ids[t];
+                    cutWeight[k] = weights[e];
+                    k += 1;
+                }
+            }
+            b += 1;
+        }
+        cutStart[numBoundary] = k;
+        double[] clique = new double[numBoundary * numBoundary];
+        for (int i = 0; i < numBoundary; i += 1) {
+            double[] row = cell.distances(local[i], local);
+            System.arraycopy(row, 0, clique, i * numBoundary, numBoundary);
+        }
+        return new CellOverlay(c, minLon, minLat, maxLon, maxLat, boundary, clique,
+                cutStart, cutTarget, cutWeight);
+    }
+
+    /** Returns the number of road segments from <code>v</code> to vertices in other cells. */
+    private static int countCuts(CompactGraph cg, GraphPartition p, int v) {
+        int cuts = 0;
+        for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+            if (p.cell[cg.adjTarget[e]] != p.cell[v]) {
+                cuts += 1;
+            }
+        }
+        return cuts;
+    }
+
+    /**
+     * Returns the great-circle distance from a point to the nearest point of this cell's
+     * bounding box, or 0 if the point lies inside it.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return A lower bound on the distance from the point to any vertex in the cell.
+     */
+    double distanceTo(double lon, double lat) {
+        double clampedLon = Math.max(minLon, Math.min(maxLon, lon));
+        double clampedLat = Math.max(minLat, Math.min(maxLat, lat));
+        return GraphDB.distance(lon, lat, clampedLon, clampedLat);
+    }
+
+    /**
+     * Writes this summary to a stream in the format read by <code>read</code>.
+     * @param out The stream to write to.
+     * @throws IOException If the stream fails.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(cell);
+        out.writeDouble(minLon);
+        out.writeDouble(minLat);
+        out.writeDouble(maxLon);
+        out.writeDouble(maxLat);
+        out.writeInt(boundary.length);
+        for (long id : boundary) {
+            out.writeLong(id);
+        }
+        for (double d : clique) {
+            out.writeDouble(d);
+        }
+        for (int s : cutStart) {
+            out.writeInt(s);
+        }
+        for (int k = 0; k < cutTarget.length; k += 1) {
+            out.writeLong(cutTarget[k]);
+            out.writeDouble(cutWeight[k]);
+        }
+    }
+
+    /**
+     * Reads a summary written by <code>write</code>.
+     * @param in The stream to read from.
+     * @return The summary.
+     * @throws IOException If the stream fails or ends early.
+     */
+    static CellOverlay read(DataInputStream in) throws IOException {
+        int cell = in.readInt();
+        double minLon = in.readDouble();
+        double minLat = in.readDouble();
+        double maxLon = in.readDouble();
+        double maxLat = in.readDouble();
+        int numBoundary = in.readInt();
+        long[] boundary = new long[numBoundary];
+        for (int i = 0; i < numBoundary; i += 1) {
+            boundary[i] = in.readLong();
+        }
+        double[] clique = new double[numBoundary * numBoundary];
+        for (int i = 0; i < clique.length; i += 1) {
+            clique[i] = in.readDouble();
+        }
+        int[] cutStart = new int[numBoundary + 1];
+        for (int i = 0; i <= numBoundary; i += 1) {
+            cutStart[i] = in.readInt();
+        }
+        int numCut = cutStart[numBoundary];
+        long[] cutTarget = new long[numCut];
+        double[] cutWeight = new double[numCut];
+        for (int k = 0; k < numCut; k += 1) {
+            cutTarget[k] = in.readLong();
+            cutWeight[k] = in.readDouble();
+        }
+        return new CellOverlay(cell, minLon, minLat, maxLon, maxLat, boundary, clique,
+                cutStart, cutTarget, cutWeight);
+    }
+}
@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+/**
+ * An immutable, array-backed view of the road graph for search algorithms. Vertices are numbered
+ * densely from 0 to <code>size() - 1</code>, and the neighbors of vertex <code>v</code> occupy
+ * the adjacency slots <code>adjStart[v]</code> (inclusive) to <code>adjStart[v + 1]</code>
+ * (exclusive). Each slot stores the neighbor's dense index, the precomputed great-circle
+ * length and initial bearing of that road segment, and the way it belongs to, so searches and
+ * turn-by-turn directions never touch a hash map or trig function per edge.
+ *
+ * Travel-time weights for each <code>Profile</code> are stored in separate arrays parallel to
+ * the adjacency slots, so every profile shares the same topology. A slot a profile may not
+ * travel, such as a one-way road against its direction, has infinite weight.
+ */
+class CompactGraph {
+    /** Maps dense index to OSM vertex ID. */
+    final long[] ids;
+    /** Longitude and latitude of each vertex, by dense index. */
+    final double[] lon, lat;
+    /** Offsets into the adjacency slot arrays, one per vertex plus a trailing sentinel. */
+    final int[] adjStart;
+    /** Dense index of the neighbor in each adjacency slot. */
+    final int[] adjTarget;
+    /** Length in miles of the road segment in each adjacency slot. */
+    final double[] adjLength;
+    /** The slot for the same segment traveled in the opposite direction, per adjacency slot. */
+    final int[] adjTwin;
+    /** Whether each adjacency slot travels a one-way way against its direction. */
+    final boolean[] adjContraflow;
+    /** Travel time in seconds for each adjacency slot, indexed by profile ordinal. */
+    private final double[][] profileWeights;
+    /** Initial bearing in degrees of the road segment in each adjacency slot. */
+    final float[] adjBearing;
+    /** Index into the way tables of the way each adjacency slot belongs to. */
+    final int[] adjWay;
+    /** OSM ID of each way, by way index. */
+    final long[] wayIds;
+    /** Index into <code>names</code> of each way's name, by way index. */
+    final int[] wayName;
+    /** Distinct way names; unnamed ways share the empty name. */
+    final String[] names;
+    /** Maps OSM vertex ID to dense index. */
+    private final HashMap<Long, Integer> index;
+    /**
+     * The connected component of each vertex, ignoring one-way restrictions, by dense index.
+     * Vertices in different components can never reach each other under any profile.
+     */
+    final int[] component;
+    /** The number of vertices in each component. */
+    final int[] componentSize;
+    /** The component with the most vertices, or -1 if the graph is empty. */
+    final int largestComponent;
+    /** A lower bound on the great-circle distance between any two vertices, for A*. */
+    final DistanceBound distanceBound;
+
+    /**
+     * Builds the compact view from a cleaned <code>GraphDB</code>.
+     * @param g The graph whose nodes and neighbors are copied.
+     */
+    CompactGraph(GraphDB g) {
+        int n = g.nodes.size();
+        ids = new long[n];
+        lon = new double[n];
+        lat = new double[n];
+        index = new HashMap<>(n * 2);
+        int i = 0;
+        int slots = 0;
+        for (GraphDB.Node node : g.nodes.values()) {
+            ids[i] = node.id;
+            lon[i] = node.lon;
+            lat[i] = node.lat;
+            index.put(node.id, i);
+            slots += g.neighbors.get(node.id).size();
+            i += 1;
+        }
+        distanceBound = DistanceBound.of(lon, lat);
+        adjStart = new int[n + 1];
+        adjTarget = new int[slots];
+        adjLength = new double[slots];
+        adjBearing = new float[slots];
+        adjWay = new int[slots];
+        HashMap<Long, Integer> wayIndex = new HashMap<>();
+        HashMap<String, Integer> nameIndex = new HashMap<>();
+        ArrayList<Long> wayList = new ArrayList<>();
+        ArrayList<Integer> wayNameList = new ArrayList<>();
+        ArrayList<String> nameList = new ArrayList<>();
+        int slot = 0;
+        for (int v = 0; v < n; v += 1) {
+            adjStart[v] = slot;
+            for (Map.Entry<Long, Long> neighbor : g.neighbors.get(ids[v]).entrySet()) {
+                int t = index.get(neighbor.getKey());
+                long way = neighbor.getValue();
+                Integer w = wayIndex.get(way);
+                if (w == null) {
+                    String name = g.edges.get(way).name;
+                    if (name == null) {
+                        name = "";
+                    }
+                    Integer nameId = nameIndex.get(name);
+                    if (nameId == null) {
+                        nameId = nameList.size();
+                        nameIndex.put(name, nameId);
+                        nameList.add(name);
+                    }
+                    w = wayList.size();
+                    wayIndex.put(way, w);
+                    wayList.add(way);
+                    wayNameList.add(nameId);
+                }
+                adjTarget[slot] = t;
+                adjLength[slot] = GraphDB.distance(lon[v], lat[v], lon[t], lat[t]);
+                adjBearing[slot] = (float) GraphDB.bearing(lon[v], lat[v], lon[t], lat[t]);
+                adjWay[slot] = w;
+                slot += 1;
+            }
+        }
+        adjStart[n] = slot;
+        wayIds = new long[wayList.size()];
+        wayName = new int[wayList.size()];
+        for (int w = 0; w < wayIds.length; w += 1) {
+            wayIds[w] = wayList.get(w);
+            wayName[w] = wayNameList.get(w);
+        }
+        names = nameList.toArray(new String[0]);
+        adjTwin = new int[slots];
+        for (int v = 0; v < n; v += 1) {
+            for (int e = adjStart[v]; e < adjStart[v + 1]; e += 1) {
+                adjTwin[e] = slot(adjTarget[e], ids[v]);
+            }
+        }
+        adjContraflow = new boolean[slots];
+        for (int w = 0; w < wayIds.length; w += 1) {
+            markContraflow(g.edges.get(wayIds[w]), w);
+        }
+        profileWeights = new double[Profile.values().length][];
+        for (Profile p : Profile.values()) {
+            profileWeights[p.ordinal()] = buildWeights(g, p);
+        }
+        component = labelComponents();
+        int numComponents = 0;
+        for (int c : component) {
+            numComponents = Math.max(numComponents, c + 1);
+        }
+        componentSize = new int[numComponents];
+        int largest = -1;
+        for (int c : component) {
+            componentSize[c] += 1;
+            if (largest < 0 || componentSize[c] > componentSize[largest]) {
+                largest = c;
+            }
+        }
+        largestComponent = largest;
+    }
+
+    /** Labels the connected components with a breadth-first search from each unlabeled vertex. */
+    private int[] labelComponents() {
+        int n = size();
+        int[] label = new int[n];
+        Arrays.fill(label, -1);
+        int[] queue = new int[n];
+        int next = 0;
+        for (int s = 0; s < n; s += 1) {
+            if (label[s] >= 0) {
+                continue;
+            }
+            label[s] = next;
+            int head = 0;
+            int tail = 0;
+            queue[tail] = s;
+            tail += 1;
+            while (head < tail) {
+                int v = queue[head];
+                head += 1;
+                for (int e = adjStart[v]; e < adjStart[v + 1]; e += 1) {
+                    int t = adjTarget[e];
+                    if (label[t] < 0) {
+                        label[t] = next;
+                        queue[tail] = t;
+                        tail += 1;
+                    }
+                }
+            }
+            next += 1;
+        }
+        return label;
+    }
+
+    /**
+     * Returns whether two vertices are in the same connected component, in constant time.
+     * @param v The dense index of a vertex.
+     * @param w The dense index of another vertex.
+     * @return False if no route can join them under any profile.
+     */
+    boolean connected(int v, int w) {
+        return component[v] == component[w];
+    }
+
+    /**
+     * Marks the slots of a one-way way that travel against its direction, walking the way's
+     * nodes once so that the cost is linear in the length of the way.
+     */
+    private void markContraflow(GraphDB.Edge way, int w) {
+        if (way.oneway == 0) {
+            return;
+        }
+        for (int i = 0; i + 1 < way.nodes.size(); i += 1) {
+            int v = indexOf(way.nodes.get(i));
+            int e = v < 0 ? -1 : slot(v, way.nodes.get(i + 1));
+            if (e < 0 || adjWay[e] != w) {
+                continue;
+            }
+            adjContraflow[e] = way.oneway < 0;
+            adjContraflow[adjTwin[e]] = way.oneway > 0;
+        }
+    }
+
+    /** Computes the travel time in seconds of every adjacency slot for a profile. */
+    private double[] buildWeights(GraphDB g, Profile p) {
+        double[] weights = new double[adjTarget.length];
+        for (int v = 0; v < size(); v += 1) {
+            for (int e = adjStart[v]; e < adjStart[v + 1]; e += 1) {
+                GraphDB.Edge way = g.edges.get(wayIds[adjWay[e]]);
+                double speed = p.speed(way);
+                if (speed <= 0 || (p.respectsOneway() && adjContraflow[e])) {
+                    weights[e] = Double.POSITIVE_INFINITY;
+                } else {
+                    weights[e] = adjLength[e] / speed * SECONDS_PER_HOUR;
+                }
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Returns the travel-time weight of every adjacency slot for a profile.
+     * @param p The routing profile.
+     * @return Travel times in seconds, parallel to <code>adjTarget</code>. Do not modify.
+     */
+    double[] weights(Profile p) {
+        return profileWeights[p.ordinal()];
+    }
+
+    /**
+     * Returns the number of vertices in the graph.
+     * @return The number of vertices.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the adjacency slot leading from vertex <code>v</code> to the vertex with OSM ID
+     * <code>w</code>, found by scanning the neighbors of <code>v</code>.
+     * @param v The dense index of a vertex.
+     * @param w The OSM ID of a neighbor of <code>v</code>.
+     * @return The adjacency slot, or -1 if <code>w</code> is not adjacent to <code>v</code>.
+     */
+    int slot(int v, long w) {
+        for (int e = adjStart[v]; e < adjStart[v + 1]; e += 1) {
+            if (ids[adjTarget[e]] == w) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given OSM ID.
+     * @param id The OSM ID of a vertex.
+     * @return Its dense index, or -1 if the vertex is not in the graph.
+     */
+    int indexOf(long id) {
+        Integer i = index.get(id);
+        if (i == null) {
+            return -1;
+        }
+        return i;
+    }
+
+    /** Seconds in an hour, for converting miles at miles per hour into seconds. */
+    private static final double SECONDS_PER_HOUR = 3600.0;
+}
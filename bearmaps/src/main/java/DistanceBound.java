@@ -0,0 +1,78 @@
+/**
+ * A fast lower bound on the great-circle distance between points in a bounding box, for use as
+ * an A* heuristic. It is an equirectangular distance, scaled so that it never exceeds the
+ * haversine distance of <code>GraphDB.distance</code> for any two points in the box, and costs
+ * two multiplications and a square root rather than six trig calls.
+ *
+ * Proof: for central angle <i>d</i>, the chord <i>c</i> = 2 sin(<i>d</i>/2) is at most
+ * <i>d</i>, and by the haversine formula
+ * <i>c</i>&sup2; = (2 sin(&Delta;&phi;/2))&sup2; + cos &phi;<sub>1</sub> cos &phi;<sub>2</sub>
+ * (2 sin(&Delta;&lambda;/2))&sup2;. Since sin is concave on [0, &pi;],
+ * |2 sin(<i>x</i>/2)| &ge; <i>s</i> |<i>x</i>| for |<i>x</i>| &le; <i>m</i>, where
+ * <i>s</i> = sin(<i>m</i>/2) / (<i>m</i>/2) and <i>m</i> is the larger side of the box. Both
+ * latitudes are at most &phi;<sub>far</sub>, the box latitude farthest from the equator, so
+ * <i>d</i> &ge; <i>c</i> &ge; <i>s</i> &radic;(&Delta;&phi;&sup2; + cos&sup2;&phi;<sub>far</sub>
+ * &Delta;&lambda;&sup2;). The bound is a norm of the coordinate difference, so it also obeys the
+ * triangle inequality, which makes it a consistent heuristic for lengths measured by
+ * <code>GraphDB.distance</code>.
+ *
+ * Over a city-sized box both factors are within a fraction of a percent of 1, so the bound is
+ * nearly as tight as the haversine distance itself.
+ */
+class DistanceBound {
+    /** Miles per degree of latitude and of longitude, with the proof's factors applied. */
+    private final double latScale, lonScale;
+
+    /**
+     * Creates a bound valid for every pair of points inside a bounding box.
+     * @param minLon The western edge of the box.
+     * @param minLat The southern edge of the box.
+     * @param maxLon The eastern edge of the box.
+     * @param maxLat The northern edge of the box.
+     */
+    DistanceBound(double minLon, double minLat, double maxLon, double maxLat) {
+        double far = Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat)));
+        double half = Math.toRadians(Math.max(maxLat - minLat, maxLon - minLon)) / 2;
+        double s = half > 0 ? Math.sin(half) / half : 1;
+        latScale = GraphDB.R * Math.toRadians(1) * s * (1 - ROUNDING_MARGIN);
+        lonScale = latScale * Math.cos(far);
+    }
+
+    /**
+     * Creates a bound valid for every pair of the given points.
+     * @param lon The longitudes of the points.
+     * @param lat The latitudes of the points.
+     * @return A bound over the bounding box of the points.
+     */
+    static DistanceBound of(double[] lon, double[] lat) {
+        if (lon.length == 0) {
+            return new DistanceBound(0, 0, 0, 0);
+        }
+        double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < lon.length; i += 1) {
+            minLon = Math.min(minLon, lon[i]);
+            maxLon = Math.max(maxLon, lon[i]);
+            minLat = Math.min(minLat, lat[i]);
+            maxLat = Math.max(maxLat, lat[i]);
+        }
+        return new DistanceBound(minLon, minLat, maxLon, maxLat);
+    }
+
+    /**
+     * Returns a lower bound on the great-circle distance between two points in the box.
+     * @param lonV The longitude of the first point.
+     * @param latV The latitude of the first point.
+     * @param lonW The longitude of the second point.
+     * @param latW The latitude of the second point.
+     * @return A distance in miles no greater than <code>GraphDB.distance</code> of the points.
+     */
+    double lowerBound(double lonV, double latV, double lonW, double latW) {
+        double dx = (lonW - lonV) * lonScale;
+        double dy = (latW - latV) * latScale;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /** Absorbs floating-point error in the bound and in the haversine distance it is below. */
+    private static final double ROUNDING_MARGIN = 1e-9;
+}
@@ -0,0 +1,46 @@
+/**
+ * An EdgeWeightUpdate changes the travel time of one road segment while the server is running,
+ * for example to model a closure or a traffic slowdown. Updates are applied in batches with
+ * <code>GraphDB.updateEdgeWeights</code> and affect routing modes that respect live weights.
+ *
+ * Instances are created directly or deserialized by Gson from the admin endpoint in MapServer.
+ */
+class EdgeWeightUpdate {
+    /** The ID of the vertex at one end of the segment. */
+    final long from;
+    /** The ID of the vertex at the other end of the segment. */
+    final long to;
+    /** Multiplier applied to the segment's base travel time; 1 clears any earlier override. */
+    final double factor;
+    /** True if the segment is closed, regardless of <code>factor</code>. */
+    final boolean closed;
+    /** True if the update also applies to travel from <code>to</code> to <code>from</code>. */
+    final boolean bothDirections;
+
+    /** Private constructor used by Gson, which defaults to a two-way reset. */
+    private EdgeWeightUpdate() {
+        this(0L, 0L, 1.0, false, true);
+    }
+
+    EdgeWeightUpdate(long from, long to, double factor, boolean closed, boolean bothDirections) {
+        this.from = from;
+        this.to = to;
+        this.factor = factor;
+        this.closed = closed;
+        this.bothDirections = bothDirections;
+    }
+
+    /**
+     * Returns the multiplier this update applies to the segment's base travel time.
+     * @return <code>Double.POSITIVE_INFINITY</code> for a closure, otherwise the factor.
+     */
+    double multiplier() {
+        if (closed) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("Weight factor must be positive: " + factor);
+        }
+        return factor;
+    }
+}
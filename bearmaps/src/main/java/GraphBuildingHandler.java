@@ -96,12 +96,20 @@ public class GraphBuildingHandler extends DefaultHandler {
                 // System.out.println("Highway type: " + v);
                 /*
                  * Hint: Set a "flag". */
+                edge.setHighway(v);
                 if (ALLOWED_HIGHWAY_TYPES .contains(v)) {
                     edge.setValid(true);
                 }
             } else if (k.equals("name")) {
                 // System.out.println("Way Name: " + v);
-                edge.setName(attributes.getValue(v));
+                edge.setName(v);
+            } else if (k.equals("maxspeed")) {
+                edge.setMaxspeed(v);
+            } else if (k.equals("oneway")) {
+                edge.setOneway(parseOneway(v));
+            } else if (k.equals("junction") && v.equals("roundabout") && edge.oneway == 0) {
+                /* Roundabouts are implicitly one-way in node order. */
+                edge.setOneway(1);
             }
             // System.out.println("Tag with k=" + k + ", v=" + v + ".");
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
@@ -115,6 +123,25 @@ public class GraphBuildingHandler extends DefaultHandler {
             node.setName(attributes.getValue("v"));
         }
     }
+    /**
+     * Converts an OSM <code>oneway</code> tag value into the encoding used by
+     * <code>GraphDB.Edge</code>.
+     * @param v The tag value, e.g. "yes", "no", or "-1".
+     * @return 1 for one-way in node order, -1 for one-way against it, 0 for two-way.
+     */
+    static int parseOneway(String v) {
+        switch (v) {
+            case "yes":
+            case "true":
+            case "1":
+                return 1;
+            case "-1":
+            case "reverse":
+                return -1;
+            default:
+                return 0;
+        }
+    }
     /**
      * Receive notification of the end of an element. You may want to take specific terminating
      * actions here, like finalizing vertices or edges found.
@@ -135,7 +162,7 @@ public class GraphBuildingHandler extends DefaultHandler {
             // System.out.println("Finishing a way...");
             if (edge.val) {
                 for (int i = 0; i < edge.nodes.size() - 1; i += 1) {
-                    g.addNeighbors(edge.nodes.get(i), edge.nodes.get(i + 1));
+                    g.addNeighbors(edge.nodes.get(i), edge.nodes.get(i + 1), wid);
                 }
             }
             g.addEdge(wid, edge);
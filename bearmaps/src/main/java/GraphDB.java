@@ -2,14 +2,24 @@ import org.xml.sax.SAXException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
  * Uses your GraphBuildingHandler to convert the XML files into a graph. Your
@@ -49,6 +59,10 @@ public class GraphDB {
         ArrayList<Long> nodes;
         Boolean val;
         String name;
+        String highway;
+        String maxspeed;
+        /** 1 if the way is one-way in node order, -1 if one-way against it, 0 otherwise. */
+        int oneway;
         Edge(long id) {
             this.id = id;
             this.nodes = new ArrayList<>();
@@ -63,26 +77,60 @@ public class GraphDB {
         public void setName(String name) {
             this.name = name;
         }
+        public void setHighway(String highway) {
+            this.highway = highway;
+        }
+        public void setMaxspeed(String maxspeed) {
+            this.maxspeed = maxspeed;
+        }
+        public void setOneway(int oneway) {
+            this.oneway = oneway;
+        }
     }
     HashMap<Long, Node> nodes = new HashMap();
     HashMap<Long, Edge> edges = new HashMap<>();
-    HashMap<Long, HashSet<Long>> neighbors = new HashMap<>();
+    /** Maps each vertex to its neighbors, and each neighbor to the ID of the connecting way. */
+    HashMap<Long, HashMap<Long, Long>> neighbors = new HashMap<>();
+    /**
+     * Nodes that are not on any road. They are not vertices, but later changes may connect them,
+     * and change files only carry the nodes they create or modify.
+     */
+    HashMap<Long, Node> detached = new HashMap<>();
     KdTree root;
+    /**
+     * Distinct for every graph built in this JVM, and increasing, so a graph produced by a change
+     * file or a reload always has a larger version than the graph it replaces.
+     */
+    private final long version;
+    /** Array-backed copy of the cleaned graph used by the search algorithms in Router. */
+    private CompactGraph compact;
+    /** R-tree over the road segments of <code>compact</code>, for snapping onto roads. */
+    private SegmentIndex segments;
+    /** Named nodes on and off the roads, sorted for search by name. */
+    private LocationIndex locations;
+    /** The current snapshot of travel-time weights with live overrides applied. */
+    private volatile LiveWeights liveWeights;
     public void addNode(Node node) {
         nodes.put(node.id, node);
     }
     public void addEdge(Long id, Edge edge) {
         edges.put(id, edge);
     }
-    public void addNeighbors(Long v, Long w) {
+    /**
+     * Connects two consecutive vertices of a way.
+     * @param v The ID of the first vertex.
+     * @param w The ID of the second vertex.
+     * @param way The ID of the way the segment belongs to.
+     */
+    public void addNeighbors(Long v, Long w, Long way) {
         if (!neighbors.containsKey(v) || neighbors.get(v) == null) {
-            neighbors.put(v, new HashSet<>());
+            neighbors.put(v, new HashMap<>());
         }
         if (!neighbors.containsKey(w) || neighbors.get(w) == null) {
-            neighbors.put(w, new HashSet<>());
+            neighbors.put(w, new HashMap<>());
         }
-        neighbors.get(v).add(w);
-        neighbors.get(w).add(v);
+        neighbors.get(v).put(w, way);
+        neighbors.get(w).put(v, way);
     }
     /**
      * This constructor creates and starts an XML parser, cleans the nodes, and prepares the
@@ -90,6 +138,7 @@ public class GraphDB {
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
+        version = VERSIONS.incrementAndGet();
         File inputFile = new File(dbPath);
         try (FileInputStream inputStream = new FileInputStream(inputFile)) {
             SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -99,7 +148,200 @@ public class GraphDB {
             e.printStackTrace();
         }
         clean();
-        createKdTree();
+        buildIndexes(LiveWeights::initial);
+    }
+    /** Creates an empty graph that collects the elements of a change file. */
+    private GraphDB() {
+        version = 0;
+    }
+    /**
+     * Creates the next version of a graph by merging a parsed change file into it. The base
+     * graph is never modified: maps are copied, and unchanged nodes, ways, and neighbor sets are
+     * shared until this version needs to change them.
+     * @param base The graph the changes apply to.
+     * @param change The parsed change file.
+     */
+    private GraphDB(GraphDB base, OsmChangeHandler change) {
+        version = VERSIONS.incrementAndGet();
+        HashMap<Long, Node> all = new HashMap<>(base.nodes.size() + base.detached.size());
+        all.putAll(base.nodes);
+        all.putAll(base.detached);
+        all.keySet().removeAll(change.deletedNodes);
+        all.putAll(change.staged.nodes);
+        edges = new HashMap<>(base.edges);
+        neighbors = new HashMap<>(base.neighbors);
+        HashSet<Long> copied = new HashSet<>();
+        /* Disconnect the old version of every modified or deleted way. */
+        HashSet<Long> replaced = new HashSet<>(change.deletedWays);
+        replaced.addAll(change.staged.edges.keySet());
+        HashMap<Long, HashSet<Long>> unlinked = new HashMap<>();
+        for (long way : replaced) {
+            Edge old = edges.remove(way);
+            if (old == null || !old.val) {
+                continue;
+            }
+            for (int i = 0; i < old.nodes.size() - 1; i += 1) {
+                long v = old.nodes.get(i);
+                long w = old.nodes.get(i + 1);
+                if (unlink(v, w, way, copied) | unlink(w, v, way, copied)) {
+                    unlinked.computeIfAbsent(v, k -> new HashSet<>()).add(w);
+                    unlinked.computeIfAbsent(w, k -> new HashSet<>()).add(v);
+                }
+            }
+        }
+        /*
+         * A segment records only one of the ways through it, so give segments shared with a way
+         * that survives back to that way.
+         */
+        if (!unlinked.isEmpty()) {
+            for (Edge e : edges.values()) {
+                if (!e.val) {
+                    continue;
+                }
+                for (int i = 0; i < e.nodes.size() - 1; i += 1) {
+                    long v = e.nodes.get(i);
+                    long w = e.nodes.get(i + 1);
+                    HashSet<Long> lost = unlinked.get(v);
+                    if (lost != null && lost.contains(w)) {
+                        writableNeighbors(v, copied).put(w, e.id);
+                        writableNeighbors(w, copied).put(v, e.id);
+                    }
+                }
+            }
+        }
+        /* Segments of ways that still reference a deleted node are dropped. */
+        for (long v : change.deletedNodes) {
+            HashMap<Long, Long> adj = neighbors.remove(v);
+            if (adj != null) {
+                for (long w : adj.keySet()) {
+                    writableNeighbors(w, copied).remove(v);
+                }
+            }
+        }
+        for (Edge e : change.staged.edges.values()) {
+            edges.put(e.id, e);
+            if (!e.val) {
+                continue;
+            }
+            for (int i = 0; i < e.nodes.size() - 1; i += 1) {
+                long v = e.nodes.get(i);
+                long w = e.nodes.get(i + 1);
+                if (all.containsKey(v) && all.containsKey(w)) {
+                    writableNeighbors(v, copied).put(w, e.id);
+                    writableNeighbors(w, copied).put(v, e.id);
+                }
+            }
+        }
+        for (Node n : all.values()) {
+            HashMap<Long, Long> adj = neighbors.get(n.id);
+            if (adj == null || adj.isEmpty()) {
+                neighbors.remove(n.id);
+                detached.put(n.id, n);
+            } else {
+                nodes.put(n.id, n);
+            }
+        }
+        buildIndexes(c -> base.liveWeights.rebase(base.compact, c));
+    }
+    /**
+     * Builds the search structures from the cleaned nodes and adjacency, which no longer change.
+     * The kd-tree, the name index, and the array-backed graph with its segment index and weights
+     * only read those maps, so they are built concurrently.
+     * @param weights Computes the initial live weights of the array-backed graph.
+     */
+    private void buildIndexes(Function<CompactGraph, LiveWeights> weights) {
+        CompletableFuture<Void> tree = CompletableFuture.runAsync(this::createKdTree);
+        CompletableFuture<LocationIndex> names =
+                CompletableFuture.supplyAsync(this::createLocationIndex);
+        compact = new CompactGraph(this);
+        CompletableFuture<SegmentIndex> roads =
+                CompletableFuture.supplyAsync(() -> new SegmentIndex(compact));
+        liveWeights = weights.apply(compact);
+        segments = roads.join();
+        locations = names.join();
+        tree.join();
+    }
+    /** Removes the segment from v to w if it belongs to the given way, returning whether it did. */
+    private boolean unlink(long v, long w, long way, HashSet<Long> copied) {
+        HashMap<Long, Long> adj = neighbors.get(v);
+        if (adj != null && Objects.equals(adj.get(w), way)) {
+            writableNeighbors(v, copied).remove(w);
+            return true;
+        }
+        return false;
+    }
+    /** Returns a neighbor map of v owned by this version, copying the shared one on first use. */
+    private HashMap<Long, Long> writableNeighbors(long v, HashSet<Long> copied) {
+        HashMap<Long, Long> adj = neighbors.get(v);
+        if (copied.add(v)) {
+            adj = adj == null ? new HashMap<>() : new HashMap<>(adj);
+            neighbors.put(v, adj);
+        }
+        return adj;
+    }
+    /**
+     * Returns a new version of this graph with an OSM change file applied: nodes and ways are
+     * created, modified, or deleted, and the search structures are rebuilt. This graph is left
+     * unchanged, so queries already running against it keep a consistent snapshot; callers
+     * publish the returned graph when they are ready. Live weight overrides carry over for
+     * segments that still exist.
+     * @param osc The change file, in OsmChange XML.
+     * @return The next version of the graph.
+     * @throws IllegalArgumentException If the change file cannot be parsed.
+     */
+    GraphDB applyChanges(InputStream osc) {
+        OsmChangeHandler change = new OsmChangeHandler(new GraphDB());
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(osc, change);
+        } catch (ParserConfigurationException | SAXException | IOException
+                | RuntimeException e) {
+            /* Missing or malformed attributes surface as runtime exceptions from the handler. */
+            throw new IllegalArgumentException("Invalid change file: " + e.getMessage(), e);
+        }
+        return new GraphDB(this, change);
+    }
+    /**
+     * Returns the version of this graph.
+     * @return A version larger than that of any graph built before this one.
+     */
+    long version() {
+        return version;
+    }
+    /**
+     * Returns the array-backed view of this graph used for searching.
+     * @return The <code>CompactGraph</code> built from the cleaned nodes.
+     */
+    CompactGraph compact() {
+        return compact;
+    }
+    /**
+     * Returns the current snapshot of live travel-time weights. Read it once per query: the
+     * returned snapshot never changes, even if updates are applied while the query runs.
+     * @return The latest published <code>LiveWeights</code>.
+     */
+    LiveWeights liveWeights() {
+        return liveWeights;
+    }
+    /**
+     * Carries the live weight overrides of the graph this one replaces over to every segment
+     * that still exists here, for a graph rebuilt from the map file.
+     * @param old The graph being replaced.
+     */
+    synchronized void inheritLiveWeights(GraphDB old) {
+        liveWeights = old.liveWeights.rebase(old.compact, compact);
+    }
+    /**
+     * Atomically applies a batch of edge-weight overrides, such as closures and slowdowns. The
+     * new weights are built on a copy and then published in a single step, so queries that are
+     * already running keep the snapshot they started with and are never blocked.
+     * @param updates The overrides to apply, in order.
+     * @return The version of the newly published snapshot.
+     * @throws IllegalArgumentException If an update is invalid; no update in the batch is applied.
+     */
+    synchronized long updateEdgeWeights(List<EdgeWeightUpdate> updates) {
+        LiveWeights next = liveWeights.apply(compact, updates);
+        liveWeights = next;
+        return next.version;
     }
     //public double maxlat;
     // public double maxlon;
@@ -148,21 +390,23 @@ public class GraphDB {
      * @param s Input string.
      * @return Cleaned string.
      */
-    private static String cleanString(String s) {
+    static String cleanString(String s) {
         return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
     }
     /**
-     * Remove nodes with no connections from the graph.
+     * Remove nodes with no connections from the graph, setting them aside in
+     * <code>detached</code>.
      * While this does not guarantee that any two nodes in the remaining graph are connected,
      * we can reasonably assume this since typically roads are connected.
      */
     private void clean() {
-        HashMap<Long, Node> tmp = (HashMap) nodes.clone();
-        for (Long v: tmp.keySet()) {
-            if (!neighbors.containsKey(v) || neighbors.get(v) == null) {
-                neighbors.remove(v);
-                nodes.remove(v);
-            }
+        /* Find the unconnected nodes in parallel, then move them without copying the map. */
+        List<Long> unconnected = nodes.keySet().parallelStream()
+                .filter(v -> neighbors.get(v) == null)
+                .collect(Collectors.toList());
+        for (long v : unconnected) {
+            neighbors.remove(v);
+            detached.put(v, nodes.remove(v));
         }
     }
     /**
@@ -204,7 +448,7 @@ public class GraphDB {
         if (!neighbors.containsKey(v)) {
             return Collections.emptySet();
         }
-        return neighbors.get(v);
+        return neighbors.get(v).keySet();
     }
     /**
      * Returns the great-circle distance between two vertices, v and w, in miles.
@@ -215,10 +459,22 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     public double distance(long v, long w) {
-        double phia = Math.toRadians(lat(w));
-        double phib = Math.toRadians(lat(v));
-        double dphi = Math.toRadians(lat(w) - lat(v));
-        double dlambda = Math.toRadians(lon(w) - lon(v));
+        return distance(lon(v), lat(v), lon(w), lat(w));
+    }
+    /**
+     * Returns the great-circle distance in miles between two points given by their coordinates.
+     * @param lonV The longitude of the first point.
+     * @param latV The latitude of the first point.
+     * @param lonW The longitude of the second point.
+     * @param latW The latitude of the second point.
+     * @return The great-circle distance between the two points.
+     * @source https://www.movable-type.co.uk/scripts/latlong.html
+     */
+    static double distance(double lonV, double latV, double lonW, double latW) {
+        double phia = Math.toRadians(latW);
+        double phib = Math.toRadians(latV);
+        double dphi = Math.toRadians(latW - latV);
+        double dlambda = Math.toRadians(lonW - lonV);
         double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
         a += Math.cos(phib) * Math.cos(phia) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
@@ -240,26 +496,57 @@ public class GraphDB {
             this.y = y;
         }
     }
-    public KdTree kdTreeHelper(List<Long> lst, boolean axis) {
-        if (lst.size() == 0) {
-            return null;
+    /**
+     * Builds the kd-tree over a range of nodes by splitting at the median of the axis. The two
+     * halves of a split are disjoint ranges of the array, so large ones are built in parallel.
+     */
+    private class KdTreeTask extends RecursiveTask<KdTree> {
+        private final Node[] sorted;
+        private final int lo, hi;
+        private final boolean axis;
+        KdTreeTask(Node[] sorted, int lo, int hi, boolean axis) {
+            this.sorted = sorted;
+            this.lo = lo;
+            this.hi = hi;
+            this.axis = axis;
         }
-        if (axis) {
-            lst.sort((v, w) -> (Double.compare(nodes.get(v).x,
-                    nodes.get(w).x)));
-        } else {
-            lst.sort((v, w) -> (Double.compare(nodes.get(v).y,
-                    nodes.get(w).y)));
+        @Override
+        protected KdTree compute() {
+            if (lo == hi) {
+                return null;
+            }
+            if (axis) {
+                Arrays.sort(sorted, lo, hi, (v, w) -> Double.compare(v.x, w.x));
+            } else {
+                Arrays.sort(sorted, lo, hi, (v, w) -> Double.compare(v.y, w.y));
+            }
+            int mid = lo + (hi - lo) / 2;
+            KdTreeTask left = new KdTreeTask(sorted, lo, mid, !axis);
+            KdTreeTask right = new KdTreeTask(sorted, mid + 1, hi, !axis);
+            KdTree l, r;
+            if (hi - lo < KD_TREE_FORK_THRESHOLD) {
+                l = left.compute();
+                r = right.compute();
+            } else {
+                left.fork();
+                r = right.compute();
+                l = left.join();
+            }
+            Node median = sorted[mid];
+            return new KdTree(median.id, l, r, axis, median.x, median.y);
         }
-        int mid = lst.size() / 2;
-        KdTree left =  kdTreeHelper(lst.subList(0, mid), !axis);
-        KdTree right = kdTreeHelper(lst.subList(mid + 1, lst.size()), !axis);
-        return new KdTree(lst.get(mid), left, right, axis,
-                nodes.get(lst.get(mid)).x, nodes.get(lst.get(mid)).y);
+        private static final long serialVersionUID = 1L;
     }
     public void createKdTree() {
-        List<Long> lst = new ArrayList<>(nodes.keySet());
-        root = kdTreeHelper(lst, true);
+        Node[] sorted = nodes.values().toArray(new Node[0]);
+        root = new KdTreeTask(sorted, 0, sorted.length, true).invoke();
+    }
+    /** Indexes the named nodes, including those set aside in <code>detached</code>. */
+    private LocationIndex createLocationIndex() {
+        List<Node> all = new ArrayList<>(nodes.size() + detached.size());
+        all.addAll(nodes.values());
+        all.addAll(detached.values());
+        return new LocationIndex(all);
     }
     class Pair {
         KdTree currentbest;
@@ -271,6 +558,14 @@ public class GraphDB {
     }
     public Pair closestHelper(KdTree t, double x, double y,
                               KdTree currentbest, double bestdist) {
+        return closestHelper(t, x, y, currentbest, bestdist, v -> true);
+    }
+    /**
+     * Finds the closest vertex to <code>(x, y)</code> among those <code>accept</code> allows.
+     * Rejected vertices still guide the descent but never become the best candidate.
+     */
+    private Pair closestHelper(KdTree t, double x, double y, KdTree currentbest,
+                               double bestdist, LongPredicate accept) {
         if (t == null) {
             return new Pair(currentbest, bestdist);
         }
@@ -282,20 +577,20 @@ public class GraphDB {
             diff = t.y - y;
         }
         double abs = Math.abs(diff);
-        if (distance < bestdist || bestdist == -1) {
+        if ((distance < bestdist || bestdist == -1) && accept.test(t.median)) {
             currentbest = t;
             bestdist = distance;
         }
         if (diff < 0) {
-            Pair right = closestHelper(t.right, x, y, currentbest, bestdist);
-            if (bestdist > abs) {
-                return closestHelper(t.left, x, y, right.currentbest, right.bestdist);
+            Pair right = closestHelper(t.right, x, y, currentbest, bestdist, accept);
+            if (right.bestdist > abs || right.bestdist == -1) {
+                return closestHelper(t.left, x, y, right.currentbest, right.bestdist, accept);
             }
             return right;
         } else {
-            Pair left = closestHelper(t.left, x, y, currentbest, bestdist);
-            if (bestdist > abs) {
-                return closestHelper(t.right, x, y, left.currentbest, left.bestdist);
+            Pair left = closestHelper(t.left, x, y, currentbest, bestdist, accept);
+            if (left.bestdist > abs || left.bestdist == -1) {
+                return closestHelper(t.right, x, y, left.currentbest, left.bestdist, accept);
             }
             return left;
         }
@@ -307,10 +602,124 @@ public class GraphDB {
      * @return The ID for the vertex closest to the <code>lon</code> and <code>lat</code>.
      */
     public long closest(double lon, double lat) {
+        Metrics.CLOSEST_CALLS.increment();
         double x = projectToX(lon, lat);
         double y = projectToY(lon, lat);
         return closestHelper(root, x, y, null, -1).currentbest.median;
     }
+    /**
+     * Returns the ID of the vertex closest to the given longitude and latitude, optionally
+     * considering only vertices in the largest connected component, so that routes are never
+     * started on a small road fragment that cannot reach the rest of the map.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @param largestComponent True to skip vertices outside the largest component.
+     * @return The ID for the closest eligible vertex.
+     */
+    public long closest(double lon, double lat, boolean largestComponent) {
+        if (!largestComponent) {
+            return closest(lon, lat);
+        }
+        Metrics.CLOSEST_CALLS.increment();
+        CompactGraph cg = compact;
+        int c = cg.largestComponent;
+        double x = projectToX(lon, lat);
+        double y = projectToY(lon, lat);
+        return closestHelper(root, x, y, null, -1,
+                v -> cg.component[cg.indexOf(v)] == c).currentbest.median;
+    }
+    /**
+     * Returns the IDs of up to <code>k</code> vertices closest to the given longitude and
+     * latitude that lie within <code>maxDistance</code> miles of it, closest first. Distances are
+     * measured in the projection <code>closest</code> uses, which agrees with the great-circle
+     * distance to within a millionth over the map.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @param k The most vertices to return.
+     * @param maxDistance The search radius in miles.
+     * @return The IDs of the vertices found, which may be fewer than <code>k</code>.
+     */
+    long[] closest(double lon, double lat, int k, double maxDistance) {
+        Metrics.CLOSEST_CALLS.increment();
+        Neighbors found = new Neighbors(k, maxDistance / R);
+        closestHelper(root, projectToX(lon, lat), projectToY(lon, lat), found);
+        return Arrays.copyOf(found.ids, found.size);
+    }
+    /** Offers each vertex of <code>t</code> that may be among the closest to <code>found</code>. */
+    private void closestHelper(KdTree t, double x, double y, Neighbors found) {
+        if (t == null) {
+            return;
+        }
+        found.offer(t.median, euclidean(t.x, x, t.y, y));
+        double diff = t.axis ? t.x - x : t.y - y;
+        closestHelper(diff < 0 ? t.right : t.left, x, y, found);
+        if (Math.abs(diff) <= found.bound()) {
+            closestHelper(diff < 0 ? t.left : t.right, x, y, found);
+        }
+    }
+    /** The closest vertices found so far by a k-nearest search, sorted by distance. */
+    private static class Neighbors {
+        final long[] ids;
+        final double[] dists;
+        final double maxDist;
+        int size;
+        Neighbors(int k, double maxDist) {
+            this.ids = new long[k];
+            this.dists = new double[k];
+            this.maxDist = maxDist;
+        }
+        /** Returns the distance a vertex must be within to be kept. */
+        double bound() {
+            return size < ids.length ? maxDist : dists[size - 1];
+        }
+        void offer(long id, double dist) {
+            if (dist > bound() || ids.length == 0) {
+                return;
+            }
+            int i = Math.min(size, ids.length - 1);
+            while (i > 0 && dists[i - 1] > dist) {
+                ids[i] = ids[i - 1];
+                dists[i] = dists[i - 1];
+                i -= 1;
+            }
+            ids[i] = id;
+            dists[i] = dist;
+            size = Math.min(size + 1, ids.length);
+        }
+    }
+    /**
+     * Returns the nearest point on any road to the given longitude and latitude. Unlike
+     * <code>closest</code>, the result may lie partway along a segment.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @return The snapped point and the segment it lies on, or null if the graph has no roads.
+     */
+    SegmentIndex.Snap snapToRoad(double lon, double lat) {
+        return segments.nearest(lon, lat);
+    }
+    /**
+     * Calls <code>action</code> with one adjacency slot for every road segment that may
+     * intersect a bounding box.
+     * @param ullon The upper-left longitude of the box.
+     * @param ullat The upper-left latitude of the box.
+     * @param lrlon The lower-right longitude of the box.
+     * @param lrlat The lower-right latitude of the box.
+     * @param action Receives the slot of each segment in <code>compact()</code>.
+     */
+    void segmentsIn(double ullon, double ullat, double lrlon, double lrlat, IntConsumer action) {
+        segments.search(ullon, ullat, lrlon, lrlat, action);
+    }
+    /**
+     * Returns whether two vertices are in the same connected component, in constant time.
+     * @param v The ID of a vertex.
+     * @param w The ID of another vertex.
+     * @return False if either vertex is not in the graph or no route can join them.
+     */
+    boolean connected(long v, long w) {
+        int i = compact.indexOf(v);
+        int j = compact.indexOf(w);
+        return i >= 0 && j >= 0 && compact.connected(i, j);
+    }
     static double euclidean(double x1, double x2, double y1, double y2) {
         return Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 - y2, 2));
     }
@@ -343,14 +752,17 @@ public class GraphDB {
         return K0 * (con - Math.toRadians(ROOT_LAT));
     }
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect all the distinct names of OSM locations that prefix-match the query string, in
+     * time proportional to the number of matches.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
      * cleaned <code>prefix</code>.
      */
     public List<String> getLocationsByPrefix(String prefix) {
-        return Collections.emptyList();
+        List<String> matches = new ArrayList<>();
+        locations.byPrefix(prefix, null, Integer.MAX_VALUE, matches::add);
+        return matches;
     }
     /**
      * Collect all locations that match a cleaned <code>locationName</code>, and return
@@ -360,7 +772,17 @@ public class GraphDB {
      * cleaned <code>locationName</code>
      */
     public List<LocationParams> getLocations(String locationName) {
-        return Collections.emptyList();
+        List<LocationParams> matches = new ArrayList<>();
+        locations.byName(locationName, null, Integer.MAX_VALUE, matches::add);
+        return matches;
+    }
+    /**
+     * Returns the index of named locations, for paging through search results without
+     * collecting them.
+     * @return The <code>LocationIndex</code> of this graph.
+     */
+    LocationIndex locations() {
+        return locations;
     }
     /**
      * Returns the initial bearing between vertices <code>v</code> and <code>w</code> in degrees.
@@ -373,17 +795,33 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     double bearing(long v, long w) {
-        double phia = Math.toRadians(lat(w));
-        double phib = Math.toRadians(lat(v));
-        double lambdaa = Math.toRadians(lon(w));
-        double lambdab = Math.toRadians(lon(v));
+        return bearing(lon(v), lat(v), lon(w), lat(w));
+    }
+    /**
+     * Returns the initial bearing in degrees from one point to another given by their coordinates.
+     * @param lonV The longitude of the first point.
+     * @param latV The latitude of the first point.
+     * @param lonW The longitude of the second point.
+     * @param latW The latitude of the second point.
+     * @return The bearing between the two points in degrees.
+     * @source https://www.movable-type.co.uk/scripts/latlong.html
+     */
+    static double bearing(double lonV, double latV, double lonW, double latW) {
+        double phia = Math.toRadians(latW);
+        double phib = Math.toRadians(latV);
+        double lambdaa = Math.toRadians(lonW);
+        double lambdab = Math.toRadians(lonV);
         double y = Math.sin(lambdaa - lambdab) * Math.cos(phia);
         double x = Math.cos(phib) * Math.sin(phia);
         x -= Math.sin(phib) * Math.cos(phia) * Math.cos(lambdab - lambdaa);
         return Math.toDegrees(Math.atan2(y, x));
     }
+    /** Ranges smaller than this are split sequentially when building the kd-tree. */
+    private static final int KD_TREE_FORK_THRESHOLD = 4096;
+    /** Source of graph versions. */
+    private static final AtomicLong VERSIONS = new AtomicLong();
     /** Radius of the Earth in miles. */
-    private static final int R = 3963;
+    static final int R = 3963;
     /** Latitude centered on Berkeley. */
     private static final double ROOT_LAT = (MapServer.ROOT_ULLAT + MapServer.ROOT_LRLAT) / 2;
     /** Longitude centered on Berkeley. */
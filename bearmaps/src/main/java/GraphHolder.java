@@ -0,0 +1,104 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Publishes the <code>GraphDB</code> that requests run against, and lets it be replaced while
+ * the server is running. Each published graph is a generation with a reference count: a request
+ * leases the current generation for its whole duration, and a replaced generation is drained
+ * once its last lease is closed, after which nothing refers to the old graph and it can be
+ * garbage collected.
+ */
+class GraphHolder {
+    /** One published graph and the leases held on it. */
+    private static class Generation {
+        final GraphDB graph;
+        /** Open leases, plus one held by the holder while this generation is current. */
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final CountDownLatch drained = new CountDownLatch(1);
+        Generation(GraphDB graph) {
+            this.graph = graph;
+        }
+        /** Takes a reference unless the generation has already drained. */
+        boolean tryAcquire() {
+            while (true) {
+                int r = refs.get();
+                if (r == 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(r, r + 1)) {
+                    return true;
+                }
+            }
+        }
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                drained.countDown();
+            }
+        }
+    }
+
+    /** A reference to a published graph, held for the duration of one request. */
+    static class Lease implements AutoCloseable {
+        /** The leased graph, which stays consistent until the lease is closed. */
+        final GraphDB graph;
+        private final Generation generation;
+        private boolean closed;
+        private Lease(Generation generation) {
+            this.generation = generation;
+            this.graph = generation.graph;
+        }
+        /** Releases the graph. Closing a lease more than once has no further effect. */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                generation.release();
+            }
+        }
+    }
+
+    private volatile Generation current;
+
+    /**
+     * Create a new GraphHolder.
+     * @param initial The graph to publish first.
+     */
+    GraphHolder(GraphDB initial) {
+        current = new Generation(initial);
+    }
+
+    /**
+     * Leases the current graph. Close the lease when the request is done with it.
+     * @return A lease on the current graph.
+     */
+    Lease acquire() {
+        while (true) {
+            Generation g = current;
+            if (g.tryAcquire()) {
+                return new Lease(g);
+            }
+            /* The generation drained between our read and acquire, so a newer one is current. */
+        }
+    }
+
+    /**
+     * Returns the current graph without leasing it, for callers that are about to replace it
+     * and are already serialized with other writers.
+     * @return The current graph.
+     */
+    GraphDB peek() {
+        return current.graph;
+    }
+
+    /**
+     * Atomically replaces the current graph. Requests that already hold a lease keep the old
+     * graph until they finish; new requests see the new one.
+     * @param next The graph to publish.
+     * @return A latch that opens once every lease on the replaced graph is closed.
+     */
+    synchronized CountDownLatch publish(GraphDB next) {
+        Generation old = current;
+        current = new Generation(next);
+        old.release();
+        return old.drained;
+    }
+}
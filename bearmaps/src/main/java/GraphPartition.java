@@ -0,0 +1,137 @@
+import java.util.Arrays;
+/**
+ * A partition of a <code>CompactGraph</code> into geographically compact cells of bounded size,
+ * used to shard routing across processes. Cells are found by recursive bisection in the spirit
+ * of inertial flow: each set of vertices is ordered along several directions, and it is split
+ * at the balanced position along the direction that cuts the fewest road segments. The
+ * recursion forms the multilevel hierarchy; its leaves are the cells.
+ */
+class GraphPartition {
+    /** The cell of each vertex, by dense index. */
+    final int[] cell;
+    /** The number of cells; cell IDs are 0 to <code>numCells - 1</code>. */
+    final int numCells;
+    /** Offsets into <code>members</code>, one per cell plus a trailing sentinel. */
+    private final int[] cellStart;
+    /** The dense indices of the vertices of each cell, grouped by cell. */
+    private final int[] members;
+
+    private GraphPartition(int[] cell, int numCells) {
+        this.cell = cell;
+        this.numCells = numCells;
+        cellStart = new int[numCells + 1];
+        for (int c : cell) {
+            cellStart[c + 1] += 1;
+        }
+        for (int c = 0; c < numCells; c += 1) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        members = new int[cell.length];
+        int[] next = Arrays.copyOf(cellStart, numCells);
+        for (int v = 0; v < cell.length; v += 1) {
+            members[next[cell[v]]] = v;
+            next[cell[v]] += 1;
+        }
+    }
+
+    /**
+     * Returns the vertices of one cell, so that work on a cell costs time in its size rather
+     * than in the size of the whole graph.
+     * @param c The cell ID.
+     * @return The dense indices of the cell's vertices, in increasing order.
+     */
+    int[] members(int c) {
+        return Arrays.copyOfRange(members, cellStart[c], cellStart[c + 1]);
+    }
+
+    /**
+     * Partitions a graph into cells of at most <code>maxCellSize</code> vertices. The result
+     * depends only on the graph, so every process that partitions the same map with the same
+     * cell size agrees on the cells.
+     * @param cg The graph to partition.
+     * @param maxCellSize The largest number of vertices allowed in one cell.
+     * @return The partition.
+     */
+    static GraphPartition inertial(CompactGraph cg, int maxCellSize) {
+        if (maxCellSize < 1) {
+            throw new IllegalArgumentException("Cell size must be positive: " + maxCellSize);
+        }
+        int n = cg.size();
+        Integer[] order = new Integer[n];
+        for (int v = 0; v < n; v += 1) {
+            order[v] = v;
+        }
+        int[] cell = new int[n];
+        int[] numCells = new int[1];
+        bisect(cg, order, 0, n, maxCellSize, cell, numCells, new byte[n]);
+        return new GraphPartition(cell, numCells[0]);
+    }
+
+    /** Recursively splits <code>order[lo, hi)</code> until every part fits in one cell. */
+    private static void bisect(CompactGraph cg, Integer[] order, int lo, int hi, int maxCellSize,
+                               int[] cell, int[] numCells, byte[] side) {
+        int size = hi - lo;
+        if (size <= maxCellSize) {
+            for (int i = lo; i < hi; i += 1) {
+                cell[order[i]] = numCells[0];
+            }
+            numCells[0] += 1;
+            return;
+        }
+        int minLeft = Math.max(1, size * 2 / 5);
+        int maxLeft = Math.min(size - 1, size * 3 / 5);
+        int bestDirection = 0;
+        int bestLeft = size / 2;
+        int bestCut = Integer.MAX_VALUE;
+        for (int d = 0; d < DIRECTIONS.length; d += 1) {
+            sortAlong(cg, order, lo, hi, DIRECTIONS[d]);
+            for (int i = lo; i < hi; i += 1) {
+                side[order[i]] = RIGHT;
+            }
+            /* Sweep vertices from right to left, tracking how many segments cross the split. */
+            int cut = 0;
+            for (int i = lo; i < hi; i += 1) {
+                int v = order[i];
+                for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                    byte s = side[cg.adjTarget[e]];
+                    if (s == LEFT) {
+                        cut -= 1;
+                    } else if (s == RIGHT) {
+                        cut += 1;
+                    }
+                }
+                side[v] = LEFT;
+                int left = i - lo + 1;
+                if (left >= minLeft && left <= maxLeft && cut < bestCut) {
+                    bestCut = cut;
+                    bestDirection = d;
+                    bestLeft = left;
+                }
+            }
+            for (int i = lo; i < hi; i += 1) {
+                side[order[i]] = OUTSIDE;
+            }
+        }
+        sortAlong(cg, order, lo, hi, DIRECTIONS[bestDirection]);
+        bisect(cg, order, lo, lo + bestLeft, maxCellSize, cell, numCells, side);
+        bisect(cg, order, lo + bestLeft, hi, maxCellSize, cell, numCells, side);
+    }
+
+    /** Sorts <code>order[lo, hi)</code> by position along a direction, breaking ties by ID. */
+    private static void sortAlong(CompactGraph cg, Integer[] order, int lo, int hi, double angle) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double scale = Math.cos(Math.toRadians(cg.lat[order[lo]]));
+        Arrays.sort(order, lo, hi, (v, w) -> {
+            double kv = cg.lon[v] * scale * cos + cg.lat[v] * sin;
+            double kw = cg.lon[w] * scale * cos + cg.lat[w] * sin;
+            int c = Double.compare(kv, kw);
+            return c != 0 ? c : Long.compare(cg.ids[v], cg.ids[w]);
+        });
+    }
+
+    /** Directions, in radians, along which each bisection orders its vertices. */
+    private static final double[] DIRECTIONS = {0, Math.PI / 4, Math.PI / 2, 3 * Math.PI / 4};
+    /** Side markers used while sweeping a bisection. */
+    private static final byte OUTSIDE = 0, LEFT = 1, RIGHT = 2;
+}
@@ -0,0 +1,148 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+/**
+ * Encodes rendered map images for the raster endpoint. Clients choose the format per request,
+ * either with the <code>format</code> parameter or through the Accept header, and the server
+ * tunes how hard each format works through system properties:
+ * <ul>
+ *     <li><code>bearmaps.png.level</code>: the PNG deflate level, from 0 (store) to 9. Level 1,
+ *     the default, takes about two thirds of the time of ImageIO's PNG writer for images about
+ *     a quarter larger; level 6 matches ImageIO's size at roughly its speed.</li>
+ *     <li><code>bearmaps.jpeg.quality</code>: the JPEG quality, from 0 to 1. JPEG is lossy but
+ *     much smaller and cheaper for the photographic parts of the map.</li>
+ * </ul>
+ */
+abstract class ImageEncoder {
+    /** A byte buffer whose contents can be read without copying them. */
+    private static class Buffer extends ByteArrayOutputStream {
+        String toBase64() {
+            ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(buf, 0, count));
+            return new String(encoded.array(), 0, encoded.remaining(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    /** The encoded image of the last request on each thread, reused by the next. */
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    /**
+     * Returns the short name of the format, as used in requests and responses.
+     * @return The format name.
+     */
+    abstract String format();
+
+    /**
+     * Returns the media type of the encoded image.
+     * @return The media type.
+     */
+    abstract String mediaType();
+
+    /**
+     * Encodes an image.
+     * @param img The image to encode.
+     * @param out Where to write the encoded image; it is not closed.
+     * @throws IOException If writing fails.
+     */
+    abstract void encode(BufferedImage img, OutputStream out) throws IOException;
+
+    /**
+     * Encodes an image into a buffer owned by the calling thread and returns it in Base64, as
+     * the raster endpoint sends it.
+     * @param img The image to encode.
+     * @return The encoded image in Base64.
+     * @throws IOException If encoding fails.
+     */
+    String encodeBase64(BufferedImage img) throws IOException {
+        Buffer buffer = BUFFER.get();
+        buffer.reset();
+        try {
+            encode(img, buffer);
+            return buffer.toBase64();
+        } finally {
+            /* Let an unusually large image's buffer be collected rather than keep it forever. */
+            if (buffer.size() > MAX_RETAINED_BYTES) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the configured encoder for a format name.
+     * @param name The format name: png, jpeg, or jpg, in any case.
+     * @return The encoder.
+     * @throws IllegalArgumentException If the format is not supported.
+     */
+    static ImageEncoder forFormat(String name) {
+        switch (name.toLowerCase()) {
+            case "png":
+                return PNG;
+            case "jpeg":
+            case "jpg":
+                return JPEG;
+            default:
+                throw new IllegalArgumentException("Unsupported image format: " + name);
+        }
+    }
+
+    /**
+     * Chooses the encoder for a request. An explicit format wins; otherwise JPEG is used only if
+     * the Accept header prefers it to PNG, so clients that say nothing keep getting PNG.
+     * @param format The requested format name, or null.
+     * @param accept The Accept header of the request, or null.
+     * @return The encoder.
+     * @throws IllegalArgumentException If the requested format is not supported.
+     */
+    static ImageEncoder negotiate(String format, String accept) {
+        if (format != null) {
+            return forFormat(format);
+        }
+        if (accept != null
+                && quality(accept, JPEG.mediaType()) > quality(accept, PNG.mediaType())) {
+            return JPEG;
+        }
+        return PNG;
+    }
+
+    /**
+     * Returns the q-value an Accept header gives a media type, taken from the most specific
+     * media range that matches it, or 0 if none does.
+     */
+    private static double quality(String accept, String type) {
+        String wildcard = type.substring(0, type.indexOf('/') + 1) + "*";
+        double q = 0;
+        int specificity = -1;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String r = parts[0].trim().toLowerCase();
+            int s = r.equals(type) ? 2 : r.equals(wildcard) ? 1 : r.equals("*/*") ? 0 : -1;
+            if (s <= specificity) {
+                continue;
+            }
+            specificity = s;
+            q = 1;
+            for (int i = 1; i < parts.length; i += 1) {
+                String p = parts[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(p.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+        }
+        return q;
+    }
+
+    /** Encoded images larger than this are not kept for reuse. */
+    private static final int MAX_RETAINED_BYTES = 4 << 20;
+    /** The PNG encoder at the configured deflate level. */
+    static final ImageEncoder PNG = new PngEncoder(Integer.getInteger("bearmaps.png.level", 1));
+    /** The JPEG encoder at the configured quality. */
+    static final ImageEncoder JPEG = new JpegEncoder(
+            Float.parseFloat(System.getProperty("bearmaps.jpeg.quality", "0.8")));
+}
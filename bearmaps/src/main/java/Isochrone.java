@@ -0,0 +1,87 @@
+import java.util.Arrays;
+/**
+ * The Isochrone contains the vertices reachable from a starting point within a distance budget,
+ * along with the convex hull of those vertices for drawing a service-area overlay. It is returned
+ * by <code>Router.isochrone</code> and serialized directly by Gson in MapServer.
+ */
+class Isochrone {
+    /** IDs of every reachable vertex, in the order they were settled. */
+    final long[] vertices;
+    /** The convex hull of the reachable vertices as counter-clockwise {lon, lat} pairs. */
+    final double[][] hull;
+
+    /** Private constructor to prevent direct instantiation of an empty Isochrone. */
+    private Isochrone() {
+        this(new long[0], new double[0][]);
+    }
+
+    Isochrone(long[] vertices, double[][] hull) {
+        this.vertices = vertices;
+        this.hull = hull;
+    }
+
+    /**
+     * Builds the isochrone for the given dense vertex indices.
+     * @param cg The graph the indices refer to.
+     * @param reached Dense indices of the reachable vertices.
+     * @param count The number of valid entries in <code>reached</code>.
+     * @return A new <code>Isochrone</code>.
+     */
+    static Isochrone of(CompactGraph cg, int[] reached, int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i += 1) {
+            ids[i] = cg.ids[reached[i]];
+        }
+        return new Isochrone(ids, convexHull(cg, Arrays.copyOf(reached, count)));
+    }
+
+    /**
+     * Returns the convex hull of a set of vertices using Andrew's monotone chain algorithm.
+     * @param cg The graph the indices refer to.
+     * @param points Dense vertex indices.
+     * @return The hull as counter-clockwise {lon, lat} pairs, without repeating the first point.
+     */
+    private static double[][] convexHull(CompactGraph cg, int[] points) {
+        int n = points.length;
+        if (n < 3) {
+            double[][] trivial = new double[n][];
+            for (int i = 0; i < n; i += 1) {
+                trivial[i] = new double[] {cg.lon[points[i]], cg.lat[points[i]]};
+            }
+            return trivial;
+        }
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            boxed[i] = points[i];
+        }
+        Arrays.sort(boxed, (v, w) -> cg.lon[v] != cg.lon[w]
+                ? Double.compare(cg.lon[v], cg.lon[w]) : Double.compare(cg.lat[v], cg.lat[w]));
+        int[] hull = new int[2 * n];
+        int k = 0;
+        for (int i = 0; i < n; i += 1) {
+            while (k >= 2 && cross(cg, hull[k - 2], hull[k - 1], boxed[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k] = boxed[i];
+            k += 1;
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; i -= 1) {
+            while (k >= lower && cross(cg, hull[k - 2], hull[k - 1], boxed[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k] = boxed[i];
+            k += 1;
+        }
+        double[][] result = new double[k - 1][];
+        for (int i = 0; i < k - 1; i += 1) {
+            result[i] = new double[] {cg.lon[hull[i]], cg.lat[hull[i]]};
+        }
+        return result;
+    }
+
+    /** Returns the z-component of the cross product of (b - a) and (c - a). */
+    private static double cross(CompactGraph cg, int a, int b, int c) {
+        return (cg.lon[b] - cg.lon[a]) * (cg.lat[c] - cg.lat[a])
+                - (cg.lat[b] - cg.lat[a]) * (cg.lon[c] - cg.lon[a]);
+    }
+}
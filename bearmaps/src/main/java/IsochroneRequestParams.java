@@ -0,0 +1,103 @@
+import java.util.Map;
+
+/**
+ * The IsochroneRequestParams contains the fields received from the browser when requesting the
+ * area reachable from a point. This class will primarily be used by the MapServer to unpack data
+ * received from the web browser before calling the isochrone method.
+ *
+ * This class can either be instantiated through a Spark request query map, or through the Builder
+ * class for mocking browser requests during unit testing of Router.isochrone.
+ */
+public class IsochroneRequestParams {
+    /** The start point latitude. */
+    public final double lat;
+    /** The start point longitude. */
+    public final double lon;
+    /** The maximum travel distance in miles. */
+    public final double budget;
+
+    /**
+     * Validate and return a parameter map of the required request parameters.
+     * Requires that all input parameters are doubles.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return A populated map of input parameter to it's numerical value.
+     */
+    public static IsochroneRequestParams from(Map<String, String[]> req) {
+        Builder builder = new Builder();
+        for (String param : REQUIRED_PARAMS) {
+            if (!req.containsKey(param)) {
+                String msg = String.format("Request failed: %s not found.", param);
+                throw new IllegalArgumentException(msg);
+            } else {
+                try {
+                    builder.set(param, Double.parseDouble(req.get(param)[0]));
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    e.printStackTrace();
+                    String msg = String.format("Incorrect parameters: unable to parse %s.", param);
+                    throw new IllegalArgumentException(msg);
+                }
+            }
+        }
+        return builder.create();
+    }
+
+    private IsochroneRequestParams(double lat, double lon, double budget) {
+        this.lat = lat;
+        this.lon = lon;
+        this.budget = budget;
+    }
+
+    public static class Builder {
+        private double lat, lon, budget;
+
+        /**
+         * Creates an IsochroneRequestParams.Builder instance that can be used to build
+         * an IsochroneRequestParams with various fields pre-set.
+         */
+        public Builder() {
+        }
+
+        public IsochroneRequestParams create() {
+            return new IsochroneRequestParams(lat, lon, budget);
+        }
+
+        public Builder setLat(double value) {
+            this.lat = value;
+            return this;
+        }
+
+        public Builder setLon(double value) {
+            this.lon = value;
+            return this;
+        }
+
+        public Builder setBudget(double value) {
+            this.budget = value;
+            return this;
+        }
+
+        private Builder set(String field, double value) {
+            switch (field) {
+                case "lat":
+                    this.lat = value;
+                    break;
+                case "lon":
+                    this.lon = value;
+                    break;
+                case "budget":
+                    if (value < 0) {
+                        throw new IllegalArgumentException("Budget must be non-negative.");
+                    }
+                    this.budget = value;
+                    break;
+                default:
+                    String msg = String.format("%s is not a valid field for %f.%n", field, value);
+                    throw new IllegalArgumentException(msg);
+            }
+            return this;
+        }
+    }
+
+    /** Isochrone requests to the server must have the following keys in the params map. */
+    private static final String[] REQUIRED_PARAMS = {"lat", "lon", "budget"};
+}
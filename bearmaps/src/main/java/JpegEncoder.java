@@ -0,0 +1,66 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+/**
+ * A lossy JPEG encoder with a tunable quality, built on ImageIO's JPEG writer. Each thread keeps
+ * its own writer, which is costly to create, and images are written through an in-memory stream
+ * rather than ImageIO's default disk cache.
+ */
+class JpegEncoder extends ImageEncoder {
+    private static final ThreadLocal<ImageWriter> WRITER = ThreadLocal.withInitial(
+        () -> ImageIO.getImageWritersByFormatName("jpeg").next());
+
+    private final float quality;
+
+    /**
+     * Creates an encoder.
+     * @param quality The JPEG quality, from 0 (smallest) to 1 (best).
+     * @throws IllegalArgumentException If the quality is out of range.
+     */
+    JpegEncoder(float quality) {
+        if (!(quality >= 0 && quality <= 1)) {
+            throw new IllegalArgumentException("JPEG quality must be 0 to 1: " + quality);
+        }
+        this.quality = quality;
+    }
+
+    @Override
+    String format() {
+        return "jpeg";
+    }
+
+    @Override
+    String mediaType() {
+        return "image/jpeg";
+    }
+
+    @Override
+    void encode(BufferedImage img, OutputStream out) throws IOException {
+        if (img.getColorModel().hasAlpha()) {
+            /* ImageIO writes images with alpha as CMYK-like JPEGs that browsers misread. */
+            BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(),
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
+            g.drawImage(img, 0, 0, null);
+            g.dispose();
+            img = rgb;
+        }
+        ImageWriter writer = WRITER.get();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.reset();
+        }
+    }
+}
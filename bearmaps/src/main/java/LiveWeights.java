@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * An immutable snapshot of per-profile travel-time weights with live overrides applied.
+ * <code>GraphDB</code> publishes a new snapshot for every batch of updates by copying the
+ * previous one, so a search that reads the snapshot once sees consistent weights for its whole
+ * duration, and readers never wait for writers.
+ */
+class LiveWeights {
+    /** Increases by one with every published batch of updates. */
+    final long version;
+    /** Travel time in seconds per adjacency slot, indexed by profile ordinal. */
+    private final double[][] weights;
+    /** The current override multiplier of each overridden slot. */
+    private final Map<Integer, Double> factors;
+
+    private LiveWeights(long version, double[][] weights, Map<Integer, Double> factors) {
+        this.version = version;
+        this.weights = weights;
+        this.factors = factors;
+    }
+
+    /**
+     * Returns the initial snapshot, with no overrides, for a graph.
+     * @param cg The graph whose base profile weights are shared.
+     * @return A snapshot at version 0.
+     */
+    static LiveWeights initial(CompactGraph cg) {
+        double[][] weights = new double[Profile.values().length][];
+        for (Profile p : Profile.values()) {
+            weights[p.ordinal()] = cg.weights(p);
+        }
+        return new LiveWeights(0L, weights, Collections.emptyMap());
+    }
+
+    /**
+     * Returns the live travel-time weights for a profile.
+     * @param p The routing profile.
+     * @return Travel times in seconds, parallel to the adjacency slots. Do not modify.
+     */
+    double[] weights(Profile p) {
+        return weights[p.ordinal()];
+    }
+
+    /**
+     * Returns a snapshot for a new version of the graph that carries over this snapshot's
+     * overrides on every segment that still exists. This snapshot is left unchanged.
+     * @param from The graph this snapshot's slots refer to.
+     * @param to The new graph.
+     * @return The next snapshot, with slots referring to <code>to</code>.
+     */
+    LiveWeights rebase(CompactGraph from, CompactGraph to) {
+        List<EdgeWeightUpdate> carried = new ArrayList<>();
+        for (Map.Entry<Integer, Double> f : factors.entrySet()) {
+            int slot = f.getKey();
+            long v = from.ids[from.adjTarget[from.adjTwin[slot]]];
+            long w = from.ids[from.adjTarget[slot]];
+            int i = to.indexOf(v);
+            if (i < 0 || to.slot(i, w) < 0) {
+                continue;
+            }
+            boolean closed = f.getValue() == Double.POSITIVE_INFINITY;
+            carried.add(new EdgeWeightUpdate(v, w, closed ? 1.0 : f.getValue(), closed, false));
+        }
+        LiveWeights next = initial(to).apply(to, carried);
+        return new LiveWeights(version + 1, next.weights, next.factors);
+    }
+
+    /**
+     * Returns a new snapshot with a batch of updates applied on top of this one. This snapshot
+     * is left unchanged.
+     * @param cg The graph the updates refer to.
+     * @param updates The updates to apply, in order.
+     * @return The next snapshot.
+     * @throws IllegalArgumentException If an update names a segment that is not in the graph.
+     */
+    LiveWeights apply(CompactGraph cg, List<EdgeWeightUpdate> updates) {
+        HashMap<Integer, Double> next = new HashMap<>(factors);
+        HashMap<Integer, Double> changed = new HashMap<>();
+        for (EdgeWeightUpdate u : updates) {
+            double m = u.multiplier();
+            int v = cg.indexOf(u.from);
+            int slot = v < 0 ? -1 : cg.slot(v, u.to);
+            if (slot < 0) {
+                throw new IllegalArgumentException("No road segment from " + u.from
+                        + " to " + u.to + ".");
+            }
+            changed.put(slot, m);
+            if (u.bothDirections) {
+                changed.put(cg.adjTwin[slot], m);
+            }
+        }
+        for (Map.Entry<Integer, Double> c : changed.entrySet()) {
+            if (c.getValue() == 1.0) {
+                next.remove(c.getKey());
+            } else {
+                next.put(c.getKey(), c.getValue());
+            }
+        }
+        double[][] copy = new double[weights.length][];
+        for (Profile p : Profile.values()) {
+            double[] base = cg.weights(p);
+            double[] w = weights[p.ordinal()].clone();
+            for (int slot : changed.keySet()) {
+                double m = next.getOrDefault(slot, 1.0);
+                /* Store closures outright: a zero-length segment times infinity is NaN. */
+                w[slot] = m == Double.POSITIVE_INFINITY ? m : base[slot] * m;
+            }
+            copy[p.ordinal()] = w;
+        }
+        return new LiveWeights(version + 1, copy, Collections.unmodifiableMap(next));
+    }
+}
@@ -0,0 +1,200 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+/**
+ * The named locations of a graph, sorted by cleaned name, for prefix and exact-name search.
+ * Matches for a query are a contiguous run of the sorted order found by binary search, so a
+ * query costs a logarithmic lookup plus the matches it returns, and results can be visited one
+ * at a time and written out without collecting them first.
+ *
+ * Results are paged with cursors: a cursor records the sort key of the last result returned, and
+ * the next page starts just after that key. Unlike an offset, a cursor stays valid when the map
+ * is reloaded or changed between pages; results are never repeated, and none are skipped
+ * unless they were removed.
+ */
+class LocationIndex {
+    /** The position of a page boundary in the sort order of an index. */
+    static class Cursor {
+        final String cleaned;
+        final String name;
+        final long id;
+        private Cursor(String cleaned, String name, long id) {
+            this.cleaned = cleaned;
+            this.name = name;
+            this.id = id;
+        }
+
+        /**
+         * Returns this cursor as a URL-safe string for a client to send back.
+         * @return The encoded cursor.
+         */
+        String encode() {
+            String key = cleaned + SEPARATOR + name + SEPARATOR + id;
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Reads a cursor sent by a client.
+         * @param s A string returned by <code>encode</code>.
+         * @return The cursor.
+         * @throws IllegalArgumentException If the string is not a valid cursor.
+         */
+        static Cursor decode(String s) {
+            try {
+                String key = new String(Base64.getUrlDecoder().decode(s), StandardCharsets.UTF_8);
+                String[] parts = key.split(SEPARATOR, -1);
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException("Invalid cursor: " + s);
+                }
+                return new Cursor(parts[0], parts[1], Long.parseLong(parts[2]));
+            } catch (IllegalArgumentException e) {
+                /* NumberFormatException is an IllegalArgumentException too. */
+                throw new IllegalArgumentException("Invalid cursor: " + s, e);
+            }
+        }
+    }
+
+    /** Sort keys and coordinates of each named location, in sort order. */
+    private final String[] cleaned, names;
+    private final long[] ids;
+    private final double[] lon, lat;
+
+    /**
+     * Indexes every node that has a name, whether or not it is on a road.
+     * @param nodes The nodes of a graph, in any order.
+     */
+    LocationIndex(Collection<GraphDB.Node> nodes) {
+        List<GraphDB.Node> named = new ArrayList<>();
+        for (GraphDB.Node n : nodes) {
+            if (n.name != null) {
+                named.add(n);
+            }
+        }
+        int n = named.size();
+        String[] keys = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            keys[i] = GraphDB.cleanString(named.get(i).name);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer, String>comparing(i -> keys[i])
+                .thenComparing(i -> named.get(i).name)
+                .thenComparingLong(i -> named.get(i).id));
+        cleaned = new String[n];
+        names = new String[n];
+        ids = new long[n];
+        lon = new double[n];
+        lat = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            GraphDB.Node node = named.get(order[i]);
+            cleaned[i] = keys[order[i]];
+            names[i] = node.name;
+            ids[i] = node.id;
+            lon[i] = node.lon;
+            lat[i] = node.lat;
+        }
+    }
+
+    /**
+     * Visits the distinct full names of locations whose cleaned name starts with a cleaned
+     * prefix, in order of cleaned name.
+     * @param prefix The prefix, in any case and with or without punctuation.
+     * @param after The cursor returned with the previous page, or null for the first page.
+     * @param limit The most names to visit.
+     * @param action Called with each name.
+     * @return The cursor of the next page, or null if this page holds the last match.
+     */
+    Cursor byPrefix(String prefix, Cursor after, int limit, Consumer<String> action) {
+        String key = GraphDB.cleanString(prefix);
+        int i = lowerBound(key, "", Long.MIN_VALUE);
+        if (after != null) {
+            /* Every location with the cursor's name precedes the next page. */
+            i = Math.max(i, lowerBound(after.cleaned, after.name, Long.MAX_VALUE));
+        }
+        int visited = 0;
+        while (i < cleaned.length && cleaned[i].startsWith(key)) {
+            if (visited == limit) {
+                return new Cursor(cleaned[i - 1], names[i - 1], ids[i - 1]);
+            }
+            action.accept(names[i]);
+            visited += 1;
+            String name = names[i];
+            while (i < cleaned.length && names[i].equals(name)) {
+                i += 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visits the locations whose cleaned name equals a cleaned name, in order of full name and
+     * then ID.
+     * @param locationName The name, in any case and with or without punctuation.
+     * @param after The cursor returned with the previous page, or null for the first page.
+     * @param limit The most locations to visit.
+     * @param action Called with each location.
+     * @return The cursor of the next page, or null if this page holds the last match.
+     */
+    Cursor byName(String locationName, Cursor after, int limit, Consumer<LocationParams> action) {
+        String key = GraphDB.cleanString(locationName);
+        int i = lowerBound(key, "", Long.MIN_VALUE);
+        if (after != null) {
+            i = Math.max(i, upperBound(after.cleaned, after.name, after.id));
+        }
+        int visited = 0;
+        for (; i < cleaned.length && cleaned[i].equals(key); i += 1) {
+            if (visited == limit) {
+                return new Cursor(cleaned[i - 1], names[i - 1], ids[i - 1]);
+            }
+            action.accept(new LocationParams(lat[i], lon[i], names[i], ids[i]));
+            visited += 1;
+        }
+        return null;
+    }
+
+    /** Returns the number of named locations. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the first position whose sort key is at least the given key. */
+    private int lowerBound(String c, String name, long id) {
+        int lo = 0;
+        int hi = cleaned.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, c, name, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the first position whose sort key is greater than the given key. */
+    private int upperBound(String c, String name, long id) {
+        int i = lowerBound(c, name, id);
+        return i < cleaned.length && compare(i, c, name, id) == 0 ? i + 1 : i;
+    }
+
+    private int compare(int i, String c, String name, long id) {
+        int cmp = cleaned[i].compareTo(c);
+        if (cmp == 0) {
+            cmp = names[i].compareTo(name);
+        }
+        if (cmp == 0) {
+            cmp = Long.compare(ids[i], id);
+        }
+        return cmp;
+    }
+
+    /** Separates the fields of an encoded cursor; cleaned names and OSM names never hold it. */
+    private static final String SEPARATOR = "\u0000";
+}
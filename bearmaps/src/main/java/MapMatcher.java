@@ -0,0 +1,333 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+/**
+ * Matches GPS traces to the road network with a hidden Markov model, after Newson and Krumm,
+ * "Hidden Markov Map Matching Through Noise and Sparseness" (2009). The hidden states of each
+ * trace point are the vertices within a radius of it, found with the kd-tree of
+ * <code>GraphDB</code>. A state is likelier the closer its vertex is to the point (a Gaussian in
+ * the distance), and a transition is likelier the closer the road distance between two states
+ * is to the straight-line distance between their points (an exponential in the difference).
+ * Viterbi decoding then picks the likeliest sequence of states.
+ *
+ * Road distances come from Dijkstra searches bounded by how far the vehicle could plausibly
+ * have driven between the points, so each search explores only a small neighborhood. One search
+ * per state of a point gives the distances to every state of the next point, and when
+ * consecutive points share states, as they do whenever the vehicle moves less than a block
+ * between fixes, the search is reused rather than repeated. Traces are independent, so
+ * <code>matchAll</code> matches them in parallel, each thread searching with its own workspace.
+ */
+class MapMatcher {
+    /** A GPS trace: the positions of a vehicle and the times they were recorded. */
+    static class Trace {
+        final double[] lon, lat;
+        /** Milliseconds since the epoch at each position, or null if unknown. */
+        final long[] time;
+
+        /**
+         * Creates a trace from parallel arrays.
+         * @param lon The longitude of each point.
+         * @param lat The latitude of each point.
+         * @param time The time of each point in milliseconds, or null if the trace is untimed.
+         * @throws IllegalArgumentException If the arrays differ in length.
+         */
+        Trace(double[] lon, double[] lat, long[] time) {
+            if (lon.length != lat.length || (time != null && time.length != lon.length)) {
+                throw new IllegalArgumentException("Trace arrays must have the same length");
+            }
+            this.lon = lon;
+            this.lat = lat;
+            this.time = time;
+        }
+
+        int size() {
+            return lon.length;
+        }
+    }
+
+    /** The likeliest road positions of a trace. */
+    static class Match {
+        /** The vertex matched to each trace point, or -1 if no vertex was within the radius. */
+        final long[] vertices;
+        /**
+         * The vertex IDs along the roads driven, in order. The route is split where no road
+         * path could explain two consecutive points, such as after a long gap in the trace.
+         */
+        final List<List<Long>> routes;
+
+        Match(long[] vertices, List<List<Long>> routes) {
+            this.vertices = vertices;
+            this.routes = routes;
+        }
+    }
+
+    /** The vertices a search settled within a limit of its source, sorted by dense index. */
+    private static class Reach {
+        final int source;
+        final double limit;
+        /** Whether the search ran out of vertices, so any vertex it missed is unreachable. */
+        final boolean exhausted;
+        private final int[] vertex;
+        private final double[] dist;
+        private final int[] pred;
+
+        Reach(CompactGraph cg, int source, double limit) {
+            SearchWorkspace ws = SearchWorkspace.forCurrentThread(cg);
+            vertex = Router.boundedSearch(cg, cg.adjLength, false, ws, source, -1, 0, limit);
+            exhausted = ws.isEmpty();
+            ws.publishCounts();
+            Arrays.sort(vertex);
+            dist = new double[vertex.length];
+            pred = new int[vertex.length];
+            for (int i = 0; i < vertex.length; i += 1) {
+                dist[i] = ws.dist(vertex[i]);
+                pred[i] = ws.pred(vertex[i]);
+            }
+            this.source = source;
+            this.limit = limit;
+        }
+
+        /** Returns whether this search answers every query a search to <code>l</code> would. */
+        boolean covers(double l) {
+            return exhausted || limit >= l;
+        }
+
+        /**
+         * Returns the road distance from the source to <code>v</code>, or infinity if it is
+         * more than <code>l</code>. Applying the caller's limit keeps results independent of
+         * which cached search answered them.
+         */
+        double distanceTo(int v, double l) {
+            int i = Arrays.binarySearch(vertex, v);
+            return i >= 0 && dist[i] <= l ? dist[i] : Double.POSITIVE_INFINITY;
+        }
+
+        /** Returns the vertices strictly between the source and a settled vertex, in order. */
+        int[] pathTo(int v) {
+            int count = 0;
+            for (int u = pred[Arrays.binarySearch(vertex, v)]; u != -1 && u != source;
+                 u = pred[Arrays.binarySearch(vertex, u)]) {
+                count += 1;
+            }
+            int[] path = new int[count];
+            for (int u = pred[Arrays.binarySearch(vertex, v)]; count > 0;
+                 u = pred[Arrays.binarySearch(vertex, u)]) {
+                count -= 1;
+                path[count] = u;
+            }
+            return path;
+        }
+    }
+
+    private final GraphDB g;
+    private final double sigma, beta, radius;
+    private final int maxCandidates;
+
+    /**
+     * Creates a matcher with parameters suited to urban traces recorded every few seconds.
+     * @param g The map to match against.
+     */
+    MapMatcher(GraphDB g) {
+        this(g, DEFAULT_SIGMA, DEFAULT_BETA, DEFAULT_RADIUS, DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * Creates a matcher.
+     * @param g The map to match against.
+     * @param sigma The standard deviation in miles of the distance from a point to its vertex.
+     * @param beta The mean in miles of the difference between road and straight-line distance.
+     * @param radius How far in miles from a point its candidate vertices may be.
+     * @param maxCandidates The most candidate vertices considered per point.
+     */
+    MapMatcher(GraphDB g, double sigma, double beta, double radius, int maxCandidates) {
+        this.g = g;
+        this.sigma = sigma;
+        this.beta = beta;
+        this.radius = radius;
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Matches many traces, in parallel across traces.
+     * @param traces The traces to match.
+     * @return The match of each trace, in the same order.
+     */
+    List<Match> matchAll(List<Trace> traces) {
+        return traces.parallelStream().map(this::match).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the likeliest road positions of a trace.
+     * @param trace The trace to match.
+     * @return The matched vertex of each point and the routes between them.
+     */
+    Match match(Trace trace) {
+        CompactGraph cg = g.compact();
+        int n = trace.size();
+        /* Viterbi state of each point: its candidates, their log likelihoods, the best
+         * predecessor of each (or -1 where a route starts), and the path from it. */
+        int[][] cand = new int[n][];
+        double[][] score = new double[n][];
+        int[][] back = new int[n][];
+        int[][][] via = new int[n][][];
+        int[] prevPoint = new int[n];
+        Map<Integer, Reach> cache = new HashMap<>();
+        int prev = -1;
+        for (int i = 0; i < n; i += 1) {
+            prevPoint[i] = prev;
+            long[] ids = g.closest(trace.lon[i], trace.lat[i], maxCandidates, radius);
+            if (ids.length == 0) {
+                continue;
+            }
+            int m = ids.length;
+            cand[i] = new int[m];
+            score[i] = new double[m];
+            back[i] = new int[m];
+            via[i] = new int[m][];
+            Arrays.fill(score[i], Double.NEGATIVE_INFINITY);
+            Arrays.fill(back[i], -1);
+            for (int b = 0; b < m; b += 1) {
+                cand[i][b] = cg.indexOf(ids[b]);
+            }
+            boolean linked = false;
+            if (prev >= 0) {
+                cache = transition(cg, trace, prev, i, cand, score, back, via, cache);
+                for (int b = 0; b < m; b += 1) {
+                    linked |= back[i][b] >= 0;
+                }
+            }
+            for (int b = 0; b < m; b += 1) {
+                int v = cand[i][b];
+                double d = GraphDB.distance(trace.lon[i], trace.lat[i], cg.lon[v], cg.lat[v]);
+                double emission = -0.5 * (d / sigma) * (d / sigma);
+                /* If no state can be reached from the last point, start a new route here. */
+                score[i][b] = (linked ? score[i][b] : 0) + emission;
+            }
+            prev = i;
+        }
+        return decode(cg, n, cand, score, back, via, prevPoint, prev);
+    }
+
+    /**
+     * Scores the transitions from the states of point <code>p</code> to those of point
+     * <code>i</code>, recording the best predecessor of each state of <code>i</code>.
+     * @return The searches run from the states of <code>p</code>, to reuse for point
+     * <code>i</code>.
+     */
+    private Map<Integer, Reach> transition(CompactGraph cg, Trace trace, int p, int i,
+                                           int[][] cand, double[][] score, int[][] back,
+                                           int[][][] via, Map<Integer, Reach> cache) {
+        double straight = GraphDB.distance(trace.lon[p], trace.lat[p],
+                trace.lon[i], trace.lat[i]);
+        double limit = searchLimit(trace, p, i, straight);
+        Map<Integer, Reach> used = new HashMap<>();
+        Reach[] from = new Reach[cand[p].length];
+        for (int a = 0; a < cand[p].length; a += 1) {
+            if (score[p][a] == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            int source = cand[p][a];
+            Reach reach = cache.get(source);
+            if (reach == null || !reach.covers(limit)) {
+                reach = new Reach(cg, source, limit);
+            }
+            used.put(source, reach);
+            from[a] = reach;
+            for (int b = 0; b < cand[i].length; b += 1) {
+                double road = reach.distanceTo(cand[i][b], limit);
+                double s = score[p][a] - Math.abs(road - straight) / beta;
+                if (s > score[i][b]) {
+                    score[i][b] = s;
+                    back[i][b] = a;
+                }
+            }
+        }
+        for (int b = 0; b < cand[i].length; b += 1) {
+            if (back[i][b] >= 0) {
+                via[i][b] = from[back[i][b]].pathTo(cand[i][b]);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns how far in miles the vehicle may have driven between points <code>p</code> and
+     * <code>i</code>: a multiple of the straight-line distance, capped by the top speed when the
+     * trace is timed, plus the slack from both points' candidates lying off the trace.
+     */
+    private double searchLimit(Trace trace, int p, int i, double straight) {
+        double limit = MAX_STRETCH * straight;
+        if (trace.time != null) {
+            double hours = (trace.time[i] - trace.time[p]) / MILLIS_PER_HOUR;
+            if (hours > 0) {
+                limit = Math.min(limit, Math.max(straight, MAX_SPEED * hours));
+            }
+        }
+        return limit + 2 * radius;
+    }
+
+    /** Backtracks from the likeliest final state and assembles the matched routes. */
+    private static Match decode(CompactGraph cg, int n, int[][] cand, double[][] score,
+                                int[][] back, int[][][] via, int[] prevPoint, int last) {
+        int[] chosen = new int[n];
+        int b = -1;
+        for (int i = last; i >= 0; i = prevPoint[i]) {
+            if (b < 0) {
+                b = argmax(score[i]);
+            }
+            chosen[i] = b;
+            b = back[i][b];
+        }
+        long[] vertices = new long[n];
+        List<List<Long>> routes = new ArrayList<>();
+        List<Long> route = null;
+        int at = -1;
+        for (int i = 0; i < n; i += 1) {
+            if (cand[i] == null) {
+                vertices[i] = -1;
+                continue;
+            }
+            int v = cand[i][chosen[i]];
+            vertices[i] = cg.ids[v];
+            if (back[i][chosen[i]] < 0) {
+                route = new ArrayList<>();
+                routes.add(route);
+            } else if (v != at) {
+                for (int u : via[i][chosen[i]]) {
+                    route.add(cg.ids[u]);
+                }
+            }
+            if (v != at || back[i][chosen[i]] < 0) {
+                route.add(cg.ids[v]);
+            }
+            at = v;
+        }
+        return new Match(vertices, routes);
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i += 1) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /** Standard deviation of GPS error plus the offset of a vertex from the road position. */
+    private static final double DEFAULT_SIGMA = 0.02;
+    /** Typical excess of road distance over straight-line distance between fixes. */
+    private static final double DEFAULT_BETA = 0.05;
+    /** Candidate search radius, about 160 meters. */
+    private static final double DEFAULT_RADIUS = 0.1;
+    private static final int DEFAULT_CANDIDATES = 8;
+    /** Longest plausible road distance between fixes, relative to the straight line. */
+    private static final double MAX_STRETCH = 2;
+    /** Top speed in miles per hour, which bounds road distance between timed fixes. */
+    private static final double MAX_SPEED = 90;
+    private static final double MILLIS_PER_HOUR = 3.6e6;
+}
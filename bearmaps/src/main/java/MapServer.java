@@ -2,17 +2,32 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
 import java.io.IOException;
-import java.util.Base64;
-import java.util.Collections;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import spark.Request;
+import spark.Route;
 import static spark.Spark.*;
 /**
  * This MapServer class is the entry point for running the JavaSpark web server for the BearMaps
@@ -40,15 +55,44 @@ public class MapServer {
     public static final double ROOT_LON_DELTA = Math.abs(ROOT_ULLON - ROOT_LRLON);
     /** The difference between the upper-most and lower-most latitudes of the map. */
     public static final double ROOT_LAT_DELTA = Math.abs(ROOT_ULLAT - ROOT_LRLAT);
-    /** The <code>GraphDB</code>responsible for managing map data. */
-    private static GraphDB graph;
+    /**
+     * Publishes the <code>GraphDB</code> responsible for managing map data. Each request leases
+     * the current graph once, so it keeps a consistent graph even if map changes or a reload are
+     * published while it runs.
+     */
+    private static volatile GraphHolder graphs;
+    /** Decoded map tiles, which stay warm across graph reloads. */
+    private static TileCache tileCache;
+    /** Encoded vector tiles of the road geometry, keyed by graph version. */
+    private static VectorTileCache vectorTileCache;
+    /** Builds reloaded graphs in the background, one at a time. */
+    private static final ExecutorService RELOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "graph-reloader");
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Computes the routes of batch requests. Each worker reuses its own search workspace from
+     * one route to the next, and batches are spread over all workers whatever thread serves them.
+     */
+    private static final ExecutorService ROUTE_WORKERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "route-worker");
+                t.setDaemon(true);
+                return t;
+            });
+    /** True while a reload is being built. */
+    private static final AtomicBoolean RELOADING = new AtomicBoolean();
     /** The <code>Rasterer</code> responsible for computing the shortest path and directions. */
     private static Rasterer rasterer;
     /**
      * The most recently-requested shortest-paths route. The <code>renderImage</code> method redraws
-     * this route every time a new rastering result is requested from the browser.
+     * this route, simplified for the image's depth, every time a new rastering result is
+     * requested from the browser.
      */
-    private static List<Long> route;
+    static volatile RouteGeometry route;
+    /** Recently computed routes, keyed by their snapped start and end vertices. */
+    private static RouteCache routeCache;
     /** The configured Gson Java serializer. */
     private static Gson gson;
     /**
@@ -56,81 +100,270 @@ public class MapServer {
      * independently of the main method for the tests to function properly.
      */
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        initialize(new GraphDB(OSM_DB_PATH));
+    }
+    /**
+     * Initializes the server state around a graph that has already been built, for benchmarks
+     * and tests that share one graph.
+     * @param g The graph to publish.
+     */
+    static void initialize(GraphDB g) {
+        initializeWithoutGraph();
+        graphs = new GraphHolder(g);
+    }
+    /** Initializes everything but the graph, which is all that rastering needs. */
+    private static void initializeWithoutGraph() {
+        tileCache = new TileCache(TILE_CACHE_CAPACITY);
+        vectorTileCache = new VectorTileCache(VECTOR_TILE_CACHE_CAPACITY);
         rasterer = new Rasterer();
-        route = Collections.emptyList();
+        route = RouteGeometry.EMPTY;
+        routeCache = new RouteCache(ROUTE_CACHE_CAPACITY);
         gson = new GsonBuilder()
                 .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
                 .create();
     }
+    /**
+     * Builds the graph in the background and publishes it when its indexes are complete, so
+     * that map images are served while the map file is still loading. Reloads are refused while
+     * the first graph is built; if building it fails, a reload can try again.
+     */
+    private static void loadGraphInBackground() {
+        RELOADING.set(true);
+        RELOADER.execute(MapServer::buildGraph);
+    }
+    /**
+     * Returns whether the graph has been published. Map images are served from the start;
+     * everything else needs the graph, whose indexes are all built before it is published.
+     * @return True once the first graph has loaded.
+     */
+    static boolean ready() {
+        return graphs != null;
+    }
+    /** Halts the request with 503 Service Unavailable if the graph is still loading. */
+    private static void requireReady() {
+        if (!ready()) {
+            halt(UNAVAILABLE_RESPONSE, "Request failed: the map is still loading.");
+        }
+    }
+    /**
+     * Returns whether an Authorization header carries the admin token. The comparison takes the
+     * same time however much of the token matches.
+     * @param authorization The Authorization header of a request, or null.
+     * @param token The admin token, or null if the admin endpoints are disabled.
+     * @return True if the header is <code>Bearer</code> followed by the token.
+     */
+    static boolean isAdmin(String authorization, String token) {
+        if (authorization == null || token == null || token.isEmpty()) {
+            return false;
+        }
+        return MessageDigest.isEqual(("Bearer " + token).getBytes(StandardCharsets.UTF_8),
+                authorization.getBytes(StandardCharsets.UTF_8));
+    }
+    /**
+     * Halts the request with 401 Unauthorized unless it carries the admin token. With no token
+     * configured, the admin endpoints refuse every request.
+     */
+    private static void requireAdmin(Request req) {
+        if (!isAdmin(req.headers("Authorization"), ADMIN_TOKEN)) {
+            halt(UNAUTHORIZED_RESPONSE, "Request failed: admin token required.");
+        }
+    }
     /**
      * Launch the <code>mapServer</code>, register server routes, and listen on the default port.
      * @param args Ignored
      */
     public static void main(String[] args) {
-        initialize();
+        initializeWithoutGraph();
+        loadGraphInBackground();
         staticFileLocation("/page");
-        /* Allow for all origin requests since this is not an authenticated server. */
+        /*
+         * Allow all origins on the public endpoints. The admin endpoints are left out, so that
+         * web pages cannot call them from a visitor's browser.
+         */
         before((request, response) -> {
+            if (ADMIN_PATHS.contains(request.pathInfo())) {
+                return;
+            }
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
         });
         /* Define the raster endpoint for HTTP GET requests. */
-        get("/raster", (req, res) -> {
+        get("/raster", timed("/raster", (req, res) -> {
             RasterResultParams resultParams = null;
+            ImageEncoder encoder = null;
             try {
                 RasterRequestParams params = RasterRequestParams.from(req.queryMap().toMap());
+                encoder = ImageEncoder.negotiate(params.format, req.headers("Accept"));
                 resultParams = rasterer.getMapRaster(params);
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
+            /* The image format may depend on the Accept header, so caches must key on it. */
+            res.header("Vary", "Accept");
             try {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
                 BufferedImage img = renderImage(resultParams);
-                ImageIO.write(img, "png", os);
                 return gson.toJson(
                         new RenderedRasterResultParams(
                                 resultParams, img.getWidth(), img.getHeight(),
-                                Base64.getEncoder().encodeToString(os.toByteArray())
+                                encoder.encodeBase64(img), encoder.format()
                         ));
             } catch (IOException e) {
                 e.printStackTrace();
             }
             /* Return the best-effort resultParams when unable to render image. */
             return gson.toJson(resultParams);
-        });
+        }));
+        /* Define the endpoint for road geometry as binary vector tiles, for client rendering. */
+        get("/vector_tiles", timed("/vector_tiles", (req, res) -> {
+            requireReady();
+            RasterResultParams resultParams = null;
+            try {
+                RasterRequestParams params = RasterRequestParams.from(req.queryMap().toMap());
+                resultParams = rasterer.getMapRaster(params);
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            if (!resultParams.querySuccess) {
+                halt(HALT_RESPONSE, "Request failed: query box is outside the map.");
+            }
+            res.type("application/octet-stream");
+            try (GraphHolder.Lease lease = graphs.acquire()) {
+                return vectorTileCache.forRaster(lease.graph, resultParams);
+            }
+        }));
         /* Define the routing endpoint for HTTP GET requests. */
-        get("/route", (req, res) -> {
+        get("/route", timed("/route", (req, res) -> {
+            requireReady();
             RouteRequestParams  params = null;
             try {
                 params = RouteRequestParams.from(req.queryMap().toMap());
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
-            route = Router.shortestPath(graph,
-                    params.startLon, params.startLat, params.endLon, params.endLat);
-            String directions = getDirectionsText(Router.routeDirections(graph, route));
-            RouteResultParams routeParams = new RouteResultParams(!route.isEmpty(), directions);
+            RouteCache.Entry cached;
+            try (GraphHolder.Lease lease = graphs.acquire()) {
+                GraphDB g = lease.graph;
+                long start = g.closest(params.startLon, params.startLat,
+                        params.largestComponent);
+                long end = g.closest(params.endLon, params.endLat, params.largestComponent);
+                cached = routeCache.get(g, start, end, params.profile, params.live);
+            }
+            route = cached.geometry;
+            String directions = getDirectionsText(cached.directions);
+            String polyline = null;
+            if (params.polyline) {
+                polyline = params.depth < 0 ? cached.geometry.encodedPolyline()
+                        : cached.geometry.encodedPolyline(params.depth);
+            }
+            RouteResultParams routeParams =
+                    new RouteResultParams(!cached.path.isEmpty(), directions, polyline);
             return gson.toJson(routeParams);
+        }));
+        /* Define the batch routing endpoint, streaming routes back in the order they were sent. */
+        post("/routes", timed("/routes", (req, res) -> {
+            requireReady();
+            RouteBatchRequest batch = null;
+            try {
+                batch = gson.fromJson(req.body(), RouteBatchRequest.class);
+                if (batch == null) {
+                    throw new IllegalArgumentException("Request failed: routes not found.");
+                }
+                batch.validate();
+            } catch (IllegalArgumentException | JsonParseException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            res.type("application/json");
+            Writer out = new OutputStreamWriter(res.raw().getOutputStream(),
+                    StandardCharsets.UTF_8);
+            try (GraphHolder.Lease lease = graphs.acquire()) {
+                writeRoutes(lease.graph, batch, out);
+            }
+            return "";
+        }));
+        /* Define the endpoint for the area reachable within a distance budget. */
+        get("/isochrone", (req, res) -> {
+            requireReady();
+            IsochroneRequestParams params = null;
+            try {
+                params = IsochroneRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            try (GraphHolder.Lease lease = graphs.acquire()) {
+                return gson.toJson(
+                        Router.isochrone(lease.graph, params.lon, params.lat, params.budget));
+            }
+        });
+        /* Define the admin endpoint for live closures and slowdowns, posted as a JSON array. */
+        post("/edge_weights", (req, res) -> {
+            requireAdmin(req);
+            requireReady();
+            long version = 0;
+            try {
+                EdgeWeightUpdate[] updates = gson.fromJson(req.body(), EdgeWeightUpdate[].class);
+                if (updates == null) {
+                    throw new IllegalArgumentException("Request failed: no updates found.");
+                }
+                version = updateEdgeWeights(Arrays.asList(updates));
+            } catch (IllegalArgumentException | JsonParseException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            return gson.toJson(version);
+        });
+        /* Define the admin endpoint for applying an OSM change file posted as XML. */
+        post("/osm_changes", (req, res) -> {
+            requireAdmin(req);
+            requireReady();
+            long version = 0;
+            try {
+                version = applyChanges(req.body());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            return gson.toJson(version);
+        });
+        /* Define the admin endpoint for reloading the map file without a restart. */
+        post("/reload", (req, res) -> {
+            requireAdmin(req);
+            return gson.toJson(reload());
         });
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            route = Collections.emptyList();
+            route = RouteGeometry.EMPTY;
             return true;
         });
-        /* Define the API endpoint for search */
-        get("/search", (req, res) -> {
-            String term = req.queryParams("term");
-            /* Search for actual location data. */
-            if (req.queryParams().contains("full")) {
-                List<LocationParams> data = graph.getLocations(term);
-                return gson.toJson(data);
-            } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = graph.getLocationsByPrefix(term);
-                return gson.toJson(matches);
+        /* Define the API endpoint for search, streaming results straight to the client. */
+        get("/search", timed("/search", (req, res) -> {
+            requireReady();
+            SearchRequestParams params = null;
+            try {
+                params = SearchRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
             }
+            res.type("application/json");
+            Writer out = new OutputStreamWriter(res.raw().getOutputStream(),
+                    StandardCharsets.UTF_8);
+            try (GraphHolder.Lease lease = graphs.acquire()) {
+                writeSearchResults(lease.graph, params, out);
+            }
+            /* The response is committed, so Spark sends nothing more. */
+            return "";
+        }));
+        /* Define the endpoint reporting whether the graph has loaded: 503 until it has. */
+        get("/ready", (req, res) -> {
+            boolean ready = ready();
+            if (!ready) {
+                res.status(UNAVAILABLE_RESPONSE);
+            }
+            res.type("application/json");
+            return gson.toJson(Map.of("ready", ready));
+        });
+        /* Define the endpoint for scraping counters and latency histograms with Prometheus. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return Metrics.render();
         });
         /* Define map application redirect */
         get("/", (request, response) -> {
@@ -138,12 +371,106 @@ public class MapServer {
             return true;
         });
     }
+    /**
+     * Wraps an endpoint so that the time spent handling each request, including requests that
+     * fail or are halted, is recorded in that endpoint's latency histogram.
+     * @param path The endpoint path, used as the histogram label.
+     * @param handler The endpoint's handler.
+     * @return The timed handler.
+     */
+    private static Route timed(String path, Route handler) {
+        Metrics.Histogram latency = Metrics.requestLatency(path);
+        return (req, res) -> {
+            long start = System.nanoTime();
+            try {
+                return handler.handle(req, res);
+            } finally {
+                latency.record(System.nanoTime() - start);
+            }
+        };
+    }
+    /**
+     * Applies live edge-weight overrides to the published graph. Serialized with
+     * <code>applyChanges</code> so that no override is applied to a graph that is being replaced.
+     * @param updates The overrides to apply, in order.
+     * @return The new live weight version.
+     * @throws IllegalArgumentException If an update is invalid.
+     */
+    static synchronized long updateEdgeWeights(List<EdgeWeightUpdate> updates) {
+        return graphs.peek().updateEdgeWeights(updates);
+    }
+    /**
+     * Builds the next version of the graph from an OSM change file and publishes it. Changes are
+     * applied one at a time; requests keep using the previous version until it is published.
+     * @param osc The change file, in OsmChange XML.
+     * @return The version of the newly published graph.
+     * @throws IllegalArgumentException If the change file cannot be parsed.
+     */
+    static synchronized long applyChanges(String osc) {
+        GraphDB next = graphs.peek().applyChanges(
+                new ByteArrayInputStream(osc.getBytes(StandardCharsets.UTF_8)));
+        graphs.publish(next);
+        return next.version();
+    }
+    /**
+     * Starts rebuilding the graph and its indexes from the map file in the background. Requests
+     * keep being served from the current graph; once the new one is built it is published
+     * atomically, and the old one is released when the requests using it finish. The reloaded
+     * graph replaces any change files applied since the reload started, but keeps the live
+     * edge-weight overrides of every segment that still exists. The next reload is refused until
+     * the requests on the replaced graph finish, so at most two full graphs are in memory while
+     * a third is built.
+     * @return True if a reload was started, false if one is already running.
+     */
+    static boolean reload() {
+        if (!RELOADING.compareAndSet(false, true)) {
+            return false;
+        }
+        RELOADER.execute(MapServer::buildGraph);
+        return true;
+    }
+    /**
+     * Builds a graph from the map file on the reloader thread and publishes it, as the first
+     * graph or in place of the current one. A map file that yields no roads, which is how
+     * <code>GraphDB</code> reports a file it cannot parse, is logged and ignored, as is any
+     * other failure, so the server keeps what it has.
+     */
+    private static void buildGraph() {
+        try {
+            GraphDB next = new GraphDB(OSM_DB_PATH);
+            if (next.compact().size() == 0) {
+                System.err.println("Loading " + OSM_DB_PATH + " found no roads; ignored.");
+                return;
+            }
+            CountDownLatch drained = null;
+            synchronized (MapServer.class) {
+                if (graphs == null) {
+                    graphs = new GraphHolder(next);
+                } else {
+                    next.inheritLiveWeights(graphs.peek());
+                    drained = graphs.publish(next);
+                }
+            }
+            if (drained != null
+                    && !drained.await(RELOAD_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                System.err.println("Graph replaced by reload is still in use after "
+                        + RELOAD_DRAIN_TIMEOUT_MS + " ms; allowing further reloads.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("Loading " + OSM_DB_PATH + " failed; ignored.");
+            e.printStackTrace();
+        } finally {
+            RELOADING.set(false);
+        }
+    }
     /**
      * Return the image defined by the <code>resultParams</code>.
      * @param resultParams <code>RasterResultParams</code> from <code>Rasterer.getMapRaster</code>
      * @return The final, rastered image including any shortest-paths routes.
      */
-    private static BufferedImage renderImage(RasterResultParams resultParams) {
+    static BufferedImage renderImage(RasterResultParams resultParams) {
         String[][] renderGrid = resultParams.renderGrid;
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
@@ -153,7 +480,7 @@ public class MapServer {
         int x = 0, y = 0;
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(readImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
+                graphic.drawImage(tileCache.get(IMG_ROOT + renderGrid[r][c]), x, y, null);
                 x += MapServer.TILE_SIZE;
                 if (x >= img.getWidth()) {
                     x = 0;
@@ -161,42 +488,158 @@ public class MapServer {
                 }
             }
         }
-        /* If there is a route, draw it. */
-        if (route != null && !route.isEmpty()) {
+        /* If there is a route, draw it as one polyline of the points visible at this depth. */
+        RouteGeometry drawn = route;
+        if (drawn.size() > 1) {
             double ullon = resultParams.rasterUlLon;
             double ullat = resultParams.rasterUlLat;
             double lrlon = resultParams.rasterLrLon;
             double lrlat = resultParams.rasterLrLat;
             double wdpp = (lrlon - ullon) / img.getWidth();
             double hdpp = (ullat - lrlat) / img.getHeight();
+            int[] kept = drawn.at(resultParams.depth);
+            int[] xs = new int[kept.length];
+            int[] ys = new int[kept.length];
+            for (int i = 0; i < kept.length; i += 1) {
+                xs[i] = (int) ((drawn.lon[kept[i]] - ullon) * (1 / wdpp));
+                ys[i] = (int) ((ullat - drawn.lat[kept[i]]) * (1 / hdpp));
+            }
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                        (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            g2d.drawPolyline(xs, ys, kept.length);
         }
         return img;
     }
     /**
-     * Returns the image found at the given <code>imgPath</code>.
-     * @param imgPath <code>String</code> path to the image.
-     * @return The <code>BufferedImage</code> at the specified <code>imgPath</code>.
+     * Writes the results of a search as JSON, one match at a time, so memory use does not grow
+     * with the number of matches and the first bytes are sent before the last match is found.
+     * Unpaged searches produce a JSON array, of names for a prefix search or of locations for a
+     * full search. Paged searches produce an object whose <code>results</code> holds the array
+     * and whose <code>next_cursor</code> is the cursor of the next page, or null after the last.
+     * @param g The graph to search.
+     * @param params The search term and paging parameters.
+     * @param out Where to write the JSON; it is flushed but not closed.
+     * @throws IOException If writing fails.
      */
-    private static BufferedImage readImage(String imgPath) {
-        BufferedImage tileImg = null;
-        File in = new File(imgPath);
+    static void writeSearchResults(GraphDB g, SearchRequestParams params, Writer out)
+            throws IOException {
+        JsonWriter json = gson.newJsonWriter(out);
+        json.setSerializeNulls(true);
+        int limit = params.paged() ? params.limit : Integer.MAX_VALUE;
+        if (params.paged()) {
+            json.beginObject();
+            json.name("results");
+        }
+        json.beginArray();
+        LocationIndex.Cursor next;
+        if (params.full) {
+            next = g.locations().byName(params.term, params.cursor, limit,
+                loc -> gson.toJson(loc, LocationParams.class, json));
+        } else {
+            next = g.locations().byPrefix(params.term, params.cursor, limit,
+                name -> gson.toJson(name, String.class, json));
+        }
+        json.endArray();
+        if (params.paged()) {
+            json.name("next_cursor");
+            if (next == null) {
+                json.nullValue();
+            } else {
+                json.value(next.encode());
+            }
+            json.endObject();
+        }
+        json.flush();
+    }
+    /**
+     * Routes every pair of a batch on the worker pool and writes the results as a JSON array in
+     * the order of the pairs. Each result is an object with <code>routing_success</code>, the
+     * vertex IDs of the <code>path</code>, the <code>directions</code> as plain strings, and,
+     * if requested, the <code>polyline</code>. Results are written as soon as they and all
+     * earlier ones are done, and only a bounded window of routes is in flight at once, so memory
+     * use does not grow with the size of the batch. A route that fails is logged and written
+     * as an unsuccessful result, so one bad pair does not cut the array short.
+     * @param g The graph to route on, shared by every route of the batch.
+     * @param batch The validated batch.
+     * @param out Where to write the JSON; it is flushed but not closed.
+     * @throws IOException If writing fails, in which case routes not yet started are skipped.
+     * Either way, no route is still using <code>g</code> when this returns.
+     */
+    static void writeRoutes(GraphDB g, RouteBatchRequest batch, Writer out) throws IOException {
+        JsonWriter json = gson.newJsonWriter(out);
+        Profile profile = batch.profile();
+        ArrayDeque<CompletableFuture<RouteCache.Entry>> pending = new ArrayDeque<>();
+        AtomicBoolean abandoned = new AtomicBoolean();
         try {
-            tileImg = ImageIO.read(in);
-        } catch (IOException e) {
-            e.printStackTrace();
+            json.beginArray();
+            for (RouteBatchRequest.Pair p : batch.routes) {
+                if (pending.size() == ROUTE_BATCH_WINDOW) {
+                    writeRoute(json, batch, awaitRoute(pending.poll()));
+                }
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    if (abandoned.get()) {
+                        return null;
+                    }
+                    long start = g.closest(p.startLon, p.startLat, batch.largestComponent);
+                    long end = g.closest(p.endLon, p.endLat, batch.largestComponent);
+                    return RouteCache.compute(g, start, end, profile, batch.live);
+                }, ROUTE_WORKERS));
+            }
+            while (!pending.isEmpty()) {
+                writeRoute(json, batch, awaitRoute(pending.poll()));
+            }
+            json.endArray();
+            json.flush();
+        } finally {
+            /*
+             * Cancelling a CompletableFuture does not stop a task that is already running, so
+             * skip the routes not yet started and wait for the rest before the caller releases
+             * the graph.
+             */
+            abandoned.set(true);
+            for (CompletableFuture<RouteCache.Entry> f : pending) {
+                awaitRoute(f);
+            }
+        }
+    }
+    /**
+     * Waits for one route of a batch.
+     * @return The route, or null if it was skipped or failed; failures are logged.
+     */
+    private static RouteCache.Entry awaitRoute(CompletableFuture<RouteCache.Entry> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            System.err.println("Batch route failed.");
+            e.getCause().printStackTrace();
+            return null;
         }
-        return tileImg;
+    }
+    /** Writes one route of a batch, or a failed one if null; see <code>writeRoutes</code>. */
+    private static void writeRoute(JsonWriter json, RouteBatchRequest batch,
+                                   RouteCache.Entry route) throws IOException {
+        if (route == null) {
+            route = FAILED_ROUTE;
+        }
+        json.beginObject();
+        json.name("routing_success").value(!route.path.isEmpty());
+        json.name("path").beginArray();
+        for (long v : route.path) {
+            json.value(v);
+        }
+        json.endArray();
+        json.name("directions").beginArray();
+        for (Router.NavigationDirection d : route.directions) {
+            json.value(d.toString());
+        }
+        json.endArray();
+        if (batch.polyline) {
+            json.name("polyline").value(batch.depth < 0 ? route.geometry.encodedPolyline()
+                    : route.geometry.encodedPolyline(batch.depth));
+        }
+        json.endObject();
     }
     /**
      * Returns the HTML-friendly <code>Stirng</code> representation of the route.
@@ -214,10 +657,36 @@ public class MapServer {
     }
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** HTTP response to admin requests without the admin token. */
+    private static final int UNAUTHORIZED_RESPONSE = 401;
+    /** HTTP response while the map is still loading. */
+    private static final int UNAVAILABLE_RESPONSE = 503;
+    /** Routes of one batch request in flight at once, enough to keep every worker busy. */
+    private static final int ROUTE_BATCH_WINDOW = 4 * Runtime.getRuntime().availableProcessors();
+    /** Written in place of a batch route that failed. */
+    private static final RouteCache.Entry FAILED_ROUTE =
+            new RouteCache.Entry(List.of(), List.of(), RouteGeometry.EMPTY);
+    /** How long a reload waits for requests on the replaced graph before allowing another. */
+    private static final long RELOAD_DRAIN_TIMEOUT_MS = 60000;
+    /** Maximum number of routes kept in the route cache. */
+    private static final int ROUTE_CACHE_CAPACITY = 1024;
+    /** Maximum number of decoded 256x256 tiles kept in the tile cache, about 64 MB. */
+    private static final int TILE_CACHE_CAPACITY = 256;
+    /** Maximum number of encoded vector tiles kept, typically a few kilobytes each. */
+    private static final int VECTOR_TILE_CACHE_CAPACITY = 4096;
     /** Route stroke information: typically roads are not more than 5px wide. */
     private static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: semi-transparent cyan. */
     private static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /**
+     * The token admin requests must send as <code>Authorization: Bearer &lt;token&gt;</code>,
+     * from the <code>bearmaps.admin.token</code> system property. Without it the endpoints
+     * that change or replace the graph are disabled.
+     */
+    private static final String ADMIN_TOKEN = System.getProperty("bearmaps.admin.token");
+    /** The endpoints that change or replace the live graph. */
+    private static final Set<String> ADMIN_PATHS =
+            Set.of("/edge_weights", "/osm_changes", "/reload");
     /** The directory where tile images can be found. */
     private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
     /**
@@ -233,8 +702,10 @@ public class MapServer {
         private final boolean querySuccess;
         private final int rasterWidth, rasterHeight;
         private final String b64EncodedImageData;
-        private RenderedRasterResultParams(
-                RasterResultParams params, int rasterWidth, int rasterHeight, String encodedImage) {
+        /** The format of the image data, png or jpeg. */
+        private final String imageFormat;
+        private RenderedRasterResultParams(RasterResultParams params, int rasterWidth,
+                                           int rasterHeight, String encodedImage, String format) {
             this.renderGrid = params.renderGrid;
             this.rasterUlLon = params.rasterUlLon;
             this.rasterUlLat = params.rasterUlLat;
@@ -245,6 +716,7 @@ public class MapServer {
             this.rasterWidth = rasterWidth;
             this.rasterHeight = rasterHeight;
             this.b64EncodedImageData = encodedImage;
+            this.imageFormat = format;
         }
     }
 }
@@ -0,0 +1,230 @@
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Process-wide counters and latency histograms, exported in the Prometheus text format by the
+ * <code>/metrics</code> endpoint. Recording is lock-free and allocation-free: counters are
+ * <code>LongAdder</code>s, which spread contended updates across cells, and histograms add one
+ * to a slot of an atomic array.
+ *
+ * Histograms use HDR-style log-linear buckets: every power of two is split into
+ * <code>SUB_BUCKETS</code> equal sub-buckets, so any recorded value is known to within about
+ * 12 percent across the whole range from nanoseconds to minutes. Prometheus receives the
+ * cumulative counts at each power of two.
+ */
+class Metrics {
+    /** A monotonically increasing count. */
+    static class Counter {
+        final String name;
+        final String help;
+        private final LongAdder adder = new LongAdder();
+        private Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+        void increment() {
+            adder.increment();
+        }
+        void add(long n) {
+            adder.add(n);
+        }
+        long get() {
+            return adder.sum();
+        }
+    }
+
+    /** A distribution of durations in nanoseconds. */
+    static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Records one value.
+         * @param nanos A duration in nanoseconds; negative values are recorded as zero.
+         */
+        void record(long nanos) {
+            long v = Math.max(0, nanos);
+            buckets.incrementAndGet(bucketOf(v));
+            sum.add(v);
+            count.increment();
+        }
+
+        /**
+         * Records a value, plus the values that requests queued behind it would have seen had
+         * they been sent on schedule: one at each multiple of <code>interval</code> below it.
+         * This corrects for coordinated omission when a load generator waits for each response
+         * before sending the next request.
+         * @param nanos The measured duration in nanoseconds.
+         * @param interval The expected time between requests in nanoseconds, or 0 for none.
+         */
+        void recordCorrected(long nanos, long interval) {
+            record(nanos);
+            if (interval <= 0) {
+                return;
+            }
+            for (long missed = nanos - interval; missed >= interval; missed -= interval) {
+                record(missed);
+            }
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        /**
+         * Returns an upper bound on the value at a quantile, accurate to one sub-bucket.
+         * @param q The quantile, from 0 to 1.
+         * @return The largest value in the bucket holding that quantile, or 0 if nothing has
+         * been recorded.
+         */
+        long valueAtQuantile(double q) {
+            long[] snapshot = snapshot();
+            long total = 0;
+            for (long n : snapshot) {
+                total += n;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i += 1) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return upperBound(i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        /** Returns a copy of the bucket counts. */
+        private long[] snapshot() {
+            long[] snapshot = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; i += 1) {
+                snapshot[i] = buckets.get(i);
+            }
+            return snapshot;
+        }
+    }
+
+    /** Private constructor to prevent instantiation; all members are static. */
+    private Metrics() {
+    }
+
+    /** Every counter, in registration order. */
+    private static final List<Counter> COUNTERS = new CopyOnWriteArrayList<>();
+    /** Request latency histograms, by endpoint path. */
+    private static final Map<String, Histogram> LATENCIES = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registers a counter for export.
+     * @param name The Prometheus metric name.
+     * @param help A one-line description.
+     * @return The new counter.
+     */
+    static Counter counter(String name, String help) {
+        Counter c = new Counter(name, help);
+        COUNTERS.add(c);
+        return c;
+    }
+
+    /**
+     * Returns the request latency histogram of an endpoint, creating it on first use.
+     * @param endpoint The endpoint path, such as <code>/route</code>.
+     * @return The histogram, shared by every caller for that endpoint.
+     */
+    static Histogram requestLatency(String endpoint) {
+        return LATENCIES.computeIfAbsent(endpoint, e -> new Histogram());
+    }
+
+    /** Returns the index of the bucket holding a non-negative value. */
+    static int bucketOf(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Returns the smallest value above every value in bucket <code>i</code>. */
+    static long upperBound(int i) {
+        if (i < SUB_BUCKETS) {
+            return i + 1;
+        }
+        int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        return (SUB_BUCKETS + i % SUB_BUCKETS) * width + width;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format, version 0.0.4.
+     * @return The exposition, one sample per line.
+     */
+    static String render() {
+        StringBuilder sb = new StringBuilder();
+        for (Counter c : COUNTERS) {
+            sb.append("# HELP ").append(c.name).append(' ').append(c.help).append('\n');
+            sb.append("# TYPE ").append(c.name).append(" counter\n");
+            sb.append(c.name).append(' ').append(c.get()).append('\n');
+        }
+        String name = "bearmaps_request_duration_seconds";
+        sb.append("# HELP ").append(name).append(" Time spent handling requests, by endpoint.\n");
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        for (Map.Entry<String, Histogram> e : LATENCIES.entrySet()) {
+            String label = "endpoint=\"" + e.getKey() + "\"";
+            Histogram h = e.getValue();
+            long[] snapshot = h.snapshot();
+            long cumulative = 0;
+            int i = 0;
+            for (int k = MIN_EXPORTED_EXPONENT; k <= MAX_EXPORTED_EXPONENT; k += 1) {
+                long limit = 1L << k;
+                for (int end = bucketOf(limit); i < end; i += 1) {
+                    cumulative += snapshot[i];
+                }
+                sb.append(name).append("_bucket{").append(label).append(",le=\"")
+                        .append(seconds(limit)).append("\"} ").append(cumulative).append('\n');
+            }
+            for (; i < NUM_BUCKETS; i += 1) {
+                cumulative += snapshot[i];
+            }
+            sb.append(name).append("_bucket{").append(label).append(",le=\"+Inf\"} ")
+                    .append(cumulative).append('\n');
+            sb.append(name).append("_sum{").append(label).append("} ")
+                    .append(seconds(h.sum())).append('\n');
+            sb.append(name).append("_count{").append(label).append("} ")
+                    .append(cumulative).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9g", nanos / 1e9);
+    }
+
+    /** Log2 of the number of sub-buckets per power of two. */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Enough buckets for any non-negative long. */
+    private static final int NUM_BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+    /** Exported bucket limits run from 2^10 ns, about a microsecond, to 2^36 ns, about 69 s. */
+    private static final int MIN_EXPORTED_EXPONENT = 10;
+    private static final int MAX_EXPORTED_EXPONENT = 36;
+
+    static final Counter TILES_DECODED = counter("bearmaps_tiles_decoded_total",
+            "Map tile images read from disk and decoded.");
+    static final Counter TILE_CACHE_HITS = counter("bearmaps_tile_cache_hits_total",
+            "Map tile images served from the decoded tile cache.");
+    static final Counter NODES_SETTLED = counter("bearmaps_search_nodes_settled_total",
+            "Vertices settled by shortest-path searches.");
+    static final Counter EDGES_RELAXED = counter("bearmaps_search_edges_relaxed_total",
+            "Edges relaxed by shortest-path searches.");
+    static final Counter CLOSEST_CALLS = counter("bearmaps_closest_calls_total",
+            "Nearest-vertex lookups in GraphDB.closest.");
+}
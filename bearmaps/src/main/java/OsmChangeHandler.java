@@ -0,0 +1,60 @@
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import java.util.HashSet;
+import java.util.Set;
+/**
+ * Parses OSM change files (<code>.osc</code>), which wrap ordinary node and way elements in
+ * <code>&lt;create&gt;</code>, <code>&lt;modify&gt;</code>, and <code>&lt;delete&gt;</code>
+ * blocks. Created and modified elements are handed to a <code>GraphBuildingHandler</code>, so
+ * they are filtered and tagged exactly as when loading a full map, and collected in a staging
+ * <code>GraphDB</code>; deleted elements are recorded by ID. <code>GraphDB.applyChanges</code>
+ * then merges the result into a new version of the graph.
+ *
+ * See <a href="https://wiki.openstreetmap.org/wiki/OsmChange">the OsmChange format</a>.
+ */
+class OsmChangeHandler extends DefaultHandler {
+    /** Receives every created or modified node and way. */
+    final GraphDB staged;
+    /** IDs of deleted nodes. */
+    final Set<Long> deletedNodes = new HashSet<>();
+    /** IDs of deleted ways. */
+    final Set<Long> deletedWays = new HashSet<>();
+    private final GraphBuildingHandler delegate;
+    /** The enclosing action element, or the empty string outside of one. */
+    private String action = "";
+
+    /**
+     * Create a new OsmChangeHandler.
+     * @param staged An empty graph to collect created and modified elements in.
+     */
+    OsmChangeHandler(GraphDB staged) {
+        this.staged = staged;
+        this.delegate = new GraphBuildingHandler(staged);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+            throws SAXException {
+        if (qName.equals("create") || qName.equals("modify") || qName.equals("delete")) {
+            action = qName;
+        } else if (action.equals("delete")) {
+            if (qName.equals("node")) {
+                deletedNodes.add(Long.parseLong(attributes.getValue("id")));
+            } else if (qName.equals("way")) {
+                deletedWays.add(Long.parseLong(attributes.getValue("id")));
+            }
+        } else if (!action.isEmpty()) {
+            delegate.startElement(uri, localName, qName, attributes);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (qName.equals(action)) {
+            action = "";
+        } else if (!action.isEmpty() && !action.equals("delete")) {
+            delegate.endElement(uri, localName, qName);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+/**
+ * A PNG encoder for opaque images with a tunable deflate level. ImageIO's PNG writer always
+ * compresses at its default level and allocates its buffers anew for every image; this
+ * encoder writes 8-bit RGB at whatever level it is given, and each thread reuses its deflater,
+ * row buffers, and chunk buffer from one image to the next. Each row is filtered with None, Sub,
+ * or Up, whichever leaves the smallest sum of absolute differences; the Average and Paeth
+ * filters cost more to try than they save on flat map imagery. Alpha is dropped, as the server
+ * only renders opaque images.
+ */
+class PngEncoder extends ImageEncoder {
+    /** One thread's deflater and buffers. */
+    private static class Buffers {
+        final Deflater deflater = new Deflater();
+        final CRC32 crc = new CRC32();
+        /** The previous and current scanlines as RGB bytes. */
+        byte[] prev = new byte[0];
+        byte[] cur = new byte[0];
+        /** The current scanline under each filter, each starting with its filter type. */
+        byte[][] filtered = new byte[NUM_FILTERS][0];
+        /** The pixels of a scanline, for images without an int raster. */
+        int[] pixels = new int[0];
+        /** A chunk being built: its length, type, up to CHUNK_BYTES of data, and its CRC. */
+        final byte[] chunk = new byte[CHUNK_BYTES + 12];
+    }
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final int level;
+
+    /**
+     * Creates an encoder.
+     * @param level The deflate level, from 0 (no compression) to 9 (best compression).
+     * @throws IllegalArgumentException If the level is out of range.
+     */
+    PngEncoder(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("PNG deflate level must be 0 to 9: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    String format() {
+        return "png";
+    }
+
+    @Override
+    String mediaType() {
+        return "image/png";
+    }
+
+    @Override
+    void encode(BufferedImage img, OutputStream out) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        Buffers b = BUFFERS.get();
+        out.write(SIGNATURE);
+        putInt(b.chunk, 8, width);
+        putInt(b.chunk, 12, height);
+        b.chunk[16] = 8;  /* Bits per sample. */
+        b.chunk[17] = 2;  /* Truecolor. */
+        b.chunk[18] = 0;  /* Deflate. */
+        b.chunk[19] = 0;  /* Adaptive filtering. */
+        b.chunk[20] = 0;  /* Not interlaced. */
+        writeChunk(out, b, IHDR, 13);
+
+        int rowBytes = 1 + 3 * width;
+        if (b.prev.length < rowBytes - 1) {
+            b.prev = new byte[rowBytes - 1];
+            b.cur = new byte[rowBytes - 1];
+            for (int type = 0; type < NUM_FILTERS; type += 1) {
+                b.filtered[type] = new byte[rowBytes];
+                b.filtered[type][0] = (byte) type;
+            }
+        }
+        /* The row above the first is all zeros. */
+        Arrays.fill(b.prev, 0, rowBytes - 1, (byte) 0);
+        int[] data = null;
+        int offset = 0;
+        int stride = width;
+        WritableRaster raster = img.getRaster();
+        if ((img.getType() == BufferedImage.TYPE_INT_RGB
+                || img.getType() == BufferedImage.TYPE_INT_ARGB)
+                && raster.getParent() == null) {
+            /* Read the pixels in place rather than converting them one at a time. */
+            data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        } else if (b.pixels.length < width) {
+            b.pixels = new int[width];
+        }
+
+        Deflater deflater = b.deflater;
+        deflater.reset();
+        deflater.setLevel(level);
+        int filled = 0;
+        for (int y = 0; y < height; y += 1) {
+            int[] px = data;
+            if (px == null) {
+                px = img.getRGB(0, y, width, 1, b.pixels, 0, width);
+                offset = 0;
+            } else {
+                offset = y * stride;
+            }
+            for (int x = 0, p = 0; x < width; x += 1, p += 3) {
+                int rgb = px[offset + x];
+                b.cur[p] = (byte) (rgb >> 16);
+                b.cur[p + 1] = (byte) (rgb >> 8);
+                b.cur[p + 2] = (byte) rgb;
+            }
+            byte[] row = filter(b.cur, b.prev, rowBytes - 1, b.filtered);
+            byte[] swap = b.prev;
+            b.prev = b.cur;
+            b.cur = swap;
+            deflater.setInput(row, 0, rowBytes);
+            while (!deflater.needsInput()) {
+                filled = drain(out, b, filled);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            filled = drain(out, b, filled);
+        }
+        if (filled > 0) {
+            writeChunk(out, b, IDAT, filled);
+        }
+        writeChunk(out, b, IEND, 0);
+    }
+
+    /**
+     * Filters one scanline each way this encoder tries and returns the result whose bytes, read
+     * as signed, have the smallest sum of absolute values.
+     */
+    private static byte[] filter(byte[] cur, byte[] prev, int n, byte[][] filtered) {
+        byte[] none = filtered[0];
+        byte[] sub = filtered[1];
+        byte[] up = filtered[2];
+        long[] sums = new long[NUM_FILTERS];
+        for (int i = 0; i < n; i += 1) {
+            byte x = cur[i];
+            byte s = (byte) (i >= BYTES_PER_PIXEL ? x - cur[i - BYTES_PER_PIXEL] : x);
+            byte u = (byte) (x - prev[i]);
+            none[i + 1] = x;
+            sub[i + 1] = s;
+            up[i + 1] = u;
+            sums[0] += Math.abs(x);
+            sums[1] += Math.abs(s);
+            sums[2] += Math.abs(u);
+        }
+        int best = 0;
+        for (int type = 1; type < NUM_FILTERS; type += 1) {
+            if (sums[type] < sums[best]) {
+                best = type;
+            }
+        }
+        return filtered[best];
+    }
+
+    /**
+     * Moves compressed bytes into the chunk buffer, writing an IDAT chunk whenever it fills.
+     * @return The number of data bytes now in the chunk buffer.
+     */
+    private static int drain(OutputStream out, Buffers b, int filled) throws IOException {
+        filled += b.deflater.deflate(b.chunk, 8 + filled, CHUNK_BYTES - filled);
+        if (filled == CHUNK_BYTES) {
+            writeChunk(out, b, IDAT, CHUNK_BYTES);
+            return 0;
+        }
+        return filled;
+    }
+
+    /** Writes a chunk whose <code>length</code> data bytes are already in the chunk buffer. */
+    private static void writeChunk(OutputStream out, Buffers b, int type, int length)
+            throws IOException {
+        putInt(b.chunk, 0, length);
+        putInt(b.chunk, 4, type);
+        b.crc.reset();
+        b.crc.update(b.chunk, 4, 4 + length);
+        putInt(b.chunk, 8 + length, (int) b.crc.getValue());
+        out.write(b.chunk, 0, 12 + length);
+    }
+
+    private static void putInt(byte[] buf, int at, int value) {
+        buf[at] = (byte) (value >>> 24);
+        buf[at + 1] = (byte) (value >>> 16);
+        buf[at + 2] = (byte) (value >>> 8);
+        buf[at + 3] = (byte) value;
+    }
+
+    private static final int BYTES_PER_PIXEL = 3;
+    /** None, Sub, and Up. */
+    private static final int NUM_FILTERS = 3;
+    /** Compressed bytes per IDAT chunk. */
+    private static final int CHUNK_BYTES = 1 << 16;
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454e44;
+}
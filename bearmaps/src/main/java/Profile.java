@@ -0,0 +1,85 @@
+import java.util.Map;
+/**
+ * A routing profile turns the OSM tags of a way into a travel speed, so that each profile can
+ * weight the same road graph by travel time. Weights for every profile are precomputed per
+ * adjacency slot in <code>CompactGraph</code>; the graph topology itself is shared.
+ */
+enum Profile {
+    /** Motor vehicles: speeds from <code>maxspeed</code> or the highway type, one-way aware. */
+    DRIVE(true, 65.0),
+    /** Pedestrians: a constant walking pace, ignoring one-way restrictions, no motorways. */
+    WALK(false, 3.1),
+    /** Bicycles: a constant riding pace, one-way aware, no motorways. */
+    BIKE(true, 12.0);
+
+    /** Default driving speeds in miles per hour for each highway type without a maxspeed tag. */
+    private static final Map<String, Double> DRIVE_SPEEDS = Map.ofEntries(
+            Map.entry("motorway", 65.0), Map.entry("motorway_link", 45.0),
+            Map.entry("trunk", 55.0), Map.entry("trunk_link", 40.0),
+            Map.entry("primary", 40.0), Map.entry("primary_link", 30.0),
+            Map.entry("secondary", 35.0), Map.entry("secondary_link", 30.0),
+            Map.entry("tertiary", 30.0), Map.entry("tertiary_link", 25.0),
+            Map.entry("unclassified", 25.0), Map.entry("residential", 25.0),
+            Map.entry("living_street", 10.0)
+    );
+    /** Kilometers per hour in one mile per hour. */
+    private static final double KMH_PER_MPH = 1.609344;
+
+    private final boolean respectsOneway;
+    private final double maxSpeed;
+
+    Profile(boolean respectsOneway, double maxSpeed) {
+        this.respectsOneway = respectsOneway;
+        this.maxSpeed = maxSpeed;
+    }
+
+    /**
+     * Returns whether this profile may only travel one-way roads in their signed direction.
+     * @return True if one-way tags apply to this profile.
+     */
+    boolean respectsOneway() {
+        return respectsOneway;
+    }
+
+    /**
+     * Returns the speed this profile travels along a way, in miles per hour.
+     * @param way The way, with its highway and maxspeed tags.
+     * @return The travel speed, or 0 if this profile may not use the way.
+     */
+    double speed(GraphDB.Edge way) {
+        boolean motorway = way.highway != null
+                && (way.highway.startsWith("motorway") || way.highway.startsWith("trunk"));
+        switch (this) {
+            case WALK:
+            case BIKE:
+                return motorway ? 0.0 : maxSpeed;
+            default:
+                double limit = parseMaxspeed(way.maxspeed);
+                if (Double.isNaN(limit)) {
+                    limit = DRIVE_SPEEDS.getOrDefault(way.highway, 25.0);
+                }
+                return Math.min(limit, maxSpeed);
+        }
+    }
+
+    /**
+     * Parses an OSM <code>maxspeed</code> value such as "35", "35 mph", or "50 km/h".
+     * Unitless values are in kilometers per hour, as in OSM.
+     * @param maxspeed The tag value, or null.
+     * @return The speed in miles per hour, or NaN if absent or unparseable.
+     */
+    static double parseMaxspeed(String maxspeed) {
+        if (maxspeed == null) {
+            return Double.NaN;
+        }
+        String value = maxspeed.trim().toLowerCase();
+        boolean mph = value.endsWith("mph");
+        value = value.replace("mph", "").replace("km/h", "").replace("kmh", "").trim();
+        try {
+            double speed = Double.parseDouble(value);
+            return mph ? speed : speed / KMH_PER_MPH;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
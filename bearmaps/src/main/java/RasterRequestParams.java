@@ -21,6 +21,8 @@ public class RasterRequestParams {
     public final double w;
     /** The height (in pixels) of the browser viewport. */
     public final double h;
+    /** The requested image format, or null to choose one from the Accept header. */
+    public final String format;
 
     /**
      * Validate and return a parameter map of the required request parameters.
@@ -44,6 +46,15 @@ public class RasterRequestParams {
                 }
             }
         }
+        if (req.containsKey(FORMAT_PARAM)) {
+            try {
+                builder.setFormat(ImageEncoder.forFormat(req.get(FORMAT_PARAM)[0]).format());
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                String msg = String.format("Incorrect parameters: unable to parse %s.",
+                        FORMAT_PARAM);
+                throw new IllegalArgumentException(msg);
+            }
+        }
         return builder.create();
     }
 
@@ -52,21 +63,23 @@ public class RasterRequestParams {
      * instance. Use the factory method, from, instead.
      */
     private RasterRequestParams() {
-        this(0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+        this(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, null);
     }
 
-    private RasterRequestParams(
-            double ullat, double ullon, double lrlat, double lrlon, double w, double h) {
+    private RasterRequestParams(double ullat, double ullon, double lrlat, double lrlon,
+                                double w, double h, String format) {
         this.ullat = ullat;
         this.ullon = ullon;
         this.lrlat = lrlat;
         this.lrlon = lrlon;
         this.w = w;
         this.h = h;
+        this.format = format;
     }
 
     public static class Builder {
         private double ullat, ullon, lrlat, lrlon, w, h;
+        private String format;
 
         /**
          * Creates a RasterRequestParams.Builder instance that can be used to build
@@ -105,8 +118,13 @@ public class RasterRequestParams {
             return this;
         }
 
+        public Builder setFormat(String value) {
+            this.format = value;
+            return this;
+        }
+
         public RasterRequestParams create() {
-            return new RasterRequestParams(ullat, ullon, lrlat, lrlon, w, h);
+            return new RasterRequestParams(ullat, ullon, lrlat, lrlon, w, h, format);
         }
 
         private Builder set(String field, double value) {
@@ -139,4 +157,6 @@ public class RasterRequestParams {
 
     /** Raster requests to the server must have the following keys in the params map. */
     private static final String[] REQUIRED_PARAMS = {"ullat", "ullon", "lrlat", "lrlon", "w", "h"};
+    /** Optional key choosing the image format, png or jpeg, instead of the Accept header. */
+    private static final String FORMAT_PARAM = "format";
 }
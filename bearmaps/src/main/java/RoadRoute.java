@@ -0,0 +1,30 @@
+import java.util.List;
+/**
+ * A route that begins and ends at points on road segments rather than at vertices. It is
+ * returned by <code>Router.shortestPathOnRoads</code>. The snapped start and end points are
+ * virtual: they are not vertices of the graph and do not appear in <code>vertices</code>, so
+ * the full polyline is the start point, then each vertex, then the end point.
+ */
+class RoadRoute {
+    /** The point on the road network where the route begins. */
+    final double startLon, startLat;
+    /** The point on the road network where the route ends. */
+    final double endLon, endLat;
+    /**
+     * IDs of the vertices passed between the two points, in order. Empty when both points lie on
+     * the same segment and the route stays on it.
+     */
+    final List<Long> vertices;
+    /** The total weight of the route, including the partial segments at either end. */
+    final double weight;
+
+    RoadRoute(double startLon, double startLat, double endLon, double endLat,
+              List<Long> vertices, double weight) {
+        this.startLon = startLon;
+        this.startLat = startLat;
+        this.endLon = endLon;
+        this.endLat = endLat;
+        this.vertices = vertices;
+        this.weight = weight;
+    }
+}
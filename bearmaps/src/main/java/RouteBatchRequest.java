@@ -0,0 +1,97 @@
+/**
+ * A RouteBatchRequest asks for the routes between many origin/destination pairs at once, so that
+ * a client planning many trips pays the HTTP and JSON overhead of one request instead of one per
+ * route. Every route in a batch shares the same options.
+ *
+ * Instances are deserialized by Gson from the body of the batch routing endpoint in MapServer,
+ * with the same field names as the query parameters of a single route request.
+ */
+class RouteBatchRequest {
+    /** One origin/destination pair, snapped to the nearest vertices like a single route. */
+    static class Pair {
+        final double startLon, startLat, endLon, endLat;
+
+        Pair(double startLon, double startLat, double endLon, double endLat) {
+            this.startLon = startLon;
+            this.startLat = startLat;
+            this.endLon = endLon;
+            this.endLat = endLat;
+        }
+    }
+
+    /** The travel profile name, or null to route by distance. */
+    private final String profile;
+    /** Whether to respect live edge-weight overrides. Without a profile, routes for driving. */
+    final boolean live;
+    /** Whether to snap endpoints only to vertices in the largest connected component. */
+    final boolean largestComponent;
+    /** Whether to include each route's geometry as an encoded polyline. */
+    final boolean polyline;
+    /** The map depth to simplify polylines for, or -1 to send every vertex. */
+    final int depth;
+    /** The pairs to route, whose results are returned in the same order. */
+    final Pair[] routes;
+
+    /** Private constructor used by Gson, which defaults to an empty batch by distance. */
+    private RouteBatchRequest() {
+        this(null, false, false, -1, new Pair[0]);
+    }
+
+    RouteBatchRequest(String profile, boolean live, boolean polyline, int depth, Pair[] routes) {
+        this(profile, live, false, polyline, depth, routes);
+    }
+
+    RouteBatchRequest(String profile, boolean live, boolean largestComponent, boolean polyline,
+                      int depth, Pair[] routes) {
+        this.profile = profile;
+        this.live = live;
+        this.largestComponent = largestComponent;
+        this.polyline = polyline;
+        this.depth = depth;
+        this.routes = routes;
+    }
+
+    /**
+     * Checks that the batch can be routed.
+     * @throws IllegalArgumentException If the profile or depth is invalid, or there are no
+     * pairs or too many.
+     */
+    void validate() {
+        profile();
+        if (depth < -1 || depth > Rasterer.MAX_DEPTH) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse depth.");
+        }
+        if (routes == null || routes.length == 0) {
+            throw new IllegalArgumentException("Request failed: routes not found.");
+        }
+        if (routes.length > MAX_ROUTES) {
+            String msg = String.format("Request failed: at most %d routes per batch.", MAX_ROUTES);
+            throw new IllegalArgumentException(msg);
+        }
+        for (Pair p : routes) {
+            if (p == null) {
+                throw new IllegalArgumentException("Request failed: null route.");
+            }
+        }
+    }
+
+    /**
+     * Returns the travel profile of every route in the batch.
+     * @return The profile, which is drive for a live batch that names none, or null to route by
+     * distance.
+     * @throws IllegalArgumentException If the profile name is unknown.
+     */
+    Profile profile() {
+        if (profile == null) {
+            return live ? Profile.DRIVE : null;
+        }
+        try {
+            return Profile.valueOf(profile.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse profile.");
+        }
+    }
+
+    /** The most pairs in one batch, which bounds the time a single request can take. */
+    static final int MAX_ROUTES = 10000;
+}
@@ -0,0 +1,171 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * A bounded, thread-safe LRU cache of routes keyed by the snapped (start, end) vertex pair and
+ * the travel profile. Each entry holds both the path and its navigation directions, so a cache
+ * hit skips <code>Router.shortestPath</code> and <code>Router.routeDirections</code> entirely.
+ *
+ * Requests for the same pair that arrive while a search is already running wait on that search
+ * instead of starting their own.
+ */
+class RouteCache {
+    /**
+     * A cached route: the vertex path, the directions computed from it, and its geometry, whose
+     * per-depth simplifications are computed once and shared by every request for the route.
+     */
+    static class Entry {
+        final List<Long> path;
+        final List<Router.NavigationDirection> directions;
+        final RouteGeometry geometry;
+        Entry(List<Long> path, List<Router.NavigationDirection> directions,
+              RouteGeometry geometry) {
+            this.path = Collections.unmodifiableList(path);
+            this.directions = Collections.unmodifiableList(directions);
+            this.geometry = geometry;
+        }
+    }
+    /**
+     * Cache key: an ordered pair of snapped vertex IDs, a profile or null for distance, the
+     * graph version, and the live weight version the route was computed against, or -1 for base
+     * weights.
+     */
+    private static class Key {
+        final long start;
+        final long end;
+        final Profile profile;
+        final long graphVersion;
+        final long version;
+        Key(long start, long end, Profile profile, long graphVersion, long version) {
+            this.start = start;
+            this.end = end;
+            this.profile = profile;
+            this.graphVersion = graphVersion;
+            this.version = version;
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return start == other.start && end == other.end && profile == other.profile
+                    && graphVersion == other.graphVersion && version == other.version;
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, end, profile, graphVersion, version);
+        }
+    }
+    /** Computes a route on a cache miss; <code>compute</code> outside of tests. */
+    interface Loader {
+        Entry load(GraphDB g, long start, long end, Profile profile, boolean live);
+    }
+    private final int capacity;
+    private final Loader loader;
+    /** Completed routes in access order. Guarded by its own monitor. */
+    private final LinkedHashMap<Key, Entry> lru;
+    /** Searches currently running, so that concurrent callers can share them. */
+    private final ConcurrentHashMap<Key, CompletableFuture<Entry>> inFlight =
+            new ConcurrentHashMap<>();
+    /**
+     * Create a new RouteCache.
+     * @param capacity The maximum number of routes kept before the least recently used one is
+     *                 evicted.
+     */
+    RouteCache(int capacity) {
+        this(capacity, RouteCache::compute);
+    }
+    /**
+     * Create a new RouteCache that computes routes with the given loader.
+     * @param capacity The maximum number of routes kept before the least recently used one is
+     *                 evicted.
+     * @param loader Computes the route for a miss.
+     */
+    RouteCache(int capacity, Loader loader) {
+        this.capacity = capacity;
+        this.loader = loader;
+        this.lru = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > RouteCache.this.capacity;
+            }
+        };
+    }
+    /**
+     * Returns the fastest route between two snapped vertices for a travel profile, computing and
+     * caching it if necessary.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The ID of the starting vertex.
+     * @param end The ID of the destination vertex.
+     * @param profile The travel profile, or null to route by distance.
+     * @param live True to respect live edge-weight overrides, routing for driving if no profile
+     *             is given. Routes computed against older weight snapshots, or older versions of
+     *             the graph, are not reused.
+     * @return The cached or newly computed <code>Entry</code>.
+     */
+    Entry get(GraphDB g, long start, long end, Profile profile, boolean live) {
+        if (live && profile == null) {
+            profile = Profile.DRIVE;
+        }
+        Key key = new Key(start, end, profile, g.version(),
+                live ? g.liveWeights().version : -1);
+        Entry cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            /* Another caller may have finished this pair between our lookup and putIfAbsent. */
+            Entry result = lookup(key);
+            if (result == null) {
+                result = loader.load(g, start, end, profile, live);
+                synchronized (lru) {
+                    lru.put(key, result);
+                }
+            }
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+    private Entry lookup(Key key) {
+        synchronized (lru) {
+            return lru.get(key);
+        }
+    }
+    /**
+     * Computes a route without caching it, for callers whose routes are unlikely to repeat.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The ID of the starting vertex.
+     * @param end The ID of the destination vertex.
+     * @param profile The travel profile, or null to route by distance.
+     * @param live True to respect live edge-weight overrides, routing for driving if no profile
+     *             is given.
+     * @return The route, with empty directions and geometry if there is none.
+     */
+    static Entry compute(GraphDB g, long start, long end, Profile profile, boolean live) {
+        if (live && profile == null) {
+            profile = Profile.DRIVE;
+        }
+        List<Long> path = profile == null
+                ? Router.shortestPath(g, start, end)
+                : Router.shortestPath(g, start, end, profile, live);
+        if (path.isEmpty()) {
+            return new Entry(path, Collections.emptyList(), RouteGeometry.EMPTY);
+        }
+        return new Entry(path, Router.routeDirections(g, path), RouteGeometry.of(g, path));
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+/**
+ * The coordinates of a route, with a Douglas-Peucker simplification for each map depth. At
+ * zoomed-out depths many vertices of a long route fall on the same pixel, so drawing or sending
+ * the simplified points keeps the cost proportional to the pixels covered rather than to the
+ * number of vertices. Simplifications are computed on first use and kept with the route.
+ */
+class RouteGeometry {
+    /** Longitude and latitude of each vertex on the route, in order. */
+    final double[] lon, lat;
+    /** Indices of the points kept at each depth, filled in lazily. */
+    private final AtomicReferenceArray<int[]> byDepth =
+            new AtomicReferenceArray<>(Rasterer.MAX_DEPTH + 1);
+
+    RouteGeometry(double[] lon, double[] lat) {
+        this.lon = lon;
+        this.lat = lat;
+    }
+
+    /**
+     * Captures the coordinates of a path.
+     * @param g The graph the path was found in.
+     * @param path The vertex IDs on the route.
+     * @return The geometry of the route.
+     */
+    static RouteGeometry of(GraphDB g, List<Long> path) {
+        double[] lon = new double[path.size()];
+        double[] lat = new double[path.size()];
+        for (int i = 0; i < lon.length; i += 1) {
+            lon[i] = g.lon(path.get(i));
+            lat[i] = g.lat(path.get(i));
+        }
+        return new RouteGeometry(lon, lat);
+    }
+
+    /**
+     * Returns the number of points on the route before simplification.
+     * @return The number of vertices.
+     */
+    int size() {
+        return lon.length;
+    }
+
+    /**
+     * Returns the points to draw at a depth: the route simplified so that it never strays more
+     * than half a pixel of a tile at that depth from the full route.
+     * @param depth The depth of the image tiles, from 0 to <code>Rasterer.MAX_DEPTH</code>.
+     * @return Indices into <code>lon</code> and <code>lat</code> of the kept points, in order.
+     */
+    int[] at(int depth) {
+        int[] kept = byDepth.get(depth);
+        if (kept == null) {
+            kept = simplify(depth);
+            byDepth.compareAndSet(depth, null, kept);
+        }
+        return kept;
+    }
+
+    private int[] simplify(int depth) {
+        int n = size();
+        if (n < 3) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                all[i] = i;
+            }
+            return all;
+        }
+        /* Measure in pixels at this depth, where a tile is TILE_SIZE pixels across. */
+        double lonDpp = MapServer.ROOT_LONDPP / (1 << depth);
+        double latDpp = MapServer.ROOT_LAT_DELTA / MapServer.TILE_SIZE / (1 << depth);
+        double[] px = new double[n];
+        double[] py = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            px[i] = lon[i] / lonDpp;
+            py[i] = lat[i] / latDpp;
+        }
+        boolean[] keep = VectorTile.simplify(px, py, SIMPLIFY_TOLERANCE_PX);
+        int count = 0;
+        for (boolean k : keep) {
+            count += k ? 1 : 0;
+        }
+        int[] kept = new int[count];
+        count = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (keep[i]) {
+                kept[count] = i;
+                count += 1;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns every point of the route in the Encoded Polyline Algorithm Format, with five
+     * decimal places of precision.
+     * @return The encoded polyline.
+     * @source https://developers.google.com/maps/documentation/utilities/polylinealgorithm
+     */
+    String encodedPolyline() {
+        int[] all = new int[size()];
+        for (int i = 0; i < all.length; i += 1) {
+            all[i] = i;
+        }
+        return encode(all);
+    }
+
+    /**
+     * Returns the route simplified for a depth in the Encoded Polyline Algorithm Format.
+     * @param depth The depth of the image tiles the route will be drawn over.
+     * @return The encoded polyline.
+     */
+    String encodedPolyline(int depth) {
+        return encode(at(depth));
+    }
+
+    private String encode(int[] points) {
+        StringBuilder sb = new StringBuilder(points.length * 8);
+        long prevLat = 0;
+        long prevLon = 0;
+        for (int i : points) {
+            long latE5 = Math.round(lat[i] * POLYLINE_PRECISION);
+            long lonE5 = Math.round(lon[i] * POLYLINE_PRECISION);
+            encodeValue(sb, latE5 - prevLat);
+            encodeValue(sb, lonE5 - prevLon);
+            prevLat = latE5;
+            prevLon = lonE5;
+        }
+        return sb.toString();
+    }
+
+    /** Appends one signed delta as five-bit chunks, low bits first, offset into printable ASCII. */
+    private static void encodeValue(StringBuilder sb, long value) {
+        long v = value < 0 ? ~(value << 1) : value << 1;
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1F)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+
+    /** A route with no points. */
+    static final RouteGeometry EMPTY = new RouteGeometry(new double[0], new double[0]);
+    /** The largest error simplification may introduce, in pixels. */
+    private static final double SIMPLIFY_TOLERANCE_PX = 0.5;
+    /** Encoded polylines store coordinates in units of 1e-5 degrees. */
+    private static final double POLYLINE_PRECISION = 1e5;
+}
@@ -19,6 +19,22 @@ public class RouteRequestParams {
     public final double endLat;
     /** The end point longitude. */
     public final double endLon;
+    /** The travel profile to route for, or null to route by distance. */
+    public final Profile profile;
+    /**
+     * Whether to respect live edge-weight overrides. Overrides change travel times, so a live
+     * request without a profile is routed for driving.
+     */
+    public final boolean live;
+    /**
+     * Whether to snap the endpoints to the nearest vertices in the largest connected component,
+     * rather than to the nearest vertices overall.
+     */
+    public final boolean largestComponent;
+    /** Whether to include the route geometry as an encoded polyline. */
+    public final boolean polyline;
+    /** The map depth to simplify the polyline for, or -1 to send every vertex. */
+    public final int depth;
 
     /**
      * Validate and return a parameter map of the required request parameters.
@@ -42,6 +58,40 @@ public class RouteRequestParams {
                 }
             }
         }
+        if (req.containsKey(PROFILE_PARAM)) {
+            try {
+                builder.setProfile(Profile.valueOf(req.get(PROFILE_PARAM)[0].toUpperCase()));
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                String msg = String.format("Incorrect parameters: unable to parse %s.",
+                        PROFILE_PARAM);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+        if (req.containsKey(LIVE_PARAM)) {
+            builder.setLive(req.get(LIVE_PARAM).length == 0
+                    || Boolean.parseBoolean(req.get(LIVE_PARAM)[0]));
+        }
+        if (req.containsKey(LARGEST_COMPONENT_PARAM)) {
+            builder.setLargestComponent(req.get(LARGEST_COMPONENT_PARAM).length == 0
+                    || Boolean.parseBoolean(req.get(LARGEST_COMPONENT_PARAM)[0]));
+        }
+        if (req.containsKey(POLYLINE_PARAM)) {
+            builder.setPolyline(req.get(POLYLINE_PARAM).length == 0
+                    || Boolean.parseBoolean(req.get(POLYLINE_PARAM)[0]));
+        }
+        if (req.containsKey(DEPTH_PARAM)) {
+            String msg = String.format("Incorrect parameters: unable to parse %s.", DEPTH_PARAM);
+            int depth;
+            try {
+                depth = Integer.parseInt(req.get(DEPTH_PARAM)[0]);
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException(msg);
+            }
+            if (depth < 0 || depth > Rasterer.MAX_DEPTH) {
+                throw new IllegalArgumentException(msg);
+            }
+            builder.setDepth(depth);
+        }
         return builder.create();
     }
 
@@ -50,18 +100,30 @@ public class RouteRequestParams {
      * instance. Use the the factory method, from, instead.
      */
     private RouteRequestParams() {
-        this(0.0, 0.0, 0.0, 0.0);
+        this(0.0, 0.0, 0.0, 0.0, null, false, false, false, -1);
     }
 
-    private RouteRequestParams(double startLat, double startLon, double endLat, double endLon) {
+    private RouteRequestParams(double startLat, double startLon, double endLat, double endLon,
+                               Profile profile, boolean live, boolean largestComponent,
+                               boolean polyline, int depth) {
         this.startLat = startLat;
         this.startLon = startLon;
         this.endLat = endLat;
         this.endLon = endLon;
+        this.profile = profile;
+        this.live = live;
+        this.largestComponent = largestComponent;
+        this.polyline = polyline;
+        this.depth = depth;
     }
 
     public static class Builder {
         private double startLat, startLon, endLat, endLon;
+        private Profile profile;
+        private boolean live;
+        private boolean largestComponent;
+        private boolean polyline;
+        private int depth = -1;
 
         /**
          * Creates a RouteRequestParams.Builder instance that can be used to build
@@ -71,7 +133,9 @@ public class RouteRequestParams {
         }
 
         public RouteRequestParams create() {
-            return new RouteRequestParams(startLat, startLon, endLat, endLon);
+            Profile p = live && profile == null ? Profile.DRIVE : profile;
+            return new RouteRequestParams(startLat, startLon, endLat, endLon, p, live,
+                    largestComponent, polyline, depth);
         }
 
         public Builder setStartLat(double value) {
@@ -94,6 +158,31 @@ public class RouteRequestParams {
             return this;
         }
 
+        public Builder setProfile(Profile value) {
+            this.profile = value;
+            return this;
+        }
+
+        public Builder setLive(boolean value) {
+            this.live = value;
+            return this;
+        }
+
+        public Builder setLargestComponent(boolean value) {
+            this.largestComponent = value;
+            return this;
+        }
+
+        public Builder setPolyline(boolean value) {
+            this.polyline = value;
+            return this;
+        }
+
+        public Builder setDepth(int value) {
+            this.depth = value;
+            return this;
+        }
+
         private Builder set(String field, double value) {
             switch (field) {
                 case "start_lat":
@@ -120,4 +209,14 @@ public class RouteRequestParams {
     private static final String[] REQUIRED_PARAMS = {
         "start_lat", "start_lon", "end_lat", "end_lon"
     };
+    /** Optional key selecting a travel profile: drive, walk, or bike. */
+    private static final String PROFILE_PARAM = "profile";
+    /** Optional key requesting that live edge-weight overrides be respected. */
+    private static final String LIVE_PARAM = "live";
+    /** Optional key requesting that endpoints snap only to the largest connected component. */
+    private static final String LARGEST_COMPONENT_PARAM = "largest_component";
+    /** Optional key requesting the route geometry as an encoded polyline. */
+    private static final String POLYLINE_PARAM = "polyline";
+    /** Optional key giving the map depth, from 0 to 7, to simplify the polyline for. */
+    private static final String DEPTH_PARAM = "depth";
 }
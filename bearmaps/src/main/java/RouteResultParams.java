@@ -11,6 +11,8 @@ class RouteResultParams {
     private final boolean routingSuccess;
     /** The HTML-friendly String representation of the navigation directions. */
     private final String directions;
+    /** The route geometry as an encoded polyline, or null if it was not requested. */
+    private final String polyline;
 
     /** Private constructor to prevent direct instantiation of a RouteResultParams instance. */
     private RouteResultParams() {
@@ -23,7 +25,18 @@ class RouteResultParams {
      * @param directions The directions field.
      */
     RouteResultParams(boolean routingSuccess, String directions) {
+        this(routingSuccess, directions, null);
+    }
+
+    /**
+     * Constructs a RouteResultParams instance that also carries the route geometry.
+     * @param routingSuccess The routingSuccess field.
+     * @param directions The directions field.
+     * @param polyline The encoded polyline, or null to leave it out of the response.
+     */
+    RouteResultParams(boolean routingSuccess, String directions, String polyline) {
         this.routingSuccess = routingSuccess;
         this.directions = directions;
+        this.polyline = polyline;
     }
 }
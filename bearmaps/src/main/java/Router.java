@@ -1,12 +1,14 @@
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.HashMap;
-import java.util.PriorityQueue;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.ArrayList;
+import java.util.stream.IntStream;
 /**
  * This class provides a <code>shortestPath</code> method and <code>routeDirections</code> for
  * finding routes between two points on the map.
@@ -25,44 +27,847 @@ public class Router {
     public static List<Long> shortestPath(GraphDB g,
                                           double stlon, double stlat,
                                           double destlon, double destlat) {
-        HashMap<Long, Long> predecessor = new HashMap<>();
-        HashMap<Long, Double> distance = new HashMap<>();
-        PriorityQueue<Long> fri = new PriorityQueue(g.nodes.size(),
-                (x, y) -> distance.get(x).compareTo(distance.get(y)));
-        HashSet<Long> visited = new HashSet<>();
-        long stop = g.closest(destlon, destlat);
-        long begin = g.closest(stlon, stlat);
-        fri.add(begin);
-        distance.put(begin, 0.0);
-        predecessor.put(begin, begin);
-        long itDriveMeCrazy;
-        while (!fri.isEmpty() && !visited.contains(stop)) {
-            itDriveMeCrazy = fri.poll();
-            visited.add(itDriveMeCrazy);
-            for (long omg : g.adjacent(itDriveMeCrazy)) {
-                if (!visited.contains(omg)) {
-                    if (!fri.contains(omg)
-                            || g.distance(itDriveMeCrazy, omg)
-                            + distance.get(itDriveMeCrazy) < distance.get(omg)) {
-                        distance.put(omg, distance.get(itDriveMeCrazy)
-                                + g.distance(itDriveMeCrazy, omg));
-                        fri.add(omg);
-                        predecessor.put(omg, itDriveMeCrazy);
-                    }
+        return shortestPath(g, g.closest(stlon, stlat), g.closest(destlon, destlat));
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest path between two
+     * vertices that have already been snapped onto the graph.
+     * @param g <code>GraphDB</code> data source.
+     * @param begin The ID of the starting vertex.
+     * @param stop The ID of the destination vertex.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g, long begin, long stop) {
+        CompactGraph cg = g.compact();
+        return aStar(cg, cg.indexOf(begin), cg.indexOf(stop));
+    }
+
+    /**
+     * Runs A* by road length from s until t is settled and returns the path as vertex IDs. The
+     * heuristic is a lower bound on the great-circle distance left to t, so the path is a
+     * shortest one. Segment lengths were computed when the compact graph was built, so the loop
+     * makes no trig calls and no hash lookups.
+     */
+    private static List<Long> aStar(CompactGraph cg, int s, int t) {
+        if (s < 0 || t < 0 || !cg.connected(s, t)) {
+            return Collections.emptyList();
+        }
+        DistanceBound bound = cg.distanceBound;
+        double tLon = cg.lon[t];
+        double tLat = cg.lat[t];
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(cg);
+        ws.relax(s, -1, 0.0, bound.lowerBound(cg.lon[s], cg.lat[s], tLon, tLat));
+        while (!ws.isEmpty() && !ws.isSettled(t)) {
+            int v = ws.poll();
+            double dv = ws.dist(v);
+            for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                int w = cg.adjTarget[e];
+                double d = dv + cg.adjLength[e];
+                ws.relax(w, v, d, d + bound.lowerBound(cg.lon[w], cg.lat[w], tLon, tLat));
+            }
+        }
+        ws.publishCounts();
+        return pathTo(cg, ws, t);
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the fastest path between two
+     * coordinates for the given travel profile.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param profile The travel profile whose travel-time weights are minimized.
+     * @return The <code>List</code> of vertex IDs on the fastest path, or an empty list if the
+     * destination cannot be reached.
+     */
+    public static List<Long> shortestPath(GraphDB g,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat, Profile profile) {
+        return shortestPath(g, g.closest(stlon, stlat), g.closest(destlon, destlat), profile);
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the fastest path between two
+     * snapped vertices for the given travel profile.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The ID of the starting vertex.
+     * @param end The ID of the destination vertex.
+     * @param profile The travel profile whose travel-time weights are minimized.
+     * @return The <code>List</code> of vertex IDs on the fastest path, or an empty list if the
+     * destination cannot be reached.
+     */
+    public static List<Long> shortestPath(GraphDB g, long start, long end, Profile profile) {
+        return shortestPath(g, start, end, profile, false);
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the fastest path between two
+     * snapped vertices for the given travel profile, optionally respecting live edge-weight
+     * overrides such as closures. The whole search uses a single weight snapshot.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The ID of the starting vertex.
+     * @param end The ID of the destination vertex.
+     * @param profile The travel profile whose travel-time weights are minimized.
+     * @param live True to apply the overrides set through <code>GraphDB.updateEdgeWeights</code>.
+     * @return The <code>List</code> of vertex IDs on the fastest path, or an empty list if the
+     * destination cannot be reached.
+     */
+    public static List<Long> shortestPath(GraphDB g, long start, long end, Profile profile,
+                                          boolean live) {
+        CompactGraph cg = g.compact();
+        return pointToPoint(cg, weightsFor(g, profile, live), cg.indexOf(start), cg.indexOf(end));
+    }
+
+    /** Returns the base or live travel-time weights of a profile. */
+    private static double[] weightsFor(GraphDB g, Profile profile, boolean live) {
+        return live ? g.liveWeights().weights(profile) : g.compact().weights(profile);
+    }
+
+    /** Runs Dijkstra's algorithm from s until t is settled and returns the path as vertex IDs. */
+    private static List<Long> pointToPoint(CompactGraph cg, double[] weights, int s, int t) {
+        if (s < 0 || t < 0 || !cg.connected(s, t)) {
+            return Collections.emptyList();
+        }
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(cg);
+        ws.relax(s, -1, 0.0);
+        while (!ws.isEmpty() && !ws.isSettled(t)) {
+            relaxEdges(cg, weights, false, ws, ws.poll());
+        }
+        ws.publishCounts();
+        return pathTo(cg, ws, t);
+    }
+
+    /**
+     * Returns the vertex IDs on the path to <code>t</code> in the search tree held by
+     * <code>ws</code>, or an empty list if <code>t</code> was not settled.
+     */
+    private static List<Long> pathTo(CompactGraph cg, SearchWorkspace ws, int t) {
+        if (!ws.isSettled(t)) {
+            return Collections.emptyList();
+        }
+        ArrayList<Long> path = new ArrayList<>();
+        for (int v = t; v >= 0; v = ws.pred(v)) {
+            path.add(cg.ids[v]);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Relaxes every edge leaving <code>v</code>, or entering it if <code>reverse</code> is set,
+     * using the given per-slot weights. Slots with infinite weight are never taken.
+     */
+    private static void relaxEdges(CompactGraph cg, double[] weights, boolean reverse,
+                                   SearchWorkspace ws, int v) {
+        double dv = ws.dist(v);
+        for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+            double w = reverse ? weights[cg.adjTwin[e]] : weights[e];
+            if (w != Double.POSITIVE_INFINITY) {
+                ws.relax(cg.adjTarget[e], v, dv + w);
+            }
+        }
+    }
+
+    /**
+     * Return the shortest route in miles between two coordinates, each snapped to the nearest
+     * point on any road rather than to the nearest vertex, so the route can begin and end
+     * partway along a segment.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @return The route, or null if the destination cannot be reached.
+     */
+    public static RoadRoute shortestPathOnRoads(GraphDB g,
+                                                double stlon, double stlat,
+                                                double destlon, double destlat) {
+        return shortestPathOnRoads(g, g.compact().adjLength, stlon, stlat, destlon, destlat);
+    }
+
+    /**
+     * Return the fastest route for a profile between two coordinates snapped onto roads,
+     * optionally respecting live edge-weight overrides.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param profile The travel profile whose travel-time weights are minimized.
+     * @param live True to apply the overrides set through <code>GraphDB.updateEdgeWeights</code>.
+     * @return The route, or null if the destination cannot be reached.
+     */
+    public static RoadRoute shortestPathOnRoads(GraphDB g,
+                                                double stlon, double stlat,
+                                                double destlon, double destlat,
+                                                Profile profile, boolean live) {
+        return shortestPathOnRoads(g, weightsFor(g, profile, live),
+                stlon, stlat, destlon, destlat);
+    }
+
+    /**
+     * Runs Dijkstra's algorithm between two virtual vertices placed on road segments. The start
+     * point is joined to both ends of its segment and the end point is reached from both ends of
+     * its segment, each by the matching fraction of the segment's weight, so one-way segments
+     * are still only traveled in their allowed direction.
+     */
+    private static RoadRoute shortestPathOnRoads(GraphDB g, double[] weights,
+                                                 double stlon, double stlat,
+                                                 double destlon, double destlat) {
+        SegmentIndex.Snap from = g.snapToRoad(stlon, stlat);
+        SegmentIndex.Snap to = g.snapToRoad(destlon, destlat);
+        if (from == null || to == null) {
+            return null;
+        }
+        CompactGraph cg = g.compact();
+        int fromTwin = cg.adjTwin[from.slot];
+        int toTwin = cg.adjTwin[to.slot];
+        int a = cg.adjTarget[fromTwin];
+        int b = cg.adjTarget[from.slot];
+        int c = cg.adjTarget[toTwin];
+        int d = cg.adjTarget[to.slot];
+        if (!cg.connected(a, c)) {
+            return null;
+        }
+        double best = Double.POSITIVE_INFINITY;
+        int via = -1;
+        if (from.slot == to.slot || from.slot == toTwin) {
+            /* Both points are on one segment, so the route may stay on it. */
+            double f = from.fraction;
+            double t = from.slot == to.slot ? to.fraction : 1 - to.fraction;
+            best = t >= f ? partial(weights[from.slot], t - f) : partial(weights[fromTwin], f - t);
+        }
+        double exitC = partial(weights[to.slot], to.fraction);
+        double exitD = partial(weights[toTwin], 1 - to.fraction);
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(cg);
+        ws.relax(a, -1, partial(weights[fromTwin], from.fraction));
+        ws.relax(b, -1, partial(weights[from.slot], 1 - from.fraction));
+        while (!ws.isEmpty() && ws.peekKey() < best) {
+            int v = ws.poll();
+            if (v == c && ws.dist(v) + exitC < best) {
+                best = ws.dist(v) + exitC;
+                via = v;
+            }
+            if (v == d && ws.dist(v) + exitD < best) {
+                best = ws.dist(v) + exitD;
+                via = v;
+            }
+            relaxEdges(cg, weights, false, ws, v);
+        }
+        ws.publishCounts();
+        if (best == Double.POSITIVE_INFINITY) {
+            return null;
+        }
+        List<Long> vertices = via < 0 ? Collections.emptyList() : pathTo(cg, ws, via);
+        return new RoadRoute(from.lon, from.lat, to.lon, to.lat, vertices, best);
+    }
+
+    /** Returns the weight of part of a segment, keeping untraversable segments infinite. */
+    private static double partial(double weight, double fraction) {
+        return weight == Double.POSITIVE_INFINITY ? weight : weight * fraction;
+    }
+
+    /**
+     * Returns the shortest-path distances in miles from every source coordinate to every target
+     * coordinate. Each coordinate is a <code>{lon, lat}</code> pair that is snapped to its
+     * closest vertex. One single-source search is run per source, in parallel across sources, and
+     * each search stops as soon as every target has been settled.
+     * @param g <code>GraphDB</code> data source.
+     * @param sources The <code>{lon, lat}</code> starting coordinates.
+     * @param targets The <code>{lon, lat}</code> destination coordinates.
+     * @return A flat, row-major matrix where entry <code>i * targets.length + j</code> is the
+     * distance from source <code>i</code> to target <code>j</code>, or
+     * <code>Double.POSITIVE_INFINITY</code> if the target is unreachable.
+     */
+    public static double[] distanceMatrix(GraphDB g, double[][] sources, double[][] targets) {
+        return distanceMatrix(g, g.compact().adjLength, sources, targets);
+    }
+
+    /**
+     * Returns the travel times in seconds from every source coordinate to every target
+     * coordinate for the given travel profile, in the same layout as
+     * <code>distanceMatrix(g, sources, targets)</code>.
+     * @param g <code>GraphDB</code> data source.
+     * @param sources The <code>{lon, lat}</code> starting coordinates.
+     * @param targets The <code>{lon, lat}</code> destination coordinates.
+     * @param profile The travel profile whose travel-time weights are used.
+     * @return A flat, row-major matrix of travel times.
+     */
+    public static double[] distanceMatrix(GraphDB g, double[][] sources, double[][] targets,
+                                          Profile profile) {
+        return distanceMatrix(g, sources, targets, profile, false);
+    }
+
+    /**
+     * Returns the travel-time matrix for a profile, optionally respecting live edge-weight
+     * overrides. Every row is computed from the same weight snapshot.
+     * @param g <code>GraphDB</code> data source.
+     * @param sources The <code>{lon, lat}</code> starting coordinates.
+     * @param targets The <code>{lon, lat}</code> destination coordinates.
+     * @param profile The travel profile whose travel-time weights are used.
+     * @param live True to apply the overrides set through <code>GraphDB.updateEdgeWeights</code>.
+     * @return A flat, row-major matrix of travel times.
+     */
+    public static double[] distanceMatrix(GraphDB g, double[][] sources, double[][] targets,
+                                          Profile profile, boolean live) {
+        return distanceMatrix(g, weightsFor(g, profile, live), sources, targets);
+    }
+
+    private static double[] distanceMatrix(GraphDB g, double[] weights,
+                                           double[][] sources, double[][] targets) {
+        CompactGraph cg = g.compact();
+        int[] sourceIdx = snapAll(g, cg, sources);
+        int[] targetIdx = snapAll(g, cg, targets);
+        boolean[] isTarget = new boolean[cg.size()];
+        /* Only targets in a source's component can be settled, so count them per component. */
+        int[] targetsInComponent = new int[cg.componentSize.length];
+        for (int t : targetIdx) {
+            if (!isTarget[t]) {
+                isTarget[t] = true;
+                targetsInComponent[cg.component[t]] += 1;
+            }
+        }
+        double[] matrix = new double[sources.length * targets.length];
+        IntStream.range(0, sources.length).parallel().forEach(i -> {
+            SearchWorkspace ws = SearchWorkspace.forCurrentThread(cg);
+            int numTargets = targetsInComponent[cg.component[sourceIdx[i]]];
+            oneToMany(cg, weights, ws, sourceIdx[i], isTarget, numTargets);
+            int row = i * targetIdx.length;
+            for (int j = 0; j < targetIdx.length; j += 1) {
+                matrix[row + j] = ws.isSettled(targetIdx[j])
+                        ? ws.dist(targetIdx[j]) : Double.POSITIVE_INFINITY;
+            }
+        });
+        return matrix;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from <code>source</code> until <code>numTargets</code> marked
+     * vertices have been settled or the reachable graph is exhausted.
+     */
+    private static void oneToMany(CompactGraph cg, double[] weights, SearchWorkspace ws,
+                                  int source, boolean[] isTarget, int numTargets) {
+        int remaining = numTargets;
+        ws.relax(source, -1, 0.0);
+        while (!ws.isEmpty() && remaining > 0) {
+            int v = ws.poll();
+            if (isTarget[v]) {
+                remaining -= 1;
+            }
+            relaxEdges(cg, weights, false, ws, v);
+        }
+        ws.publishCounts();
+    }
+
+    /**
+     * Returns every vertex whose shortest-path distance from the vertex closest to the given
+     * coordinate is at most <code>budget</code> miles, together with the convex hull of those
+     * vertices. The search is a Dijkstra that stops as soon as the next vertex would exceed the
+     * budget, so its cost is proportional to the size of the reachable area, not the whole map.
+     * @param g <code>GraphDB</code> data source.
+     * @param lon The longitude of the starting coordinate.
+     * @param lat The latitude of the starting coordinate.
+     * @param budget The maximum travel distance in miles.
+     * @return The reachable vertices and their hull.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double budget) {
+        return isochrone(g, g.compact().adjLength, lon, lat, budget);
+    }
+
+    /**
+     * Returns every vertex reachable from the vertex closest to the given coordinate within
+     * <code>budget</code> seconds of travel for the given profile, with their convex hull.
+     * @param g <code>GraphDB</code> data source.
+     * @param lon The longitude of the starting coordinate.
+     * @param lat The latitude of the starting coordinate.
+     * @param budget The maximum travel time in seconds.
+     * @param profile The travel profile whose travel-time weights are used.
+     * @return The reachable vertices and their hull.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double budget,
+                                      Profile profile) {
+        return isochrone(g, lon, lat, budget, profile, false);
+    }
+
+    /**
+     * Returns the area reachable within <code>budget</code> seconds for a profile, optionally
+     * respecting live edge-weight overrides.
+     * @param g <code>GraphDB</code> data source.
+     * @param lon The longitude of the starting coordinate.
+     * @param lat The latitude of the starting coordinate.
+     * @param budget The maximum travel time in seconds.
+     * @param profile The travel profile whose travel-time weights are used.
+     * @param live True to apply the overrides set through <code>GraphDB.updateEdgeWeights</code>.
+     * @return The reachable vertices and their hull.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double budget,
+                                      Profile profile, boolean live) {
+        return isochrone(g, weightsFor(g, profile, live), lon, lat, budget);
+    }
+
+    private static Isochrone isochrone(GraphDB g, double[] weights,
+                                       double lon, double lat, double budget) {
+        CompactGraph cg = g.compact();
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(cg);
+        int[] reached = new int[16];
+        int count = 0;
+        ws.relax(cg.indexOf(g.closest(lon, lat)), -1, 0.0);
+        while (!ws.isEmpty() && ws.peekKey() <= budget) {
+            int v = ws.poll();
+            if (count == reached.length) {
+                reached = Arrays.copyOf(reached, count * 2);
+            }
+            reached[count] = v;
+            count += 1;
+            relaxEdges(cg, weights, false, ws, v);
+        }
+        ws.publishCounts();
+        return Isochrone.of(cg, reached, count);
+    }
+
+    /**
+     * Returns up to <code>k</code> meaningfully different routes between two coordinates, using
+     * the default stretch and overlap limits. The first route is always the shortest path.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param k The maximum number of routes to return.
+     * @return A <code>List</code> of routes, each a <code>List</code> of vertex IDs.
+     */
+    public static List<List<Long>> alternativeRoutes(GraphDB g,
+                                                     double stlon, double stlat,
+                                                     double destlon, double destlat, int k) {
+        return alternativeRoutes(g, g.closest(stlon, stlat), g.closest(destlon, destlat), k,
+                DEFAULT_MAX_STRETCH, DEFAULT_MAX_OVERLAP);
+    }
+
+    /**
+     * Returns up to <code>k</code> meaningfully different routes between two vertices, ordered by
+     * length. The first route is always the shortest path.
+     *
+     * Alternatives are found with the via-vertex (plateau) method: one forward search from
+     * <code>start</code> and one backward search from <code>end</code>, each bounded by the
+     * stretch limit, give two shortest-path trees. Stretches of road that lie on both trees form
+     * plateaus, and every plateau of sufficient length yields a locally optimal candidate route
+     * through it. The total cost is about two bounded shortest-path searches.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The ID of the starting vertex.
+     * @param end The ID of the destination vertex.
+     * @param k The maximum number of routes to return.
+     * @param maxStretch The longest allowed route as a multiple of the shortest, e.g. 1.25.
+     * @param maxOverlap The largest fraction of a route's length that may be shared with routes
+     *                   already chosen, e.g. 0.75.
+     * @return A <code>List</code> of routes, each a <code>List</code> of vertex IDs, or an empty
+     * list if <code>end</code> is unreachable.
+     */
+    public static List<List<Long>> alternativeRoutes(GraphDB g, long start, long end, int k,
+                                                     double maxStretch, double maxOverlap) {
+        return alternativeRoutes(g, g.compact().adjLength, start, end, k, maxStretch, maxOverlap);
+    }
+
+    /**
+     * Returns up to <code>k</code> meaningfully different fastest routes between two vertices
+     * for the given travel profile. Stretch and overlap are measured in travel time.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The ID of the starting vertex.
+     * @param end The ID of the destination vertex.
+     * @param k The maximum number of routes to return.
+     * @param maxStretch The slowest allowed route as a multiple of the fastest, e.g. 1.25.
+     * @param maxOverlap The largest fraction of a route's travel time that may be shared with
+     *                   routes already chosen, e.g. 0.75.
+     * @param profile The travel profile whose travel-time weights are used.
+     * @return A <code>List</code> of routes, each a <code>List</code> of vertex IDs.
+     */
+    public static List<List<Long>> alternativeRoutes(GraphDB g, long start, long end, int k,
+                                                     double maxStretch, double maxOverlap,
+                                                     Profile profile) {
+        return alternativeRoutes(g, start, end, k, maxStretch, maxOverlap, profile, false);
+    }
+
+    /**
+     * Returns up to <code>k</code> alternative fastest routes for a profile, optionally
+     * respecting live edge-weight overrides. Both searches use the same weight snapshot.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The ID of the starting vertex.
+     * @param end The ID of the destination vertex.
+     * @param k The maximum number of routes to return.
+     * @param maxStretch The slowest allowed route as a multiple of the fastest, e.g. 1.25.
+     * @param maxOverlap The largest fraction of a route's travel time that may be shared with
+     *                   routes already chosen, e.g. 0.75.
+     * @param profile The travel profile whose travel-time weights are used.
+     * @param live True to apply the overrides set through <code>GraphDB.updateEdgeWeights</code>.
+     * @return A <code>List</code> of routes, each a <code>List</code> of vertex IDs.
+     */
+    public static List<List<Long>> alternativeRoutes(GraphDB g, long start, long end, int k,
+                                                     double maxStretch, double maxOverlap,
+                                                     Profile profile, boolean live) {
+        return alternativeRoutes(g, weightsFor(g, profile, live), start, end, k,
+                maxStretch, maxOverlap);
+    }
+
+    private static List<List<Long>> alternativeRoutes(GraphDB g, double[] weights,
+                                                      long start, long end, int k,
+                                                      double maxStretch, double maxOverlap) {
+        CompactGraph cg = g.compact();
+        int s = cg.indexOf(start);
+        int t = cg.indexOf(end);
+        List<List<Long>> routes = new ArrayList<>();
+        if (k <= 0 || s < 0 || t < 0 || !cg.connected(s, t)) {
+            return routes;
+        }
+        SearchWorkspace fwd = SearchWorkspace.forCurrentThread(cg);
+        int[] candidates = boundedSearch(cg, weights, false, fwd, s, t, maxStretch, Double.NaN);
+        if (!fwd.isSettled(t)) {
+            return routes;
+        }
+        double best = fwd.dist(t);
+        double limit = maxStretch * best;
+        SearchWorkspace bwd = SearchWorkspace.reverseForCurrentThread(cg);
+        boundedSearch(cg, weights, true, bwd, t, s, maxStretch, limit);
+        fwd.publishCounts();
+        bwd.publishCounts();
+
+        HashSet<Long> chosenEdges = new HashSet<>();
+        List<Long> shortest = new ArrayList<>();
+        viaPath(cg, fwd, bwd, t, shortest, chosenEdges, null);
+        routes.add(shortest);
+
+        Integer[] order = new Integer[candidates.length];
+        int numCandidates = 0;
+        for (int v : candidates) {
+            if (bwd.isSettled(v) && fwd.dist(v) + bwd.dist(v) <= limit) {
+                order[numCandidates] = v;
+                numCandidates += 1;
+            }
+        }
+        Arrays.sort(order, 0, numCandidates, (v, w) -> Double.compare(
+                fwd.dist(v) + bwd.dist(v), fwd.dist(w) + bwd.dist(w)));
+        HashSet<Integer> seen = new HashSet<>();
+        for (int i = 0; i < numCandidates && routes.size() < k; i += 1) {
+            int v = order[i];
+            if (seen.contains(v)) {
+                continue;
+            }
+            /* Extend the plateau through v in both directions along edges common to both trees. */
+            int a = v;
+            while (fwd.pred(a) >= 0 && bwd.pred(fwd.pred(a)) == a) {
+                a = fwd.pred(a);
+                seen.add(a);
+            }
+            int b = v;
+            while (bwd.pred(b) >= 0 && fwd.pred(bwd.pred(b)) == b) {
+                b = bwd.pred(b);
+                seen.add(b);
+            }
+            seen.add(v);
+            double length = fwd.dist(v) + bwd.dist(v);
+            if (fwd.dist(b) - fwd.dist(a) < MIN_PLATEAU_FRACTION * length) {
+                continue;
+            }
+            List<Long> path = new ArrayList<>();
+            double shared = viaPath(cg, fwd, bwd, v, path, null, chosenEdges);
+            if (shared >= 0 && shared <= maxOverlap * length) {
+                viaPath(cg, fwd, bwd, v, new ArrayList<>(), chosenEdges, null);
+                routes.add(path);
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from <code>source</code>. If <code>limit</code> is NaN, the
+     * search stops once it has settled every vertex within <code>maxStretch</code> times the
+     * distance to <code>target</code>; otherwise it stops at <code>limit</code>. A reverse
+     * search follows edges backwards, computing distances to <code>source</code>.
+     * @return The dense indices of all settled vertices.
+     */
+    static int[] boundedSearch(CompactGraph cg, double[] weights, boolean reverse,
+                               SearchWorkspace ws, int source, int target,
+                               double maxStretch, double limit) {
+        int[] settled = new int[16];
+        int count = 0;
+        ws.relax(source, -1, 0.0);
+        while (!ws.isEmpty() && !(ws.peekKey() > limit)) {
+            int v = ws.poll();
+            if (v == target && Double.isNaN(limit)) {
+                limit = maxStretch * ws.dist(v);
+            }
+            if (count == settled.length) {
+                settled = Arrays.copyOf(settled, count * 2);
+            }
+            settled[count] = v;
+            count += 1;
+            relaxEdges(cg, weights, reverse, ws, v);
+        }
+        return Arrays.copyOf(settled, count);
+    }
+
+    /**
+     * Walks the route that follows the forward tree from the source to <code>via</code> and the
+     * backward tree from <code>via</code> to the target, appending its vertex IDs to
+     * <code>path</code>. Every edge is added to <code>record</code> if it is non-null, and the
+     * length of edges already in <code>compare</code> is summed if it is non-null.
+     * @return The summed length of edges found in <code>compare</code>, or -1 if the route
+     * visits some vertex twice.
+     */
+    private static double viaPath(CompactGraph cg, SearchWorkspace fwd, SearchWorkspace bwd,
+                                  int via, List<Long> path, HashSet<Long> record,
+                                  HashSet<Long> compare) {
+        ArrayList<Integer> vertices = new ArrayList<>();
+        for (int v = via; v >= 0; v = fwd.pred(v)) {
+            vertices.add(v);
+        }
+        Collections.reverse(vertices);
+        for (int v = bwd.pred(via); v >= 0; v = bwd.pred(v)) {
+            vertices.add(v);
+        }
+        HashSet<Integer> distinct = new HashSet<>(vertices);
+        if (distinct.size() != vertices.size()) {
+            return -1;
+        }
+        double shared = 0.0;
+        for (int i = 0; i < vertices.size(); i += 1) {
+            int v = vertices.get(i);
+            path.add(cg.ids[v]);
+            if (i == 0) {
+                continue;
+            }
+            int u = vertices.get(i - 1);
+            long edge = (long) Math.min(u, v) * cg.size() + Math.max(u, v);
+            if (record != null) {
+                record.add(edge);
+            }
+            if (compare != null && compare.contains(edge)) {
+                shared += fwd.isSettled(v) && fwd.pred(v) == u
+                        ? fwd.dist(v) - fwd.dist(u) : bwd.dist(u) - bwd.dist(v);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest path between two
+     * coordinates on a map spread across shards. The search runs on the full road graph of the
+     * cells containing the start and end, and on the overlay of every other cell, where each
+     * hop between two boundary vertices of a cell stands for the shortest path inside it. Only
+     * the hops the final route takes are expanded, each by the shard serving that cell.
+     * @param sg The sharded map.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @return The <code>List</code> of vertex IDs on the shortest path, or an empty list if the
+     * destination cannot be reached.
+     */
+    public static List<Long> shortestPath(ShardedGraph sg,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat) {
+        ShardedGraph.Snap start = sg.closest(stlon, stlat);
+        ShardedGraph.Snap end = sg.closest(destlon, destlat);
+        if (start == null || end == null) {
+            return Collections.emptyList();
+        }
+        CellGraph source = sg.cell(start.cell);
+        CellGraph target = sg.cell(end.cell);
+        ShardedVertices vertices = new ShardedVertices(sg, source, target);
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(vertices.size());
+        int s = vertices.indexOf(start.id);
+        int t = vertices.indexOf(end.id);
+        ws.relax(s, -1, 0.0);
+        while (!ws.isEmpty() && !ws.isSettled(t)) {
+            int x = ws.poll();
+            long v = vertices.idAt(x);
+            double dv = ws.dist(x);
+            CellGraph detail = source.indexOf(v) >= 0 ? source
+                    : target.indexOf(v) >= 0 ? target : null;
+            if (detail != null) {
+                int i = detail.indexOf(v);
+                for (int e = detail.adjStart[i]; e < detail.adjStart[i + 1]; e += 1) {
+                    ws.relax(vertices.indexOf(detail.adjTarget[e]), x, dv + detail.adjWeight[e]);
+                }
+                continue;
+            }
+            /* Any vertex outside the detailed cells was reached across a cut segment. Overlay
+             * hops are labelled with their cell, so that they can be expanded afterwards. */
+            CellOverlay o = sg.overlayOf(v);
+            int i = sg.boundaryIndexOf(v);
+            int b = o.boundary.length;
+            for (int j = 0; j < b; j += 1) {
+                double w = o.clique[i * b + j];
+                if (j != i && w != Double.POSITIVE_INFINITY) {
+                    ws.relax(vertices.indexOf(o.boundary[j]), x, dv + w, dv + w, o.cell);
                 }
             }
+            for (int k = o.cutStart[i]; k < o.cutStart[i + 1]; k += 1) {
+                ws.relax(vertices.indexOf(o.cutTarget[k]), x, dv + o.cutWeight[k]);
+            }
+        }
+        ws.publishCounts();
+        if (!ws.isSettled(t)) {
+            return Collections.emptyList();
+        }
+        /* Read the search tree out before unpacking, which may search on this thread. */
+        List<long[]> steps = new ArrayList<>();
+        for (int x = t; x != s; x = ws.pred(x)) {
+            steps.add(new long[] {vertices.idAt(ws.pred(x)), vertices.idAt(x), ws.label(x)});
+        }
+        ArrayList<Long> path = new ArrayList<>();
+        for (long[] step : steps) {
+            if (step[2] < 0) {
+                path.add(step[1]);
+                continue;
+            }
+            List<Long> hop = sg.unpack((int) step[2], step[0], step[1]);
+            for (int k = hop.size() - 1; k > 0; k -= 1) {
+                path.add(hop.get(k));
+            }
         }
-        ArrayList<Long> bearpath = new ArrayList<>();
-        try {
-            for (long xqd = stop; xqd != begin && !predecessor.isEmpty();
-                 xqd = predecessor.get(xqd)) {
-                bearpath.add(0, xqd);
+        path.add(start.id);
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Numbers the vertices a sharded search can reach: the boundary vertices of every cell,
+     * then the vertices of the start cell, then those of the end cell. Each vertex has one
+     * number even if it is in more than one of these sets.
+     */
+    private static class ShardedVertices {
+        private final ShardedGraph sg;
+        private final CellGraph source, target;
+        private final int numBoundary;
+        ShardedVertices(ShardedGraph sg, CellGraph source, CellGraph target) {
+            this.sg = sg;
+            this.source = source;
+            this.target = target;
+            this.numBoundary = sg.numBoundaryVertices();
+        }
+        int size() {
+            return numBoundary + source.ids.length + target.ids.length;
+        }
+        int indexOf(long id) {
+            int b = sg.boundaryId(id);
+            if (b >= 0) {
+                return b;
+            }
+            int i = source.indexOf(id);
+            return i >= 0 ? numBoundary + i
+                    : numBoundary + source.ids.length + target.indexOf(id);
+        }
+        long idAt(int x) {
+            if (x < numBoundary) {
+                return sg.boundaryVertex(x);
             }
-            bearpath.add(0, begin);
-        } catch (NullPointerException e) {
+            x -= numBoundary;
+            return x < source.ids.length ? source.ids[x] : target.ids[x - source.ids.length];
+        }
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest path between two
+     * coordinates on a tiled, disk-backed map. The search is A* guided by great-circle distance
+     * to the destination, so it only maps the tiles along the corridor between the endpoints.
+     * Vertices are numbered as the search reaches them, and the search state lives only as long
+     * as the query, so memory grows with the corridor explored rather than the whole map.
+     * @param tg The tiled map.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @return The <code>List</code> of vertex IDs on the shortest path, or an empty list if the
+     * destination cannot be reached.
+     */
+    public static List<Long> shortestPath(TiledGraphDB tg,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat) {
+        long start = tg.closest(stlon, stlat);
+        long end = tg.closest(destlon, destlat);
+        if (start < 0 || end < 0) {
+            return Collections.emptyList();
+        }
+        SearchWorkspace ws = new SearchWorkspace();
+        ws.reset(INITIAL_TILED_SLOTS);
+        TiledRelaxer relaxer = new TiledRelaxer(tg, ws, tg.lon(end), tg.lat(end));
+        int s = relaxer.slotOf(start);
+        int t = relaxer.slotOf(end);
+        ws.relax(s, -1, 0.0);
+        while (!ws.isEmpty() && !ws.isSettled(t)) {
+            relaxer.from = ws.poll();
+            tg.forEachEdge(relaxer.ids[relaxer.from], relaxer);
+        }
+        ws.publishCounts();
+        if (!ws.isSettled(t)) {
             return Collections.emptyList();
         }
-        return bearpath;
+        ArrayList<Long> path = new ArrayList<>();
+        for (int v = t; v >= 0; v = ws.pred(v)) {
+            path.add(relaxer.ids[v]);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Relaxes the segments leaving one vertex of a tiled map, with the great-circle bound to the
+     * destination as the A* heuristic. One instance serves a whole search, and numbers the
+     * vertices it reaches from 0 so that the workspace holds only those.
+     */
+    private static class TiledRelaxer implements TiledGraphDB.EdgeVisitor {
+        private final TiledGraphDB tg;
+        private final SearchWorkspace ws;
+        private final DistanceBound bound;
+        private final double endLon, endLat;
+        private final Map<Long, Integer> slots = new HashMap<>();
+        /** The ID of the vertex in each slot. */
+        long[] ids = new long[INITIAL_TILED_SLOTS];
+        /** The slot of the vertex whose segments are being visited. */
+        int from;
+        TiledRelaxer(TiledGraphDB tg, SearchWorkspace ws, double endLon, double endLat) {
+            this.tg = tg;
+            this.ws = ws;
+            this.bound = tg.distanceBound();
+            this.endLon = endLon;
+            this.endLat = endLat;
+        }
+        /** Returns the slot of a vertex, giving it the next one if it has none yet. */
+        int slotOf(long v) {
+            Integer x = slots.get(v);
+            if (x != null) {
+                return x;
+            }
+            int next = slots.size();
+            if (next == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * next);
+                ws.ensureCapacity(2 * next);
+            }
+            ids[next] = v;
+            slots.put(v, next);
+            return next;
+        }
+        @Override
+        public void visit(long w, double length) {
+            int x = slotOf(w);
+            double d = ws.dist(from) + length;
+            /* Only look up the neighbor's location for the heuristic if the path improves. */
+            if (d < ws.dist(x) && !ws.isSettled(x)) {
+                double h = bound.lowerBound(tg.lon(w), tg.lat(w), endLon, endLat);
+                ws.relax(x, from, d, d + h);
+            }
+        }
+    }
+
+    /** Snaps each <code>{lon, lat}</code> coordinate to the dense index of its closest vertex. */
+    private static int[] snapAll(GraphDB g, CompactGraph cg, double[][] coords) {
+        int[] result = new int[coords.length];
+        for (int i = 0; i < coords.length; i += 1) {
+            result[i] = cg.indexOf(g.closest(coords[i][0], coords[i][1]));
+        }
+        return result;
     }
 
     // public static List<Long> shortestPath(GraphDB g,
@@ -248,29 +1053,82 @@ public class Router {
     /**
      * Given a <code>route</code> of vertex IDs, return a <code>List</code> of
      * <code>NavigationDirection</code> objects representing the travel directions in order.
+     * Consecutive segments on ways with the same name are merged into one direction. This is a
+     * single pass over the route using the way and bearing stored on each adjacency slot.
      * @param g <code>GraphDB</code> data source.
      * @param route The shortest-path route of vertex IDs.
      * @return A new <code>List</code> of <code>NavigationDirection</code> objects.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        NavigationDirection n = new NavigationDirection();
-        n.way = g.nodes.get(route.get(0)).name;
         List<NavigationDirection> directions = new ArrayList<>();
-        for (int a = 1; a < route.size(); a += 1) {
-            long tempId = route.get(a);
-            if (g.nodes.get(tempId).name != n.way) {
-                directions.add(n);
-                n = new NavigationDirection();
-            } else {
-                n.distance += g.distance(tempId, route.get(a - 1));
+        if (route.size() < 2) {
+            return directions;
+        }
+        CompactGraph cg = g.compact();
+        int v = cg.indexOf(route.get(0));
+        NavigationDirection current = null;
+        int currentName = -1;
+        double prevBearing = 0.0;
+        for (int i = 1; i < route.size() && v >= 0; i += 1) {
+            int slot = cg.slot(v, route.get(i));
+            if (slot < 0) {
+                throw new IllegalArgumentException("Route is not a path in the graph: "
+                        + route.get(i - 1) + " is not adjacent to " + route.get(i) + ".");
             }
-            if (a == route.size()) {
-                a = a - 1;
+            int name = cg.wayName[cg.adjWay[slot]];
+            if (current == null || name != currentName) {
+                int direction = NavigationDirection.START;
+                if (current != null) {
+                    direction = turnDirection(prevBearing, cg.adjBearing[slot]);
+                }
+                current = new NavigationDirection();
+                current.direction = direction;
+                current.way = cg.names[name];
+                currentName = name;
+                directions.add(current);
             }
+            current.distance += cg.adjLength[slot];
+            prevBearing = cg.adjBearing[slot];
+            v = cg.adjTarget[slot];
         }
         return directions;
     }
 
+    /**
+     * Returns the <code>NavigationDirection</code> constant for turning from a segment with
+     * bearing <code>prevBearing</code> onto one with bearing <code>currBearing</code>.
+     */
+    private static int turnDirection(double prevBearing, double currBearing) {
+        double relative = currBearing - prevBearing;
+        if (relative > 180) {
+            relative -= 360;
+        } else if (relative < -180) {
+            relative += 360;
+        }
+        double abs = Math.abs(relative);
+        if (abs <= 15) {
+            return NavigationDirection.STRAIGHT;
+        } else if (abs <= 30) {
+            return relative < 0
+                    ? NavigationDirection.SLIGHT_LEFT : NavigationDirection.SLIGHT_RIGHT;
+        } else if (abs <= 100) {
+            return relative < 0 ? NavigationDirection.LEFT : NavigationDirection.RIGHT;
+        } else {
+            return relative < 0 ? NavigationDirection.SHARP_LEFT : NavigationDirection.SHARP_RIGHT;
+        }
+    }
+
+    /** Default limit on the length of an alternative route relative to the shortest route. */
+    private static final double DEFAULT_MAX_STRETCH = 1.25;
+    /** Default limit on the fraction of an alternative route shared with earlier routes. */
+    private static final double DEFAULT_MAX_OVERLAP = 0.75;
+    /**
+     * The shortest plateau, as a fraction of its route's length, that makes a route an
+     * alternative rather than a small detour off another route.
+     */
+    private static final double MIN_PLATEAU_FRACTION = 0.2;
+    /** Vertex slots a tiled search starts with; it doubles them as it reaches more vertices. */
+    private static final int INITIAL_TILED_SLOTS = 1 << 10;
 
     /**
      * Class to represent a navigation direction, which consists of 3 attributes:
@@ -0,0 +1,129 @@
+import java.util.Map;
+
+/**
+ * The SearchRequestParams contains the fields received from the browser in a location search.
+ * This class will primarily be used by the MapServer to unpack data received from the web browser
+ * before paging through the <code>LocationIndex</code>.
+ *
+ * This class can either be instantiated through a Spark request query map, or through the Builder
+ * class for mocking browser requests during unit testing.
+ */
+public class SearchRequestParams {
+    /** The prefix, or with <code>full</code>, the name searched for. */
+    public final String term;
+    /** Whether to return every location named <code>term</code> instead of matching names. */
+    public final boolean full;
+    /** The most results to return, or -1 to return every match as a bare JSON array. */
+    public final int limit;
+    /** Where the requested page starts, or null for the first page. */
+    public final LocationIndex.Cursor cursor;
+
+    /**
+     * Validate and return the search parameters of a request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed parameters.
+     */
+    public static SearchRequestParams from(Map<String, String[]> req) {
+        Builder builder = new Builder();
+        if (!req.containsKey(TERM_PARAM) || req.get(TERM_PARAM).length == 0) {
+            String msg = String.format("Request failed: %s not found.", TERM_PARAM);
+            throw new IllegalArgumentException(msg);
+        }
+        builder.setTerm(req.get(TERM_PARAM)[0]);
+        builder.setFull(req.containsKey(FULL_PARAM));
+        if (req.containsKey(LIMIT_PARAM)) {
+            String msg = String.format("Incorrect parameters: unable to parse %s.", LIMIT_PARAM);
+            int limit;
+            try {
+                limit = Integer.parseInt(req.get(LIMIT_PARAM)[0]);
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException(msg);
+            }
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException(msg);
+            }
+            builder.setLimit(limit);
+        }
+        if (req.containsKey(CURSOR_PARAM)) {
+            try {
+                builder.setCursor(LocationIndex.Cursor.decode(req.get(CURSOR_PARAM)[0]));
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                String msg = String.format("Incorrect parameters: unable to parse %s.",
+                        CURSOR_PARAM);
+                throw new IllegalArgumentException(msg);
+            }
+            if (builder.limit < 0) {
+                builder.setLimit(DEFAULT_LIMIT);
+            }
+        }
+        return builder.create();
+    }
+
+    private SearchRequestParams(String term, boolean full, int limit,
+                                LocationIndex.Cursor cursor) {
+        this.term = term;
+        this.full = full;
+        this.limit = limit;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Returns whether the results are paged, and so sent as an object holding the page and the
+     * cursor of the next one.
+     * @return True if a limit or cursor was given.
+     */
+    public boolean paged() {
+        return limit >= 0;
+    }
+
+    public static class Builder {
+        private String term = "";
+        private boolean full;
+        private int limit = -1;
+        private LocationIndex.Cursor cursor;
+
+        /**
+         * Creates a SearchRequestParams.Builder instance that can be used to build
+         * a SearchRequestParams with various fields pre-set.
+         */
+        public Builder() {
+        }
+
+        public SearchRequestParams create() {
+            return new SearchRequestParams(term, full, limit, cursor);
+        }
+
+        public Builder setTerm(String value) {
+            this.term = value;
+            return this;
+        }
+
+        public Builder setFull(boolean value) {
+            this.full = value;
+            return this;
+        }
+
+        public Builder setLimit(int value) {
+            this.limit = value;
+            return this;
+        }
+
+        public Builder setCursor(LocationIndex.Cursor value) {
+            this.cursor = value;
+            return this;
+        }
+    }
+
+    /** The required key holding the search term. */
+    private static final String TERM_PARAM = "term";
+    /** Optional key requesting full location data for an exact name. */
+    private static final String FULL_PARAM = "full";
+    /** Optional key giving the page size. */
+    private static final String LIMIT_PARAM = "limit";
+    /** Optional key giving the cursor returned with the previous page. */
+    private static final String CURSOR_PARAM = "cursor";
+    /** The page size when a cursor is given without a limit. */
+    private static final int DEFAULT_LIMIT = 100;
+    /** The largest page a client may request, which bounds the work per request. */
+    private static final int MAX_LIMIT = 1000;
+}
@@ -0,0 +1,295 @@
+import java.util.Arrays;
+/**
+ * Reusable state for a single-source graph search over a <code>CompactGraph</code>: tentative
+ * distances, predecessors, and an indexed binary min-heap, all stored in primitive arrays indexed
+ * by dense vertex ID. Each thread keeps its own workspace, so repeated searches on the same
+ * thread allocate nothing once the arrays have grown to the size of the graph.
+ *
+ * Resetting takes constant time. Each search gets a new epoch, and the state of a vertex is valid
+ * only if the vertex is stamped with the current epoch; any other vertex reads as unreached. A
+ * search therefore touches only the vertices it reaches, which for a short route is a tiny
+ * fraction of the map.
+ */
+class SearchWorkspace {
+    /** Heap position marker for a vertex that has not been reached. */
+    private static final int UNSEEN = -1;
+    /** Heap position marker for a vertex whose distance is final. */
+    private static final int SETTLED = -2;
+
+    private static final ThreadLocal<SearchWorkspace> LOCAL =
+            ThreadLocal.withInitial(SearchWorkspace::new);
+    private static final ThreadLocal<SearchWorkspace> LOCAL_REVERSE =
+            ThreadLocal.withInitial(SearchWorkspace::new);
+
+    /** The epoch in which each vertex was last reached; its other state is stale otherwise. */
+    private int[] stamp = new int[0];
+    /** The epoch of the current search. */
+    private int epoch;
+    /** Tentative distance to each vertex. */
+    private double[] dist = new double[0];
+    /** Predecessor of each vertex on its best known path, or -1. */
+    private int[] pred = new int[0];
+    /** Caller-defined label of the last step on each vertex's best known path. */
+    private int[] label = new int[0];
+    /** Position of each vertex in the heap, or UNSEEN / SETTLED. */
+    private int[] pos = new int[0];
+    /** Priority of each vertex in the heap. */
+    private double[] key = new double[0];
+    /** Binary heap of vertex indices ordered by key. */
+    private int[] heap = new int[0];
+    private int heapSize;
+    /** Vertices settled and edges relaxed since the counts were last published. */
+    private long settledCount, relaxedCount;
+
+    /**
+     * Returns the workspace owned by the calling thread, reset for a search over
+     * <code>g</code>.
+     * @param g The graph about to be searched.
+     * @return A reset workspace.
+     */
+    static SearchWorkspace forCurrentThread(CompactGraph g) {
+        SearchWorkspace ws = LOCAL.get();
+        ws.reset(g.size());
+        return ws;
+    }
+
+    /**
+     * Returns a second workspace owned by the calling thread, reset for a search over
+     * <code>g</code>, for algorithms that search from both ends at once.
+     * @param g The graph about to be searched.
+     * @return A reset workspace distinct from the one returned by <code>forCurrentThread</code>.
+     */
+    static SearchWorkspace reverseForCurrentThread(CompactGraph g) {
+        SearchWorkspace ws = LOCAL_REVERSE.get();
+        ws.reset(g.size());
+        return ws;
+    }
+
+    /**
+     * Returns the workspace owned by the calling thread, reset for a search over
+     * <code>n</code> vertices numbered from 0, for graphs other than a <code>CompactGraph</code>.
+     * @param n The number of vertices about to be searched.
+     * @return A reset workspace.
+     */
+    static SearchWorkspace forCurrentThread(int n) {
+        SearchWorkspace ws = LOCAL.get();
+        ws.reset(n);
+        return ws;
+    }
+
+    /**
+     * Clears all search state for a graph of <code>n</code> vertices, in constant time unless
+     * the arrays must grow or the epoch counter wraps around.
+     * @param n The number of vertices.
+     */
+    void reset(int n) {
+        publishCounts();
+        if (stamp.length < n) {
+            stamp = new int[n];
+            dist = new double[n];
+            pred = new int[n];
+            label = new int[n];
+            pos = new int[n];
+            key = new double[n];
+            heap = new int[n];
+            epoch = 0;
+        }
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            epoch = 0;
+        }
+        epoch += 1;
+        heapSize = 0;
+    }
+
+    /**
+     * Grows the arrays to hold at least <code>n</code> vertices, keeping the state of the current
+     * search, for searches that number vertices as they reach them.
+     * @param n The number of vertices.
+     */
+    void ensureCapacity(int n) {
+        if (stamp.length >= n) {
+            return;
+        }
+        /* New vertices get stamp 0, which no epoch uses, so they read as unreached. */
+        stamp = Arrays.copyOf(stamp, n);
+        dist = Arrays.copyOf(dist, n);
+        pred = Arrays.copyOf(pred, n);
+        label = Arrays.copyOf(label, n);
+        pos = Arrays.copyOf(pos, n);
+        key = Arrays.copyOf(key, n);
+        heap = Arrays.copyOf(heap, n);
+    }
+
+    /**
+     * Returns the length of the best known path to a vertex.
+     * @param v The dense index of the vertex.
+     * @return The distance, or infinity if the vertex has not been reached.
+     */
+    double dist(int v) {
+        return stamp[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the predecessor of a vertex on its best known path.
+     * @param v The dense index of the vertex.
+     * @return The predecessor, or -1 for the source or a vertex that has not been reached.
+     */
+    int pred(int v) {
+        return stamp[v] == epoch ? pred[v] : -1;
+    }
+
+    /**
+     * Returns the label given with the last step of a vertex's best known path.
+     * @param v The dense index of the vertex.
+     * @return The label, or -1 if none was given or the vertex has not been reached.
+     */
+    int label(int v) {
+        return stamp[v] == epoch ? label[v] : -1;
+    }
+
+    /**
+     * Records a path of length <code>d</code> to <code>v</code> through <code>from</code> if it
+     * improves on the best known one, and queues <code>v</code> with priority <code>d</code>.
+     * @param v The dense index of the vertex reached.
+     * @param from The dense index of its predecessor.
+     * @param d The length of the new path to <code>v</code>.
+     * @return True if the distance to <code>v</code> improved.
+     */
+    boolean relax(int v, int from, double d) {
+        return relax(v, from, d, d);
+    }
+
+    /**
+     * Records a path of length <code>d</code> to <code>v</code> through <code>from</code> if it
+     * improves on the best known one, and queues <code>v</code> with the given priority.
+     * @param v The dense index of the vertex reached.
+     * @param from The dense index of its predecessor.
+     * @param d The length of the new path to <code>v</code>.
+     * @param priority The heap priority of <code>v</code>, e.g. <code>d</code> plus a heuristic.
+     * @return True if the distance to <code>v</code> improved.
+     */
+    boolean relax(int v, int from, double d, double priority) {
+        return relax(v, from, d, priority, -1);
+    }
+
+    /**
+     * Records a path as <code>relax(v, from, d, priority)</code> does, labelling its last step,
+     * for searches whose steps are not all plain edges.
+     * @param v The dense index of the vertex reached.
+     * @param from The dense index of its predecessor.
+     * @param d The length of the new path to <code>v</code>.
+     * @param priority The heap priority of <code>v</code>.
+     * @param stepLabel A label for the step from <code>from</code> to <code>v</code>.
+     * @return True if the distance to <code>v</code> improved.
+     */
+    boolean relax(int v, int from, double d, double priority, int stepLabel) {
+        relaxedCount += 1;
+        if (stamp[v] != epoch) {
+            stamp[v] = epoch;
+            dist[v] = Double.POSITIVE_INFINITY;
+            pos[v] = UNSEEN;
+        }
+        /* Written negated so that a NaN length, like an infinite one, never improves. */
+        if (pos[v] == SETTLED || !(d < dist[v])) {
+            return false;
+        }
+        dist[v] = d;
+        pred[v] = from;
+        label[v] = stepLabel;
+        key[v] = priority;
+        if (pos[v] == UNSEEN) {
+            heap[heapSize] = v;
+            pos[v] = heapSize;
+            heapSize += 1;
+        }
+        siftUp(pos[v]);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /** Returns the priority of the next vertex to be polled. Requires a non-empty heap. */
+    double peekKey() {
+        return key[heap[0]];
+    }
+
+    /**
+     * Removes the vertex with the smallest priority from the heap and marks it settled.
+     * @return The dense index of that vertex.
+     */
+    int poll() {
+        int v = heap[0];
+        heapSize -= 1;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        pos[v] = SETTLED;
+        settledCount += 1;
+        return v;
+    }
+
+    /**
+     * Adds the vertices settled and edges relaxed by this workspace to the process-wide search
+     * counters. The counts are kept in plain fields while searching and published once per
+     * search, so instrumentation adds no shared writes to the inner loop. Resetting the
+     * workspace publishes any counts left over from the previous search.
+     */
+    void publishCounts() {
+        if (settledCount > 0) {
+            Metrics.NODES_SETTLED.add(settledCount);
+            settledCount = 0;
+        }
+        if (relaxedCount > 0) {
+            Metrics.EDGES_RELAXED.add(relaxedCount);
+            relaxedCount = 0;
+        }
+    }
+
+    boolean isSettled(int v) {
+        return stamp[v] == epoch && pos[v] == SETTLED;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double k = key[v];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (key[p] <= k) {
+                break;
+            }
+            heap[i] = p;
+            pos[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double k = key[v];
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && key[heap[right]] < key[heap[child]]) {
+                child = right;
+            }
+            int c = heap[child];
+            if (k <= key[c]) {
+                break;
+            }
+            heap[i] = c;
+            pos[c] = i;
+            i = child;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+}
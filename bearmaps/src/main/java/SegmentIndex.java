@@ -0,0 +1,243 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntConsumer;
+/**
+ * An R-tree over the road segments of a <code>CompactGraph</code>, bulk-loaded with the
+ * Sort-Tile-Recursive algorithm, that finds the nearest point on the nearest road to a query
+ * point. Snapping to segments rather than vertices keeps long blocks from pulling a point to a
+ * far-away intersection. Distances are compared in the same Transverse Mercator projection that
+ * <code>GraphDB.closest</code> uses.
+ */
+class SegmentIndex {
+    /** A node of the tree: either an inner node with children or a single segment. */
+    private static class Node {
+        double minX, minY, maxX, maxY;
+        /** The children of an inner node, or null for a segment. */
+        Node[] children;
+        /** The adjacency slot of a segment, or -1 for an inner node. */
+        int slot = -1;
+        double centerX() {
+            return (minX + maxX) / 2;
+        }
+        double centerY() {
+            return (minY + maxY) / 2;
+        }
+        /** Returns the squared distance from a point to this node's bounding box. */
+        double distanceSquared(double px, double py) {
+            double dx = Math.max(0, Math.max(minX - px, px - maxX));
+            double dy = Math.max(0, Math.max(minY - py, py - maxY));
+            return dx * dx + dy * dy;
+        }
+    }
+
+    /** The nearest point on the road network to a query point. */
+    static class Snap {
+        /** The adjacency slot of the segment, traveled from its source to its target. */
+        final int slot;
+        /** How far along the slot the point lies, from 0 at its source to 1 at its target. */
+        final double fraction;
+        /** The location of the snapped point. */
+        final double lon, lat;
+        /** The great-circle distance in miles from the query point to the snapped point. */
+        final double distance;
+        Snap(int slot, double fraction, double lon, double lat, double distance) {
+            this.slot = slot;
+            this.fraction = fraction;
+            this.lon = lon;
+            this.lat = lat;
+            this.distance = distance;
+        }
+    }
+
+    /** A node waiting to be visited, keyed by its distance to the query point. */
+    private static class Pending {
+        final Node node;
+        final double key;
+        Pending(Node node, double key) {
+            this.node = node;
+            this.key = key;
+        }
+    }
+
+    private final CompactGraph cg;
+    /** Projected coordinates of each vertex, by dense index. */
+    private final double[] x, y;
+    private final Node root;
+
+    /**
+     * Builds the index over every road segment of a graph, one entry per pair of adjacent
+     * vertices.
+     * @param cg The graph to index.
+     */
+    SegmentIndex(CompactGraph cg) {
+        this.cg = cg;
+        int n = cg.size();
+        x = new double[n];
+        y = new double[n];
+        for (int v = 0; v < n; v += 1) {
+            x[v] = GraphDB.projectToX(cg.lon[v], cg.lat[v]);
+            y[v] = GraphDB.projectToY(cg.lon[v], cg.lat[v]);
+        }
+        List<Node> level = new ArrayList<>();
+        for (int v = 0; v < n; v += 1) {
+            for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                int t = cg.adjTarget[e];
+                if (v < t) {
+                    Node leaf = new Node();
+                    leaf.slot = e;
+                    leaf.minX = Math.min(x[v], x[t]);
+                    leaf.minY = Math.min(y[v], y[t]);
+                    leaf.maxX = Math.max(x[v], x[t]);
+                    leaf.maxY = Math.max(y[v], y[t]);
+                    level.add(leaf);
+                }
+            }
+        }
+        while (level.size() > 1) {
+            level = pack(level);
+        }
+        root = level.isEmpty() ? null : level.get(0);
+    }
+
+    /**
+     * Groups one level of nodes into parents of at most <code>NODE_CAPACITY</code> children:
+     * the nodes are sorted by x into vertical slices, and each slice is sorted by y and cut into
+     * runs.
+     */
+    private static List<Node> pack(List<Node> items) {
+        int numParents = (items.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int numSlices = (int) Math.ceil(Math.sqrt(numParents));
+        int sliceSize = numSlices * NODE_CAPACITY;
+        items.sort(Comparator.comparingDouble(Node::centerX));
+        List<Node> parents = new ArrayList<>(numParents);
+        for (int s = 0; s < items.size(); s += sliceSize) {
+            List<Node> slice = items.subList(s, Math.min(items.size(), s + sliceSize));
+            slice.sort(Comparator.comparingDouble(Node::centerY));
+            for (int i = 0; i < slice.size(); i += NODE_CAPACITY) {
+                List<Node> run = slice.subList(i, Math.min(slice.size(), i + NODE_CAPACITY));
+                Node parent = new Node();
+                parent.children = run.toArray(new Node[0]);
+                parent.minX = Double.POSITIVE_INFINITY;
+                parent.minY = Double.POSITIVE_INFINITY;
+                parent.maxX = Double.NEGATIVE_INFINITY;
+                parent.maxY = Double.NEGATIVE_INFINITY;
+                for (Node c : parent.children) {
+                    parent.minX = Math.min(parent.minX, c.minX);
+                    parent.minY = Math.min(parent.minY, c.minY);
+                    parent.maxX = Math.max(parent.maxX, c.maxX);
+                    parent.maxY = Math.max(parent.maxY, c.maxY);
+                }
+                parents.add(parent);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Returns the nearest point on the nearest road segment to a location. Nodes are visited
+     * best-first by distance to their bounding box, so only the few nodes around the point are
+     * examined.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @return The snapped point, or null if the graph has no segments.
+     */
+    Snap nearest(double lon, double lat) {
+        if (root == null) {
+            return null;
+        }
+        double px = GraphDB.projectToX(lon, lat);
+        double py = GraphDB.projectToY(lon, lat);
+        PriorityQueue<Pending> fringe =
+                new PriorityQueue<>(Comparator.comparingDouble((Pending p) -> p.key));
+        fringe.add(new Pending(root, root.distanceSquared(px, py)));
+        double best = Double.POSITIVE_INFINITY;
+        int bestSlot = -1;
+        double bestFraction = 0;
+        while (!fringe.isEmpty() && fringe.peek().key < best) {
+            Node node = fringe.poll().node;
+            if (node.children != null) {
+                for (Node c : node.children) {
+                    double d = c.distanceSquared(px, py);
+                    if (d < best) {
+                        fringe.add(new Pending(c, d));
+                    }
+                }
+                continue;
+            }
+            int v = cg.adjTarget[cg.adjTwin[node.slot]];
+            int w = cg.adjTarget[node.slot];
+            double dx = x[w] - x[v];
+            double dy = y[w] - y[v];
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0
+                    : ((px - x[v]) * dx + (py - y[v]) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            double ex = x[v] + t * dx - px;
+            double ey = y[v] + t * dy - py;
+            double d = ex * ex + ey * ey;
+            if (d < best) {
+                best = d;
+                bestSlot = node.slot;
+                bestFraction = t;
+            }
+        }
+        int v = cg.adjTarget[cg.adjTwin[bestSlot]];
+        int w = cg.adjTarget[bestSlot];
+        double snapLon = cg.lon[v] + bestFraction * (cg.lon[w] - cg.lon[v]);
+        double snapLat = cg.lat[v] + bestFraction * (cg.lat[w] - cg.lat[v]);
+        return new Snap(bestSlot, bestFraction, snapLon, snapLat,
+                GraphDB.distance(lon, lat, snapLon, snapLat));
+    }
+
+    /**
+     * Calls <code>action</code> with the adjacency slot of every segment whose bounding box
+     * intersects a longitude and latitude box. The box is projected by its corners, so segments
+     * just outside it may also be reported.
+     * @param ullon The upper-left longitude of the box.
+     * @param ullat The upper-left latitude of the box.
+     * @param lrlon The lower-right longitude of the box.
+     * @param lrlat The lower-right latitude of the box.
+     * @param action Receives each slot, once per segment.
+     */
+    void search(double ullon, double ullat, double lrlon, double lrlat, IntConsumer action) {
+        if (root == null) {
+            return;
+        }
+        Node box = new Node();
+        box.minX = Double.POSITIVE_INFINITY;
+        box.minY = Double.POSITIVE_INFINITY;
+        box.maxX = Double.NEGATIVE_INFINITY;
+        box.maxY = Double.NEGATIVE_INFINITY;
+        double[][] corners = {{ullon, ullat}, {lrlon, ullat}, {ullon, lrlat}, {lrlon, lrlat}};
+        for (double[] corner : corners) {
+            double px = GraphDB.projectToX(corner[0], corner[1]);
+            double py = GraphDB.projectToY(corner[0], corner[1]);
+            box.minX = Math.min(box.minX, px);
+            box.minY = Math.min(box.minY, py);
+            box.maxX = Math.max(box.maxX, px);
+            box.maxY = Math.max(box.maxY, py);
+        }
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (node.minX > box.maxX || node.maxX < box.minX
+                    || node.minY > box.maxY || node.maxY < box.minY) {
+                continue;
+            }
+            if (node.children == null) {
+                action.accept(node.slot);
+            } else {
+                for (Node c : node.children) {
+                    stack.push(c);
+                }
+            }
+        }
+    }
+
+    /** The most children of an inner node. */
+    private static final int NODE_CAPACITY = 16;
+}
@@ -0,0 +1,261 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+/**
+ * Serves a subset of the cells of a partitioned map over a socket, so that routing data can be
+ * spread across several processes and machines. The map is partitioned once, offline, by
+ * <code>write</code>, which stores each cell in its own file; shard <code>i</code> of
+ * <code>n</code> reads only the files of the cells whose ID is <code>i</code> modulo
+ * <code>n</code>, so no shard ever holds the whole map. A <code>ShardedGraph</code> talks to
+ * the shards.
+ *
+ * The partition directory holds:
+ * <ul>
+ *     <li><code>cells.bin</code>: the number of cells.</li>
+ *     <li><code>cell-c.bin</code>: the <code>CellOverlay</code> of cell <code>c</code>
+ *     followed by its <code>CellGraph</code>.</li>
+ * </ul>
+ *
+ * Each request is a one-byte opcode followed by its arguments, written with
+ * <code>DataOutputStream</code>:
+ * <ul>
+ *     <li><code>LIST</code>: replies with the number of owned cells and their IDs.</li>
+ *     <li><code>OVERLAY</code> cell: replies with the cell's <code>CellOverlay</code>.</li>
+ *     <li><code>CELL</code> cell: replies with the cell's <code>CellGraph</code>.</li>
+ *     <li><code>PATH</code> cell from to: replies with the number of vertices on the shortest
+ *     path between two vertices of the cell that stays inside it, then their IDs.</li>
+ * </ul>
+ * Each reply starts with a status byte: <code>OK</code> followed by the reply above, or
+ * <code>ERROR</code> followed by a message written with <code>writeUTF</code> for a request the
+ * shard cannot answer, such as a cell it does not serve. A connection may carry any number of
+ * requests; it stays open after an error.
+ */
+class ShardServer implements Closeable {
+    /** Overlay summaries of the owned cells. */
+    private final HashMap<Integer, CellOverlay> overlays = new HashMap<>();
+    /** Full graphs of the owned cells. */
+    private final HashMap<Integer, CellGraph> cells = new HashMap<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "shard-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    private ServerSocket socket;
+
+    /**
+     * Loads the cells owned by one shard from a partition written by <code>write</code>.
+     * @param dir The partition directory.
+     * @param shard The index of this shard, from 0 to <code>numShards - 1</code>.
+     * @param numShards The total number of shards.
+     * @throws IOException If a cell file cannot be read.
+     */
+    ShardServer(Path dir, int shard, int numShards) throws IOException {
+        if (shard < 0 || shard >= numShards) {
+            throw new IllegalArgumentException("Shard " + shard + " of " + numShards);
+        }
+        int numCells;
+        try (DataInputStream in = openInput(dir.resolve(CELLS_FILE))) {
+            numCells = in.readInt();
+        }
+        for (int c = shard; c < numCells; c += numShards) {
+            try (DataInputStream in = openInput(dir.resolve(cellFile(c)))) {
+                overlays.put(c, CellOverlay.read(in));
+                cells.put(c, CellGraph.read(in));
+            }
+        }
+    }
+
+    /**
+     * Partitions a loaded map and writes every cell's overlay summary and full graph to a
+     * directory, from which each shard loads only its own cells.
+     * @param g The map, already loaded and cleaned.
+     * @param profile The profile to weight segments by, or null for distance in miles.
+     * @param maxCellSize The largest number of vertices in one cell.
+     * @param dir The directory to write to; it is created if needed.
+     * @throws IOException If a file cannot be written.
+     */
+    static void write(GraphDB g, Profile profile, int maxCellSize, Path dir) throws IOException {
+        CompactGraph cg = g.compact();
+        GraphPartition partition = GraphPartition.inertial(cg, maxCellSize);
+        double[] weights = profile == null ? cg.adjLength : cg.weights(profile);
+        Files.createDirectories(dir);
+        try (DataOutputStream out = openOutput(dir.resolve(CELLS_FILE))) {
+            out.writeInt(partition.numCells);
+        }
+        for (int c = 0; c < partition.numCells; c += 1) {
+            try (DataOutputStream out = openOutput(dir.resolve(cellFile(c)))) {
+                CellGraph cell = CellGraph.build(cg, partition, c, weights);
+                CellOverlay.build(cg, partition, cell, weights).write(out);
+                cell.write(out);
+            }
+        }
+    }
+
+    private static DataInputStream openInput(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+
+    private static DataOutputStream openOutput(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    }
+
+    private static String cellFile(int c) {
+        return "cell-" + c + ".bin";
+    }
+
+    /**
+     * Starts accepting connections.
+     * @param address The address to listen on: the loopback address for routers on the same
+     *                machine, or a wildcard or interface address for remote routers.
+     * @param port The port to listen on, or 0 for any free port.
+     * @return The port actually bound.
+     * @throws IOException If the socket cannot be bound.
+     */
+    int start(InetAddress address, int port) throws IOException {
+        socket = new ServerSocket(port, 0, address);
+        Thread acceptor = new Thread(this::acceptLoop, "shard-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return socket.getLocalPort();
+    }
+
+    /** Stops accepting connections. Requests already being served run to completion. */
+    @Override
+    public void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+        }
+        workers.shutdown();
+    }
+
+    private void acceptLoop() {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                workers.execute(() -> serve(client));
+            } catch (IOException e) {
+                /* The server socket was closed. */
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket s = client;
+             DataInputStream in = new DataInputStream(
+                     new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                try {
+                    handle(op, in, out);
+                } catch (IllegalArgumentException e) {
+                    out.writeByte(ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Shard connection from " + client.getRemoteSocketAddress()
+                    + " failed; closed.");
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case LIST:
+                out.writeByte(OK);
+                out.writeInt(cells.size());
+                for (int c : cells.keySet()) {
+                    out.writeInt(c);
+                }
+                break;
+            case OVERLAY:
+                CellOverlay overlay = owned(overlays, in.readInt());
+                out.writeByte(OK);
+                overlay.write(out);
+                break;
+            case CELL:
+                CellGraph graph = owned(cells, in.readInt());
+                out.writeByte(OK);
+                graph.write(out);
+                break;
+            case PATH:
+                CellGraph cell = owned(cells, in.readInt());
+                List<Long> path = cell.shortestPath(in.readLong(), in.readLong());
+                out.writeByte(OK);
+                out.writeInt(path.size());
+                for (long id : path) {
+                    out.writeLong(id);
+                }
+                break;
+            default:
+                /* The arguments cannot be skipped, so report the opcode and hang up. */
+                out.writeByte(ERROR);
+                out.writeUTF("Unknown opcode " + op);
+                out.flush();
+                throw new IOException("Unknown opcode " + op);
+        }
+    }
+
+    private static <T> T owned(HashMap<Integer, T> byCell, int c) {
+        T value = byCell.get(c);
+        if (value == null) {
+            throw new IllegalArgumentException("Cell " + c + " is not served here");
+        }
+        return value;
+    }
+
+    /**
+     * Partitions a map offline, or runs one shard as its own process.
+     * @param args Either <code>write</code>, the OSM file, the partition directory, the maximum
+     *             cell size, and optionally a profile name; or the partition directory, the
+     *             address to listen on, the port, this shard's index, and the number of shards.
+     * @throws IOException If a file cannot be read or written, or the port cannot be bound.
+     * @throws InterruptedException If interrupted while serving.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 4 && args[0].equals("write")) {
+            Profile profile = args.length > 4 ? Profile.valueOf(args[4].toUpperCase()) : null;
+            write(new GraphDB(args[1]), profile, Integer.parseInt(args[3]), Path.of(args[2]));
+            return;
+        }
+        if (args.length < 5) {
+            System.err.println("usage: ShardServer write <osm> <dir> <maxCellSize>"
+                    + " [drive|walk|bike]");
+            System.err.println("       ShardServer <dir> <address> <port> <shard> <numShards>");
+            System.exit(2);
+        }
+        ShardServer server = new ShardServer(Path.of(args[0]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        int port = server.start(InetAddress.getByName(args[1]), Integer.parseInt(args[2]));
+        System.out.println("Shard " + args[3] + " of " + args[4] + " listening on " + port);
+        Thread.currentThread().join();
+    }
+
+    /** Request opcodes. */
+    static final byte LIST = 'L', OVERLAY = 'O', CELL = 'C', PATH = 'P';
+    /** Reply status bytes. */
+    static final byte OK = 0, ERROR = 1;
+    private static final String CELLS_FILE = "cells.bin";
+}
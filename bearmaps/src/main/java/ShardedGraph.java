@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * A router's view of a map that is spread across several <code>ShardServer</code> processes.
+ * On construction it fetches the small overlay summary of every cell; the full graph of a cell
+ * is fetched only when a route starts or ends in it, and the most recently used cells are kept
+ * in a bounded cache. <code>Router.shortestPath</code> searches this view directly.
+ */
+class ShardedGraph {
+    /** Where each shard listens. */
+    private final List<InetSocketAddress> shards;
+    /** The shard serving each cell, by cell ID. */
+    private final HashMap<Integer, Integer> shardOf = new HashMap<>();
+    /** The overlay summary of every cell, by cell ID. */
+    private final HashMap<Integer, CellOverlay> overlays = new HashMap<>();
+    /** The overlay summary of the cell each boundary vertex belongs to, by vertex ID. */
+    private final HashMap<Long, CellOverlay> boundaryCell = new HashMap<>();
+    /** The position of each boundary vertex within its cell's boundary array. */
+    private final HashMap<Long, Integer> boundaryIndex = new HashMap<>();
+    /** A dense ID for each boundary vertex, numbering the boundaries of all cells together. */
+    private final HashMap<Long, Integer> boundaryId = new HashMap<>();
+    /** The boundary vertex with each dense ID. */
+    private final long[] boundaryVertices;
+    /** Full cell graphs fetched on demand, in access order. Guarded by its own monitor. */
+    private final LinkedHashMap<Integer, CellGraph> loaded;
+
+    /** A point snapped to its closest vertex. */
+    static class Snap {
+        /** The ID of the cell containing the vertex. */
+        final int cell;
+        /** The OSM ID of the vertex. */
+        final long id;
+        Snap(int cell, long id) {
+            this.cell = cell;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Connects to a set of shards and fetches the overlay of every cell they serve.
+     * @param shards Where each shard listens.
+     * @param cacheCells The number of full cell graphs to keep loaded.
+     * @throws UncheckedIOException If a shard cannot be reached.
+     */
+    ShardedGraph(List<InetSocketAddress> shards, int cacheCells) {
+        this.shards = new ArrayList<>(shards);
+        this.loaded = new LinkedHashMap<Integer, CellGraph>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CellGraph> eldest) {
+                return size() > cacheCells;
+            }
+        };
+        for (int s = 0; s < this.shards.size(); s += 1) {
+            try (Connection conn = new Connection(this.shards.get(s))) {
+                conn.out.writeByte(ShardServer.LIST);
+                conn.out.flush();
+                conn.readStatus();
+                int count = conn.in.readInt();
+                int[] cells = new int[count];
+                for (int i = 0; i < count; i += 1) {
+                    cells[i] = conn.in.readInt();
+                }
+                for (int c : cells) {
+                    conn.out.writeByte(ShardServer.OVERLAY);
+                    conn.out.writeInt(c);
+                    conn.out.flush();
+                    conn.readStatus();
+                    CellOverlay o = CellOverlay.read(conn.in);
+                    shardOf.put(c, s);
+                    overlays.put(c, o);
+                    for (int i = 0; i < o.boundary.length; i += 1) {
+                        boundaryCell.put(o.boundary[i], o);
+                        boundaryIndex.put(o.boundary[i], i);
+                        boundaryId.putIfAbsent(o.boundary[i], boundaryId.size());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        boundaryVertices = new long[boundaryId.size()];
+        for (Map.Entry<Long, Integer> e : boundaryId.entrySet()) {
+            boundaryVertices[e.getValue()] = e.getKey();
+        }
+    }
+
+    /**
+     * Returns the number of cells across all shards.
+     * @return The number of cells.
+     */
+    int numCells() {
+        return overlays.size();
+    }
+
+    /**
+     * Returns the overlay summary of the cell a boundary vertex belongs to.
+     * @param id The OSM ID of the vertex.
+     * @return The summary, or null if the vertex is not on any cell's boundary.
+     */
+    CellOverlay overlayOf(long id) {
+        return boundaryCell.get(id);
+    }
+
+    /**
+     * Returns the position of a boundary vertex in its cell's boundary array.
+     * @param id The OSM ID of a boundary vertex.
+     * @return The position.
+     */
+    int boundaryIndexOf(long id) {
+        return boundaryIndex.get(id);
+    }
+
+    /**
+     * Returns the number of boundary vertices across all cells.
+     * @return The number of boundary vertices.
+     */
+    int numBoundaryVertices() {
+        return boundaryVertices.length;
+    }
+
+    /**
+     * Returns the dense ID of a boundary vertex, from 0 to <code>numBoundaryVertices()</code>.
+     * @param id The OSM ID of the vertex.
+     * @return The dense ID, or -1 if the vertex is not on any cell's boundary.
+     */
+    int boundaryId(long id) {
+        Integer i = boundaryId.get(id);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Returns the boundary vertex with a dense ID.
+     * @param i The dense ID.
+     * @return The OSM ID of the vertex.
+     */
+    long boundaryVertex(int i) {
+        return boundaryVertices[i];
+    }
+
+    /**
+     * Returns the full graph of a cell, fetching it from its shard if it is not cached.
+     * @param c The cell ID.
+     * @return The cell's graph.
+     * @throws UncheckedIOException If the shard cannot be reached.
+     */
+    CellGraph cell(int c) {
+        synchronized (loaded) {
+            CellGraph cached = loaded.get(c);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        CellGraph fetched;
+        try (Connection conn = connect(c)) {
+            conn.out.writeByte(ShardServer.CELL);
+            conn.out.writeInt(c);
+            conn.out.flush();
+            conn.readStatus();
+            fetched = CellGraph.read(conn.in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (loaded) {
+            loaded.put(c, fetched);
+        }
+        return fetched;
+    }
+
+    /**
+     * Snaps a point to the closest vertex on the map. Cells are visited in order of the
+     * distance to their bounding box, so only the cells that could hold a closer vertex than the
+     * best one found so far are loaded.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The closest vertex and its cell.
+     */
+    Snap closest(double lon, double lat) {
+        List<CellOverlay> byDistance = new ArrayList<>(overlays.values());
+        byDistance.sort(Comparator.comparingDouble(o -> o.distanceTo(lon, lat)));
+        Snap best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (CellOverlay o : byDistance) {
+            if (o.distanceTo(lon, lat) >= bestDistance) {
+                break;
+            }
+            CellGraph cg = cell(o.cell);
+            int i = cg.closest(lon, lat);
+            if (i < 0) {
+                continue;
+            }
+            double d = GraphDB.distance(lon, lat, cg.lon[i], cg.lat[i]);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = new Snap(o.cell, cg.ids[i]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Asks the shard serving a cell for the shortest path between two of its vertices that
+     * stays inside the cell, to expand an overlay shortcut into road segments.
+     * @param c The cell ID.
+     * @param from The OSM ID of the first vertex.
+     * @param to The OSM ID of the last vertex.
+     * @return The vertex IDs along the path, including both ends.
+     * @throws UncheckedIOException If the shard cannot be reached.
+     */
+    List<Long> unpack(int c, long from, long to) {
+        try (Connection conn = connect(c)) {
+            conn.out.writeByte(ShardServer.PATH);
+            conn.out.writeInt(c);
+            conn.out.writeLong(from);
+            conn.out.writeLong(to);
+            conn.out.flush();
+            conn.readStatus();
+            int n = conn.in.readInt();
+            List<Long> path = new ArrayList<>(n);
+            for (int i = 0; i < n; i += 1) {
+                path.add(conn.in.readLong());
+            }
+            return path;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Connection connect(int c) throws IOException {
+        Integer s = shardOf.get(c);
+        if (s == null) {
+            throw new IllegalArgumentException("No shard serves cell " + c);
+        }
+        return new Connection(shards.get(s));
+    }
+
+    /** One request-response exchange with a shard. */
+    private static class Connection implements AutoCloseable {
+        private final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+        /** Reads the status byte of a reply, throwing if the shard reports an error. */
+        void readStatus() throws IOException {
+            if (in.readByte() != ShardServer.OK) {
+                throw new IOException("Shard " + socket.getRemoteSocketAddress() + " refused: "
+                        + in.readUTF());
+            }
+        }
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
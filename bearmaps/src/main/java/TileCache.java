@@ -0,0 +1,69 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+/**
+ * A bounded LRU cache of decoded map tile images, keyed by file path. Tiles depend only on the
+ * image files, not on the road graph, so the cache stays warm when the graph is reloaded.
+ */
+class TileCache {
+    private final int capacity;
+    /** Decoded tiles in access order. Guarded by its own monitor. */
+    private final LinkedHashMap<String, BufferedImage> lru;
+
+    /**
+     * Create a new TileCache.
+     * @param capacity The maximum number of tiles kept before the least recently used one is
+     *                 evicted.
+     */
+    TileCache(int capacity) {
+        this.capacity = capacity;
+        this.lru = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > TileCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the image at a path, decoding and caching it if necessary. Callers must not draw
+     * onto the returned image.
+     * @param imgPath <code>String</code> path to the image.
+     * @return The image, or null if it cannot be read.
+     */
+    BufferedImage get(String imgPath) {
+        synchronized (lru) {
+            BufferedImage cached = lru.get(imgPath);
+            if (cached != null) {
+                Metrics.TILE_CACHE_HITS.increment();
+                return cached;
+            }
+        }
+        Metrics.TILES_DECODED.increment();
+        BufferedImage tileImg = null;
+        try {
+            tileImg = ImageIO.read(new File(imgPath));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (tileImg != null) {
+            synchronized (lru) {
+                lru.put(imgPath, tileImg);
+            }
+        }
+        return tileImg;
+    }
+
+    /**
+     * Returns the number of cached tiles.
+     * @return The cache size.
+     */
+    int size() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+}
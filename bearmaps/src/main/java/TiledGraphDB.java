@@ -0,0 +1,461 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * A read-only road graph stored on disk as a grid of geographic tiles, so that serving a large
+ * map only keeps the tiles near active queries in memory. Each tile is a separate file that is
+ * read into a heap buffer when <code>closest</code>, <code>adjacent</code>, or routing first
+ * touches it, and the least recently used tiles are dropped once more than a fixed number are
+ * resident. Tiles are read rather than memory-mapped because a mapping is only released when
+ * the garbage collector finds its buffer, which it has no reason to do while the heap is
+ * roomy; a dropped heap tile is reclaimed like any other garbage once the queries using it
+ * finish. A memory-mapped index sorted by vertex ID finds the tile of any vertex without
+ * loading it; it is mapped once and stays mapped.
+ *
+ * The files are produced once from a loaded <code>GraphDB</code> by <code>write</code>:
+ * <ul>
+ *     <li><code>grid.bin</code>: the grid origin, tile size in degrees, and dimensions.</li>
+ *     <li><code>vertices.bin</code>: (vertex ID, tile) pairs sorted by vertex ID.</li>
+ *     <li><code>tile-k.bin</code>: the vertices of tile <code>k</code> sorted by ID, their
+ *     locations, and their adjacency, where each slot records the neighbor's ID and the
+ *     segment length in miles.</li>
+ * </ul>
+ */
+class TiledGraphDB {
+    private final Path dir;
+    private final double minLon, minLat, tileDegrees;
+    private final int cols, rows;
+    /** A lower bound on the distance between any two vertices, from the grid's extent. */
+    private final DistanceBound distanceBound;
+    /** (vertex ID, tile) pairs sorted by vertex ID. */
+    private final ByteBuffer vertexIndex;
+    private final int numVertices;
+    /** Resident tiles in access order. Guarded by its own monitor. */
+    private final LinkedHashMap<Integer, Tile> resident;
+
+    /** One tile file read into memory; see the class comment for its layout. */
+    private static class Tile {
+        private final ByteBuffer buf;
+        final int size;
+        private final int slots;
+        Tile(ByteBuffer buf) {
+            this.buf = buf;
+            this.size = buf.getInt(0);
+            this.slots = buf.getInt(4);
+        }
+        long id(int i) {
+            return buf.getLong(HEADER_BYTES + 8 * i);
+        }
+        double lon(int i) {
+            return buf.getDouble(HEADER_BYTES + 8 * size + 8 * i);
+        }
+        double lat(int i) {
+            return buf.getDouble(HEADER_BYTES + 16 * size + 8 * i);
+        }
+        int adjStart(int i) {
+            return buf.getInt(HEADER_BYTES + 24 * size + 4 * i);
+        }
+        private int slotBase() {
+            return HEADER_BYTES + 24 * size + 4 * (size + 1);
+        }
+        long adjTarget(int e) {
+            return buf.getLong(slotBase() + 8 * e);
+        }
+        double adjLength(int e) {
+            return buf.getDouble(slotBase() + 8 * slots + 8 * e);
+        }
+        /** Returns the local index of a vertex by binary search, or -1 if it is absent. */
+        int indexOf(long id) {
+            int lo = 0;
+            int hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long m = id(mid);
+                if (m < id) {
+                    lo = mid + 1;
+                } else if (m > id) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Opens a tiled graph written by <code>write</code>.
+     * @param dir The directory holding the tile files.
+     * @param maxResidentTiles The most tiles kept in memory at once.
+     * @throws UncheckedIOException If the grid or vertex index cannot be read.
+     */
+    TiledGraphDB(Path dir, int maxResidentTiles) {
+        if (maxResidentTiles < 1) {
+            throw new IllegalArgumentException("Must keep at least one tile resident");
+        }
+        this.dir = dir;
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(dir.resolve(GRID_FILE)))) {
+            minLon = in.readDouble();
+            minLat = in.readDouble();
+            tileDegrees = in.readDouble();
+            cols = in.readInt();
+            rows = in.readInt();
+            vertexIndex = map(dir.resolve(VERTEX_FILE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        numVertices = vertexIndex.capacity() / VERTEX_ENTRY_BYTES;
+        distanceBound = new DistanceBound(minLon, minLat,
+                minLon + cols * tileDegrees, minLat + rows * tileDegrees);
+        resident = new LinkedHashMap<Integer, Tile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+                return size() > maxResidentTiles;
+            }
+        };
+    }
+
+    /**
+     * Splits a loaded graph into tiles and writes them to a directory.
+     * @param g The graph, already loaded and cleaned.
+     * @param dir The directory to write to; it is created if needed.
+     * @param tileDegrees The width and height of each tile in degrees.
+     * @throws IOException If a file cannot be written.
+     */
+    static void write(GraphDB g, Path dir, double tileDegrees) throws IOException {
+        CompactGraph cg = g.compact();
+        int n = cg.size();
+        double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v += 1) {
+            minLon = Math.min(minLon, cg.lon[v]);
+            minLat = Math.min(minLat, cg.lat[v]);
+            maxLon = Math.max(maxLon, cg.lon[v]);
+            maxLat = Math.max(maxLat, cg.lat[v]);
+        }
+        int cols = n == 0 ? 1 : (int) ((maxLon - minLon) / tileDegrees) + 1;
+        int rows = n == 0 ? 1 : (int) ((maxLat - minLat) / tileDegrees) + 1;
+        Files.createDirectories(dir);
+        try (DataOutputStream out = open(dir.resolve(GRID_FILE))) {
+            out.writeDouble(minLon);
+            out.writeDouble(minLat);
+            out.writeDouble(tileDegrees);
+            out.writeInt(cols);
+            out.writeInt(rows);
+        }
+        int[] tile = new int[n];
+        List<List<Integer>> members = new ArrayList<>();
+        for (int k = 0; k < cols * rows; k += 1) {
+            members.add(new ArrayList<>());
+        }
+        for (int v = 0; v < n; v += 1) {
+            int col = (int) ((cg.lon[v] - minLon) / tileDegrees);
+            int row = (int) ((cg.lat[v] - minLat) / tileDegrees);
+            tile[v] = row * cols + col;
+            members.get(tile[v]).add(v);
+        }
+        for (int k = 0; k < members.size(); k += 1) {
+            List<Integer> vs = members.get(k);
+            if (!vs.isEmpty()) {
+                vs.sort((v, w) -> Long.compare(cg.ids[v], cg.ids[w]));
+                writeTile(cg, vs, dir.resolve(tileFile(k)));
+            }
+        }
+        Integer[] byId = new Integer[n];
+        for (int v = 0; v < n; v += 1) {
+            byId[v] = v;
+        }
+        Arrays.sort(byId, (v, w) -> Long.compare(cg.ids[v], cg.ids[w]));
+        try (DataOutputStream out = open(dir.resolve(VERTEX_FILE))) {
+            for (int v : byId) {
+                out.writeLong(cg.ids[v]);
+                out.writeInt(tile[v]);
+            }
+        }
+    }
+
+    private static void writeTile(CompactGraph cg, List<Integer> vs, Path file)
+            throws IOException {
+        int slots = 0;
+        for (int v : vs) {
+            slots += cg.adjStart[v + 1] - cg.adjStart[v];
+        }
+        try (DataOutputStream out = open(file)) {
+            out.writeInt(vs.size());
+            out.writeInt(slots);
+            for (int v : vs) {
+                out.writeLong(cg.ids[v]);
+            }
+            for (int v : vs) {
+                out.writeDouble(cg.lon[v]);
+            }
+            for (int v : vs) {
+                out.writeDouble(cg.lat[v]);
+            }
+            int start = 0;
+            for (int v : vs) {
+                out.writeInt(start);
+                start += cg.adjStart[v + 1] - cg.adjStart[v];
+            }
+            out.writeInt(start);
+            for (int v : vs) {
+                for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                    out.writeLong(cg.ids[cg.adjTarget[e]]);
+                }
+            }
+            for (int v : vs) {
+                for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                    out.writeDouble(cg.adjLength[e]);
+                }
+            }
+        }
+    }
+
+    private static DataOutputStream open(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    private static ByteBuffer read(Path file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file));
+    }
+
+    private static String tileFile(int k) {
+        return "tile-" + k + ".bin";
+    }
+
+    /**
+     * Returns a tile, reading it from disk if it is not resident.
+     * @return The tile, or null if no vertex falls in it.
+     */
+    private Tile tile(int k) {
+        synchronized (resident) {
+            Tile t = resident.get(k);
+            if (t != null) {
+                return t;
+            }
+        }
+        Path file = dir.resolve(tileFile(k));
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Tile t;
+        try {
+            t = new Tile(read(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (resident) {
+            resident.put(k, t);
+        }
+        return t;
+    }
+
+    /**
+     * Returns the number of tiles currently in memory.
+     * @return The resident tile count.
+     */
+    int residentTiles() {
+        synchronized (resident) {
+            return resident.size();
+        }
+    }
+
+    /**
+     * Returns a fast lower bound on the great-circle distance between vertices of this map.
+     * @return A bound valid over the whole grid.
+     */
+    DistanceBound distanceBound() {
+        return distanceBound;
+    }
+
+    /** Returns the tile of a vertex from the vertex index, or -1 if the vertex is unknown. */
+    private int tileOf(long id) {
+        int lo = 0;
+        int hi = numVertices - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long m = vertexIndex.getLong(mid * VERTEX_ENTRY_BYTES);
+            if (m < id) {
+                lo = mid + 1;
+            } else if (m > id) {
+                hi = mid - 1;
+            } else {
+                return vertexIndex.getInt(mid * VERTEX_ENTRY_BYTES + 8);
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the tile holding a vertex, which must exist. */
+    private Tile tileContaining(long v) {
+        int k = tileOf(v);
+        if (k < 0) {
+            throw new IllegalArgumentException("Unknown vertex " + v);
+        }
+        return tile(k);
+    }
+
+    /**
+     * Returns the longitude of a vertex.
+     * @param v The ID of the vertex.
+     * @return The longitude.
+     */
+    double lon(long v) {
+        Tile t = tileContaining(v);
+        return t.lon(t.indexOf(v));
+    }
+
+    /**
+     * Returns the latitude of a vertex.
+     * @param v The ID of the vertex.
+     * @return The latitude.
+     */
+    double lat(long v) {
+        Tile t = tileContaining(v);
+        return t.lat(t.indexOf(v));
+    }
+
+    /**
+     * Returns the IDs of the vertices adjacent to a vertex.
+     * @param v The ID of the vertex.
+     * @return The neighbor IDs.
+     */
+    Iterable<Long> adjacent(long v) {
+        Tile t = tileContaining(v);
+        int i = t.indexOf(v);
+        List<Long> result = new ArrayList<>(t.adjStart(i + 1) - t.adjStart(i));
+        for (int e = t.adjStart(i); e < t.adjStart(i + 1); e += 1) {
+            result.add(t.adjTarget(e));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the vertex closest to a point by great-circle distance. Tiles are searched in
+     * rings around the point's tile, stopping once no unsearched tile can hold a closer vertex.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The ID of the closest vertex, or -1 if the graph is empty.
+     */
+    long closest(double lon, double lat) {
+        int col = clamp((int) Math.floor((lon - minLon) / tileDegrees), cols);
+        int row = clamp((int) Math.floor((lat - minLat) / tileDegrees), rows);
+        long best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int r = 0; r < Math.max(cols, rows); r += 1) {
+            double ringDistance = Double.POSITIVE_INFINITY;
+            for (int c = col - r; c <= col + r; c += 1) {
+                for (int w = row - r; w <= row + r; w += 1) {
+                    boolean onRing = Math.abs(c - col) == r || Math.abs(w - row) == r;
+                    if (!onRing || c < 0 || c >= cols || w < 0 || w >= rows) {
+                        continue;
+                    }
+                    ringDistance = Math.min(ringDistance, distanceToTile(c, w, lon, lat));
+                }
+            }
+            if (ringDistance >= bestDistance) {
+                break;
+            }
+            for (int c = col - r; c <= col + r; c += 1) {
+                for (int w = row - r; w <= row + r; w += 1) {
+                    boolean onRing = Math.abs(c - col) == r || Math.abs(w - row) == r;
+                    if (!onRing || c < 0 || c >= cols || w < 0 || w >= rows
+                            || distanceToTile(c, w, lon, lat) >= bestDistance) {
+                        continue;
+                    }
+                    Tile t = tile(w * cols + c);
+                    if (t == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < t.size; i += 1) {
+                        double d = GraphDB.distance(lon, lat, t.lon(i), t.lat(i));
+                        if (d < bestDistance) {
+                            bestDistance = d;
+                            best = t.id(i);
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    /** Returns the great-circle distance from a point to the nearest point of a tile. */
+    private double distanceToTile(int col, int row, double lon, double lat) {
+        double tileMinLon = minLon + col * tileDegrees;
+        double tileMinLat = minLat + row * tileDegrees;
+        double clampedLon = Math.max(tileMinLon, Math.min(tileMinLon + tileDegrees, lon));
+        double clampedLat = Math.max(tileMinLat, Math.min(tileMinLat + tileDegrees, lat));
+        return GraphDB.distance(lon, lat, clampedLon, clampedLat);
+    }
+
+    /**
+     * Visits every road segment leaving a vertex with its length in miles, mapping only the
+     * vertex's own tile.
+     * @param v The ID of the vertex.
+     * @param visitor Called with each neighbor ID and segment length.
+     */
+    void forEachEdge(long v, EdgeVisitor visitor) {
+        Tile t = tileContaining(v);
+        int i = t.indexOf(v);
+        for (int e = t.adjStart(i); e < t.adjStart(i + 1); e += 1) {
+            visitor.visit(t.adjTarget(e), t.adjLength(e));
+        }
+    }
+
+    /** Receives the road segments leaving a vertex. */
+    interface EdgeVisitor {
+        /**
+         * Called once per road segment.
+         * @param w The ID of the neighbor.
+         * @param length The segment length in miles.
+         */
+        void visit(long w, double length);
+    }
+
+    /**
+     * Converts an OSM file into tiles.
+     * @param args The OSM file, the output directory, and optionally the tile size in degrees.
+     * @throws IOException If a file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: TiledGraphDB <osm> <dir> [tileDegrees]");
+            System.exit(2);
+        }
+        double tileDegrees = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TILE_DEGREES;
+        write(new GraphDB(args[0]), Path.of(args[1]), tileDegrees);
+    }
+
+    /** Bytes in the tile header: the vertex and slot counts. */
+    private static final int HEADER_BYTES = 8;
+    /** Bytes per entry in the vertex index: an 8-byte ID and a 4-byte tile. */
+    private static final int VERTEX_ENTRY_BYTES = 12;
+    /** The default tile size in degrees, roughly half a mile across in Berkeley. */
+    static final double DEFAULT_TILE_DEGREES = 0.01;
+    private static final String GRID_FILE = "grid.bin";
+    private static final String VERTEX_FILE = "vertices.bin";
+}
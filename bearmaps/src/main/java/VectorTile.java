@@ -0,0 +1,300 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+/**
+ * Encodes the roads of one map tile as a compact binary vector tile, in the spirit of the
+ * Mapbox Vector Tile format, so clients can draw roads themselves at any resolution instead of
+ * downloading rendered images. Tiles use the same depth and x/y numbering as the image tiles
+ * chosen by <code>Rasterer</code>.
+ *
+ * Every integer is an unsigned LEB128 varint. A tile is the extent, the number of distinct road
+ * names followed by each name as a byte length and UTF-8 bytes, and the number of features
+ * followed by each feature: its OSM way ID, the index of its name, its number of points, and
+ * each point as zigzag-encoded x and y deltas from the previous point. The delta cursor starts
+ * at (0, 0) and carries over from one feature to the next. Coordinates are in tile space, where
+ * (0, 0) is the upper-left corner and (extent, extent) the lower-right; segments that cross
+ * the tile edge keep their outside endpoint.
+ *
+ * Each road is simplified with the Douglas-Peucker algorithm to within half a pixel at the
+ * tile's depth, so zoomed-out tiles carry only the vertices that can be seen.
+ */
+class VectorTile {
+    /** A decoded road polyline. */
+    static class Feature {
+        /** The OSM ID of the way the road belongs to. */
+        final long way;
+        /** The name of the way, or the empty string if it has none. */
+        final String name;
+        /** Tile-space coordinates of each point. */
+        final int[] x, y;
+        Feature(long way, String name, int[] x, int[] y) {
+            this.way = way;
+            this.name = name;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /** Private constructor to prevent instantiation; all methods are static. */
+    private VectorTile() {
+    }
+
+    /**
+     * Encodes every road segment that intersects one tile.
+     * @param g The graph to draw.
+     * @param depth The depth of the tile, from 0 to <code>Rasterer.MAX_DEPTH</code>.
+     * @param x The column of the tile at that depth.
+     * @param y The row of the tile at that depth.
+     * @return The encoded tile.
+     */
+    static byte[] encode(GraphDB g, int depth, int x, int y) {
+        double lonWidth = MapServer.ROOT_LON_DELTA / (1 << depth);
+        double latHeight = MapServer.ROOT_LAT_DELTA / (1 << depth);
+        double ullon = MapServer.ROOT_ULLON + x * lonWidth;
+        double ullat = MapServer.ROOT_ULLAT - y * latHeight;
+        CompactGraph cg = g.compact();
+        /* The slot of each segment in the tile, keyed by its pair of vertices. */
+        LinkedHashMap<Long, Integer> inTile = new LinkedHashMap<>();
+        TreeSet<Integer> ways = new TreeSet<>();
+        g.segmentsIn(ullon, ullat, ullon + lonWidth, ullat - latHeight, e -> {
+            inTile.put(pairKey(cg.adjTarget[cg.adjTwin[e]], cg.adjTarget[e]), e);
+            ways.add(cg.adjWay[e]);
+        });
+        /* Chain the segments of each way in node order, so long roads become single features. */
+        List<int[]> lines = new ArrayList<>();
+        List<Integer> lineWays = new ArrayList<>();
+        for (int w : ways) {
+            GraphDB.Edge way = g.edges.get(cg.wayIds[w]);
+            if (way == null) {
+                continue;
+            }
+            int[] run = new int[way.nodes.size()];
+            int length = 0;
+            for (int i = 1; i < way.nodes.size(); i += 1) {
+                int u = cg.indexOf(way.nodes.get(i - 1));
+                int v = cg.indexOf(way.nodes.get(i));
+                if (u >= 0 && v >= 0 && inTile.remove(pairKey(u, v)) != null) {
+                    if (length == 0) {
+                        run[length] = u;
+                        length += 1;
+                    }
+                    run[length] = v;
+                    length += 1;
+                } else if (length > 0) {
+                    lines.add(Arrays.copyOf(run, length));
+                    lineWays.add(w);
+                    length = 0;
+                }
+            }
+            if (length > 0) {
+                lines.add(Arrays.copyOf(run, length));
+                lineWays.add(w);
+            }
+        }
+        /* Segments whose way lists them differently, such as after a change file, stand alone. */
+        for (int e : inTile.values()) {
+            lines.add(new int[] {cg.adjTarget[cg.adjTwin[e]], cg.adjTarget[e]});
+            lineWays.add(cg.adjWay[e]);
+        }
+
+        double tolerance = SIMPLIFY_TOLERANCE_PX * EXTENT / MapServer.TILE_SIZE;
+        HashMap<String, Integer> nameIndex = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        ByteArrayOutputStream features = new ByteArrayOutputStream();
+        int numFeatures = 0;
+        int cursorX = 0;
+        int cursorY = 0;
+        for (int i = 0; i < lines.size(); i += 1) {
+            int[] line = lines.get(i);
+            double[] px = new double[line.length];
+            double[] py = new double[line.length];
+            for (int j = 0; j < line.length; j += 1) {
+                px[j] = (cg.lon[line[j]] - ullon) / lonWidth * EXTENT;
+                py[j] = (ullat - cg.lat[line[j]]) / latHeight * EXTENT;
+            }
+            boolean[] keep = simplify(px, py, tolerance);
+            int[] qx = new int[line.length];
+            int[] qy = new int[line.length];
+            int n = 0;
+            for (int j = 0; j < line.length; j += 1) {
+                int ix = (int) Math.round(px[j]);
+                int iy = (int) Math.round(py[j]);
+                if (keep[j] && (n == 0 || ix != qx[n - 1] || iy != qy[n - 1])) {
+                    qx[n] = ix;
+                    qy[n] = iy;
+                    n += 1;
+                }
+            }
+            if (n < 2) {
+                /* The whole road fits in one tile-space cell at this depth. */
+                continue;
+            }
+            String name = cg.names[cg.wayName[lineWays.get(i)]];
+            Integer nameId = nameIndex.get(name);
+            if (nameId == null) {
+                nameId = names.size();
+                nameIndex.put(name, nameId);
+                names.add(name);
+            }
+            writeVarint(features, cg.wayIds[lineWays.get(i)]);
+            writeVarint(features, nameId);
+            writeVarint(features, n);
+            for (int j = 0; j < n; j += 1) {
+                writeVarint(features, zigzag(qx[j] - cursorX));
+                writeVarint(features, zigzag(qy[j] - cursorY));
+                cursorX = qx[j];
+                cursorY = qy[j];
+            }
+            numFeatures += 1;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(features.size() + 64);
+        writeVarint(out, EXTENT);
+        writeVarint(out, names.size());
+        for (String name : names) {
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+        writeVarint(out, numFeatures);
+        byte[] body = features.toByteArray();
+        out.write(body, 0, body.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a tile produced by <code>encode</code>.
+     * @param tile The encoded tile.
+     * @return Its features, in order.
+     */
+    static List<Feature> decode(byte[] tile) {
+        ByteBuffer in = ByteBuffer.wrap(tile);
+        readVarint(in);
+        String[] names = new String[(int) readVarint(in)];
+        for (int i = 0; i < names.length; i += 1) {
+            byte[] utf8 = new byte[(int) readVarint(in)];
+            in.get(utf8);
+            names[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+        int numFeatures = (int) readVarint(in);
+        List<Feature> features = new ArrayList<>(numFeatures);
+        int cursorX = 0;
+        int cursorY = 0;
+        for (int f = 0; f < numFeatures; f += 1) {
+            long way = readVarint(in);
+            String name = names[(int) readVarint(in)];
+            int n = (int) readVarint(in);
+            int[] x = new int[n];
+            int[] y = new int[n];
+            for (int j = 0; j < n; j += 1) {
+                cursorX += unzigzag((int) readVarint(in));
+                cursorY += unzigzag((int) readVarint(in));
+                x[j] = cursorX;
+                y[j] = cursorY;
+            }
+            features.add(new Feature(way, name, x, y));
+        }
+        return features;
+    }
+
+    /**
+     * Marks the points of a polyline that the Douglas-Peucker algorithm keeps: the endpoints,
+     * and recursively the point farthest from the chord between two kept points whenever it is
+     * more than <code>tolerance</code> away.
+     */
+    static boolean[] simplify(double[] px, double[] py, double tolerance) {
+        int n = px.length;
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        ArrayDeque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[] {0, n - 1});
+        while (!stack.isEmpty()) {
+            int[] range = stack.pop();
+            int first = range[0];
+            int last = range[1];
+            double farthest = tolerance;
+            int index = -1;
+            for (int k = first + 1; k < last; k += 1) {
+                double d = segmentDistance(px[k], py[k], px[first], py[first], px[last], py[last]);
+                if (d > farthest) {
+                    farthest = d;
+                    index = k;
+                }
+            }
+            if (index >= 0) {
+                keep[index] = true;
+                stack.push(new int[] {first, index});
+                stack.push(new int[] {index, last});
+            }
+        }
+        return keep;
+    }
+
+    /** Returns the distance from point p to the segment from a to b. */
+    private static double segmentDistance(double px, double py,
+                                          double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(ax + t * dx - px, ay + t * dy - py);
+    }
+
+    /** Returns an order-independent key for the segment between two vertices. */
+    private static long pairKey(int u, int v) {
+        return ((long) Math.min(u, v) << 32) | Math.max(u, v);
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint: seven bits per byte, low bits first, with the high bit
+     * set on every byte but the last.
+     * @param out The stream to write to.
+     * @param value The value, treated as unsigned.
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     * @param in The buffer to read from, advanced past the varint.
+     * @return The value.
+     */
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /** Maps signed integers to unsigned ones so that small magnitudes stay small. */
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /** The width and height of a tile in tile-space units, as in the Mapbox format. */
+    static final int EXTENT = 4096;
+    /** The largest error Douglas-Peucker may introduce, in pixels of a 256-pixel tile. */
+    private static final double SIMPLIFY_TOLERANCE_PX = 0.5;
+}
@@ -0,0 +1,94 @@
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+/**
+ * A bounded LRU cache of encoded vector tiles. Entries are keyed by graph version as well as by
+ * tile, so a change file or reload never serves roads from the graph it replaced.
+ */
+class VectorTileCache {
+    private final int capacity;
+    /** Encoded tiles in access order. Guarded by its own monitor. */
+    private final LinkedHashMap<String, byte[]> lru;
+
+    /**
+     * Create a new VectorTileCache.
+     * @param capacity The maximum number of tiles kept before the least recently used one is
+     *                 evicted.
+     */
+    VectorTileCache(int capacity) {
+        this.capacity = capacity;
+        this.lru = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > VectorTileCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the encoded tile, encoding and caching it if necessary. Callers must not modify the
+     * returned array.
+     * @param g The graph to draw.
+     * @param depth The depth of the tile.
+     * @param x The column of the tile at that depth.
+     * @param y The row of the tile at that depth.
+     * @return The tile, as produced by <code>VectorTile.encode</code>.
+     */
+    byte[] get(GraphDB g, int depth, int x, int y) {
+        String key = g.version() + "/" + depth + "/" + x + "/" + y;
+        synchronized (lru) {
+            byte[] cached = lru.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] tile = VectorTile.encode(g, depth, x, y);
+        synchronized (lru) {
+            lru.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Returns every vector tile in the grid chosen by <code>Rasterer.getMapRaster</code>, in one
+     * response. The response is a sequence of varints: the depth, the column and row of the
+     * upper-left tile, the number of columns and rows, and then each tile in row-major order as
+     * its length in bytes followed by the tile itself.
+     * @param g The graph to draw.
+     * @param raster A successful raster result.
+     * @return The encoded grid.
+     */
+    byte[] forRaster(GraphDB g, RasterResultParams raster) {
+        int depth = raster.depth;
+        double lonWidth = MapServer.ROOT_LON_DELTA / (1 << depth);
+        double latHeight = MapServer.ROOT_LAT_DELTA / (1 << depth);
+        int left = (int) Math.round((raster.rasterUlLon - MapServer.ROOT_ULLON) / lonWidth);
+        int up = (int) Math.round((MapServer.ROOT_ULLAT - raster.rasterUlLat) / latHeight);
+        int rows = raster.renderGrid.length;
+        int cols = raster.renderGrid[0].length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VectorTile.writeVarint(out, depth);
+        VectorTile.writeVarint(out, left);
+        VectorTile.writeVarint(out, up);
+        VectorTile.writeVarint(out, cols);
+        VectorTile.writeVarint(out, rows);
+        for (int r = 0; r < rows; r += 1) {
+            for (int c = 0; c < cols; c += 1) {
+                byte[] tile = get(g, depth, left + c, up + r);
+                VectorTile.writeVarint(out, tile.length);
+                out.write(tile, 0, tile.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the number of cached tiles.
+     * @return The cache size.
+     */
+    int size() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the admin endpoints accept only the configured token.
+ */
+public class TestAdminToken {
+    @Test
+    public void testToken() {
+        assertTrue(MapServer.isAdmin("Bearer s3cret", "s3cret"));
+        assertFalse(MapServer.isAdmin("Bearer s3cre", "s3cret"));
+        assertFalse(MapServer.isAdmin("s3cret", "s3cret"));
+        assertFalse(MapServer.isAdmin(null, "s3cret"));
+    }
+
+    @Test
+    public void testDisabledWithoutToken() {
+        assertFalse(MapServer.isAdmin("Bearer ", null));
+        assertFalse(MapServer.isAdmin("Bearer ", ""));
+        assertFalse(MapServer.isAdmin(null, null));
+    }
+}
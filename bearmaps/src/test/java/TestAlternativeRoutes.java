@@ -0,0 +1,61 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Basic properties of Router.alternativeRoutes on the tiny graph.
+ */
+public class TestAlternativeRoutes {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testFirstRouteIsShortest() {
+        List<List<Long>> routes = Router.alternativeRoutes(graphTiny,
+                -122.25, 37.83, -122.25, 37.88, 3);
+        assertEquals(Router.shortestPath(graphTiny, -122.25, 37.83, -122.25, 37.88),
+                routes.get(0));
+    }
+
+    @Test
+    public void testRoutesAreDistinctAndBounded() {
+        List<List<Long>> routes = Router.alternativeRoutes(graphTiny, 22L, 55L, 5, 2.0, 0.9);
+        assertTrue(routes.size() >= 1 && routes.size() <= 5);
+        double best = length(routes.get(0));
+        HashSet<List<Long>> distinct = new HashSet<>(routes);
+        assertEquals(routes.size(), distinct.size());
+        for (List<Long> route : routes) {
+            assertEquals(22L, (long) route.get(0));
+            assertEquals(55L, (long) route.get(route.size() - 1));
+            assertTrue(length(route) <= 2.0 * best + 1e-9);
+        }
+    }
+
+    @Test
+    public void testNoRoutesRequested() {
+        assertTrue(Router.alternativeRoutes(graphTiny, 22L, 55L, 0, 1.25, 0.75).isEmpty());
+    }
+
+    private static double length(List<Long> route) {
+        double total = 0.0;
+        for (int i = 1; i < route.size(); i += 1) {
+            total += graphTiny.distance(route.get(i - 1), route.get(i));
+        }
+        return total;
+    }
+}
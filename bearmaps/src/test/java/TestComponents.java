@@ -0,0 +1,91 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks component labels on the tiny graph plus an isolated road fragment.
+ */
+public class TestComponents {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        String osc = "<osmChange version=\"0.6\"><create>"
+                + "<node id=\"91\" lat=\"37.86\" lon=\"-122.27\"/>"
+                + "<node id=\"92\" lat=\"37.861\" lon=\"-122.27\"/>"
+                + "<way id=\"9\"><nd ref=\"91\"/><nd ref=\"92\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way></create></osmChange>";
+        graph = new GraphDB(OSM_DB_PATH_TINY).applyChanges(
+                new ByteArrayInputStream(osc.getBytes(StandardCharsets.UTF_8)));
+        initialized = true;
+    }
+
+    @Test
+    public void testLabels() {
+        CompactGraph cg = graph.compact();
+        assertEquals(2, cg.componentSize.length);
+        assertEquals(7, cg.componentSize[cg.largestComponent]);
+        assertTrue(graph.connected(11, 55));
+        assertTrue(graph.connected(91, 92));
+        assertFalse(graph.connected(11, 91));
+    }
+
+    @Test
+    public void testCrossComponentRoutesAreEmpty() {
+        assertEquals(Collections.emptyList(), Router.shortestPath(graph, 11, 91));
+        assertEquals(Collections.emptyList(), Router.shortestPath(graph, 91, 11, Profile.WALK));
+        double[][] sources = {{graph.lon(11), graph.lat(11)}};
+        double[][] targets = {{graph.lon(91), graph.lat(91)}, {graph.lon(22), graph.lat(22)}};
+        double[] matrix = Router.distanceMatrix(graph, sources, targets);
+        assertEquals(Double.POSITIVE_INFINITY, matrix[0], 0.0);
+        assertTrue(matrix[1] < Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void testSnapToLargestComponent() {
+        assertEquals(91L, graph.closest(-122.27, 37.86));
+        long snapped = graph.closest(-122.27, 37.86, true);
+        assertTrue(graph.connected(snapped, 11));
+        assertEquals(22L, snapped);
+    }
+
+    @Test
+    public void testSnapToLargestComponentIsOptional() throws Exception {
+        Map<String, String[]> query = new HashMap<>();
+        query.put("start_lon", new String[] {"-122.27"});
+        query.put("start_lat", new String[] {"37.86"});
+        query.put("end_lon", new String[] {"-122.28"});
+        query.put("end_lat", new String[] {"37.83"});
+        assertFalse(RouteRequestParams.from(query).largestComponent);
+        query.put("largest_component", new String[] {"true"});
+        assertTrue(RouteRequestParams.from(query).largestComponent);
+
+        MapServer.initialize(graph);
+        RouteBatchRequest.Pair[] pairs = {
+            new RouteBatchRequest.Pair(-122.27, 37.86, -122.28, 37.83)
+        };
+        StringWriter nearest = new StringWriter();
+        MapServer.writeRoutes(graph,
+                new RouteBatchRequest(null, false, false, false, -1, pairs), nearest);
+        assertTrue(nearest.toString().startsWith("[{\"routing_success\":false"));
+        StringWriter largest = new StringWriter();
+        MapServer.writeRoutes(graph,
+                new RouteBatchRequest(null, false, true, false, -1, pairs), largest);
+        assertTrue(largest.toString().startsWith("[{\"routing_success\":true,\"path\":[22,11]"));
+    }
+}
@@ -0,0 +1,40 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the planar distance bound stays below, and close to, the great-circle distance.
+ */
+public class TestDistanceBound {
+    private static final double MIN_LON = -122.2998046875, MAX_LON = -122.2119140625;
+    private static final double MIN_LAT = 37.82280243352756, MAX_LAT = 37.892195547244356;
+
+    @Test
+    public void testBelowGreatCircle() {
+        DistanceBound bound = new DistanceBound(MIN_LON, MIN_LAT, MAX_LON, MAX_LAT);
+        Random r = new Random(61);
+        for (int i = 0; i < 100000; i += 1) {
+            double lonV = MIN_LON + r.nextDouble() * (MAX_LON - MIN_LON);
+            double latV = MIN_LAT + r.nextDouble() * (MAX_LAT - MIN_LAT);
+            double lonW = MIN_LON + r.nextDouble() * (MAX_LON - MIN_LON);
+            double latW = MIN_LAT + r.nextDouble() * (MAX_LAT - MIN_LAT);
+            double exact = GraphDB.distance(lonV, latV, lonW, latW);
+            double lower = bound.lowerBound(lonV, latV, lonW, latW);
+            assertTrue(lower <= exact);
+            assertTrue(lower >= 0.99 * exact);
+        }
+    }
+
+    @Test
+    public void testCorners() {
+        DistanceBound bound = new DistanceBound(MIN_LON, MIN_LAT, MAX_LON, MAX_LAT);
+        assertEquals(0, bound.lowerBound(MIN_LON, MIN_LAT, MIN_LON, MIN_LAT), 0);
+        assertTrue(bound.lowerBound(MIN_LON, MIN_LAT, MAX_LON, MAX_LAT)
+                <= GraphDB.distance(MIN_LON, MIN_LAT, MAX_LON, MAX_LAT));
+        assertTrue(bound.lowerBound(MIN_LON, MAX_LAT, MAX_LON, MAX_LAT)
+                <= GraphDB.distance(MIN_LON, MAX_LAT, MAX_LON, MAX_LAT));
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks Router.distanceMatrix against the lengths of the paths returned by Router.shortestPath
+ * on the tiny graph.
+ */
+public class TestDistanceMatrix {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static final double[][] POINTS = {
+        {-122.27, 37.84}, {-122.23, 37.88}, {-122.28, 37.83}, {-122.25, 37.83}, {-122.24, 37.87}
+    };
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesShortestPath() {
+        double[] matrix = Router.distanceMatrix(graphTiny, POINTS, POINTS);
+        assertEquals(POINTS.length * POINTS.length, matrix.length);
+        for (int i = 0; i < POINTS.length; i += 1) {
+            for (int j = 0; j < POINTS.length; j += 1) {
+                List<Long> path = Router.shortestPath(graphTiny, POINTS[i][0], POINTS[i][1],
+                        POINTS[j][0], POINTS[j][1]);
+                assertEquals(pathLength(path), matrix[i * POINTS.length + j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testRectangular() {
+        double[][] sources = {POINTS[0]};
+        double[][] targets = {POINTS[1], POINTS[2]};
+        double[] matrix = Router.distanceMatrix(graphTiny, sources, targets);
+        assertEquals(2, matrix.length);
+        assertEquals(0.0, Router.distanceMatrix(graphTiny, sources, sources)[0], 1e-9);
+    }
+
+    private static double pathLength(List<Long> path) {
+        double total = 0.0;
+        for (int i = 1; i < path.size(); i += 1) {
+            total += graphTiny.distance(path.get(i - 1), path.get(i));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that replacing the published graph keeps leased graphs alive until released.
+ */
+public class TestGraphHolder {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB first;
+    private static GraphDB second;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        first = new GraphDB(OSM_DB_PATH_TINY);
+        second = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testLeaseOutlivesPublish() throws Exception {
+        GraphHolder holder = new GraphHolder(first);
+        GraphHolder.Lease lease = holder.acquire();
+        CountDownLatch drained = holder.publish(second);
+        assertSame(first, lease.graph);
+        try (GraphHolder.Lease fresh = holder.acquire()) {
+            assertSame(second, fresh.graph);
+        }
+        assertFalse(drained.await(0, TimeUnit.MILLISECONDS));
+        lease.close();
+        lease.close();
+        assertTrue(drained.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPublishWithoutLeasesDrainsImmediately() throws Exception {
+        GraphHolder holder = new GraphHolder(first);
+        assertTrue(holder.publish(second).await(0, TimeUnit.MILLISECONDS));
+        assertSame(second, holder.peek());
+    }
+
+    @Test
+    public void testReloadedGraphHasNewerVersion() {
+        assertTrue(second.version() > first.version());
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that encoded images decode to the original and that formats are negotiated correctly.
+ */
+public class TestImageEncoder {
+    @Test
+    public void testPngRoundTrip() throws Exception {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR}) {
+            BufferedImage img = sample(type);
+            for (int level = 0; level <= 9; level += 3) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new PngEncoder(level).encode(img, out);
+                assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+            }
+        }
+    }
+
+    @Test
+    public void testPngLevels() throws Exception {
+        BufferedImage img = sample(BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        ByteArrayOutputStream best = new ByteArrayOutputStream();
+        new PngEncoder(0).encode(img, stored);
+        new PngEncoder(9).encode(img, best);
+        assertTrue(best.size() < stored.size());
+    }
+
+    @Test
+    public void testJpeg() throws Exception {
+        BufferedImage img = sample(BufferedImage.TYPE_INT_ARGB);
+        String encoded = ImageEncoder.JPEG.encodeBase64(img);
+        BufferedImage decoded = ImageIO.read(
+                new ByteArrayInputStream(Base64.getDecoder().decode(encoded)));
+        assertEquals(img.getWidth(), decoded.getWidth());
+        assertEquals(img.getHeight(), decoded.getHeight());
+    }
+
+    @Test
+    public void testNegotiation() {
+        assertSame(ImageEncoder.PNG, ImageEncoder.negotiate(null, null));
+        assertSame(ImageEncoder.PNG, ImageEncoder.negotiate(null, "*/*"));
+        assertSame(ImageEncoder.PNG, ImageEncoder.negotiate(null, "image/jpeg, image/png"));
+        assertSame(ImageEncoder.JPEG, ImageEncoder.negotiate(null, "image/jpeg, image/*;q=0.5"));
+        assertSame(ImageEncoder.JPEG, ImageEncoder.negotiate(null, "image/png;q=0, */*"));
+        assertSame(ImageEncoder.JPEG, ImageEncoder.negotiate("JPG", "image/png"));
+    }
+
+    @Test
+    public void testFormatParam() {
+        Map<String, String[]> req = new HashMap<>();
+        for (String p : new String[] {"ullat", "ullon", "lrlat", "lrlon", "w", "h"}) {
+            req.put(p, new String[] {"1"});
+        }
+        assertNull(RasterRequestParams.from(req).format);
+        req.put("format", new String[] {"JPG"});
+        assertEquals("jpeg", RasterRequestParams.from(req).format);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFormat() {
+        ImageEncoder.negotiate("gif", null);
+    }
+
+    /** Returns a map-like image: flat areas, lines, and a gradient, with an odd width. */
+    private static BufferedImage sample(int type) {
+        BufferedImage img = new BufferedImage(301, 97, type);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(242, 239, 233));
+        g.fillRect(0, 0, 301, 97);
+        g.setColor(new Color(108, 181, 230));
+        g.drawLine(0, 0, 300, 96);
+        for (int x = 0; x < 64; x += 1) {
+            g.setColor(new Color(x * 4, 255 - x * 4, 128));
+            g.fillRect(200 + x, 10, 1, 40);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y += 1) {
+            for (int x = 0; x < expected.getWidth(); x += 1) {
+                assertEquals(expected.getRGB(x, y) & 0xffffff, actual.getRGB(x, y) & 0xffffff);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Basic checks for Router.isochrone on the tiny graph.
+ */
+public class TestIsochrone {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testZeroBudget() {
+        Isochrone iso = Router.isochrone(graphTiny, -122.27, 37.84, 0.0);
+        assertEquals(1, iso.vertices.length);
+        assertEquals(22L, iso.vertices[0]);
+    }
+
+    @Test
+    public void testMatchesDistanceMatrix() {
+        double budget = 3.0;
+        Isochrone iso = Router.isochrone(graphTiny, -122.27, 37.84, budget);
+        Set<Long> reached = new HashSet<>();
+        for (long v : iso.vertices) {
+            reached.add(v);
+        }
+        double[][] source = {{-122.27, 37.84}};
+        for (long v : graphTiny.vertices()) {
+            double[][] target = {{graphTiny.lon(v), graphTiny.lat(v)}};
+            double d = Router.distanceMatrix(graphTiny, source, target)[0];
+            assertEquals("Vertex " + v, d <= budget, reached.contains(v));
+        }
+    }
+
+    @Test
+    public void testHullEnclosesEverything() {
+        Isochrone iso = Router.isochrone(graphTiny, -122.27, 37.84, 100.0);
+        assertEquals(7, iso.vertices.length);
+        assertTrue(iso.hull.length >= 3);
+        for (long v : iso.vertices) {
+            for (int i = 0; i < iso.hull.length; i += 1) {
+                double[] a = iso.hull[i];
+                double[] b = iso.hull[(i + 1) % iso.hull.length];
+                double cross = (b[0] - a[0]) * (graphTiny.lat(v) - a[1])
+                        - (b[1] - a[1]) * (graphTiny.lon(v) - a[0]);
+                assertTrue(cross >= -1e-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that live edge-weight overrides are applied in whole batches, published as immutable
+ * snapshots, and respected by live routes.
+ */
+public class TestLiveWeights {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static CompactGraph cg;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        cg = graph.compact();
+        initialized = true;
+    }
+
+    private static int slot(long from, long to) {
+        return cg.slot(cg.indexOf(from), to);
+    }
+
+    @Test
+    public void testClosedIsInfinite() {
+        LiveWeights closed = LiveWeights.initial(cg).apply(cg,
+                List.of(new EdgeWeightUpdate(41, 63, 1.0, true, false)));
+        assertEquals(Double.POSITIVE_INFINITY, closed.weights(Profile.DRIVE)[slot(41, 63)], 0);
+        assertEquals(Double.POSITIVE_INFINITY, closed.weights(Profile.WALK)[slot(41, 63)], 0);
+        assertEquals(cg.weights(Profile.DRIVE)[slot(63, 41)],
+                closed.weights(Profile.DRIVE)[slot(63, 41)], 0);
+    }
+
+    @Test
+    public void testFactorOneClearsOverride() {
+        int s = slot(41, 63);
+        double base = cg.weights(Profile.DRIVE)[s];
+        LiveWeights slow = LiveWeights.initial(cg).apply(cg,
+                List.of(new EdgeWeightUpdate(41, 63, 3.0, false, true)));
+        assertEquals(3 * base, slow.weights(Profile.DRIVE)[s], 1e-9);
+        assertEquals(3 * cg.weights(Profile.DRIVE)[slot(63, 41)],
+                slow.weights(Profile.DRIVE)[slot(63, 41)], 1e-9);
+        LiveWeights cleared = slow.apply(cg,
+                List.of(new EdgeWeightUpdate(41, 63, 1.0, false, true)));
+        assertEquals(base, cleared.weights(Profile.DRIVE)[s], 0);
+        assertTrue(cleared.version > slow.version);
+    }
+
+    @Test
+    public void testInvalidBatchAppliesNothing() {
+        GraphDB g = new GraphDB(OSM_DB_PATH_TINY);
+        LiveWeights before = g.liveWeights();
+        try {
+            g.updateEdgeWeights(List.of(new EdgeWeightUpdate(41, 63, 1.0, true, true),
+                    new EdgeWeightUpdate(41, 55, 2.0, false, true)));
+            fail("Expected the unknown segment to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertSame(before, g.liveWeights());
+        }
+        try {
+            g.updateEdgeWeights(List.of(new EdgeWeightUpdate(41, 63, 0.0, false, true)));
+            fail("Expected a zero factor to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertSame(before, g.liveWeights());
+        }
+    }
+
+    @Test
+    public void testReadersKeepTheirSnapshot() {
+        GraphDB g = new GraphDB(OSM_DB_PATH_TINY);
+        LiveWeights before = g.liveWeights();
+        double[] weights = before.weights(Profile.DRIVE);
+        double base = weights[slot(41, 63)];
+        g.updateEdgeWeights(List.of(new EdgeWeightUpdate(41, 63, 1.0, true, true)));
+        assertEquals(base, weights[slot(41, 63)], 0);
+        assertEquals(base, before.weights(Profile.DRIVE)[slot(41, 63)], 0);
+        assertEquals(Double.POSITIVE_INFINITY,
+                g.liveWeights().weights(Profile.DRIVE)[slot(41, 63)], 0);
+    }
+
+    @Test
+    public void testLiveWithoutProfileRespectsClosures() {
+        GraphDB g = new GraphDB(OSM_DB_PATH_TINY);
+        g.updateEdgeWeights(List.of(new EdgeWeightUpdate(41, 63, 1.0, true, true)));
+        assertFalse(RouteCache.compute(g, 41, 66, null, false).path.isEmpty());
+        assertTrue(RouteCache.compute(g, 41, 66, null, true).path.isEmpty());
+        assertTrue(new RouteCache(4).get(g, 41, 66, null, true).path.isEmpty());
+        assertEquals(Profile.DRIVE,
+                new RouteBatchRequest(null, true, false, -1, null).profile());
+        assertEquals(null, new RouteBatchRequest(null, false, false, -1, null).profile());
+    }
+
+    @Test
+    public void testClosedZeroLengthSegment() {
+        /* Nodes 202 and 203 are at the same point; 205 is a detour from 202 to 204. */
+        String osc = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><osmChange version=\"0.6\">"
+                + "<create><node id=\"201\" lat=\"37.80\" lon=\"-122.28\"/>"
+                + "<node id=\"202\" lat=\"37.80\" lon=\"-122.27\"/>"
+                + "<node id=\"203\" lat=\"37.80\" lon=\"-122.27\"/>"
+                + "<node id=\"204\" lat=\"37.80\" lon=\"-122.26\"/>"
+                + "<node id=\"205\" lat=\"37.79\" lon=\"-122.265\"/>"
+                + "<way id=\"10\"><nd ref=\"201\"/><nd ref=\"202\"/><nd ref=\"203\"/>"
+                + "<nd ref=\"204\"/><tag k=\"highway\" v=\"residential\"/></way>"
+                + "<way id=\"11\"><nd ref=\"202\"/><nd ref=\"205\"/><nd ref=\"204\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way></create></osmChange>";
+        GraphDB g = graph.applyChanges(
+                new ByteArrayInputStream(osc.getBytes(StandardCharsets.UTF_8)));
+        g.updateEdgeWeights(List.of(new EdgeWeightUpdate(202, 203, 1.0, true, true)));
+        CompactGraph c = g.compact();
+        int s = c.slot(c.indexOf(202), 203);
+        assertEquals(0.0, c.adjLength[s], 0);
+        assertEquals(Double.POSITIVE_INFINITY, g.liveWeights().weights(Profile.DRIVE)[s], 0);
+        assertEquals(List.of(201L, 202L, 205L, 204L),
+                Router.shortestPath(g, 201, 204, Profile.DRIVE, true));
+        double[] times = Router.distanceMatrix(g, new double[][] {{-122.28, 37.80}},
+                new double[][] {{-122.26, 37.80}}, Profile.DRIVE, true);
+        assertTrue(Arrays.toString(times), Double.isFinite(times[0]));
+        Isochrone reach = Router.isochrone(g, -122.28, 37.80, 3600, Profile.DRIVE, true);
+        HashSet<Long> reached = new HashSet<>();
+        for (long v : reach.vertices) {
+            reached.add(v);
+        }
+        assertTrue(reached.containsAll(List.of(201L, 202L, 203L, 204L, 205L)));
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks candidate lookup and HMM map matching on the tiny graph.
+ */
+public class TestMapMatcher {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static MapMatcher matcher;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        matcher = new MapMatcher(graph);
+        initialized = true;
+    }
+
+    @Test
+    public void testClosestK() {
+        assertArrayEquals(new long[] {46, 55, 66}, graph.closest(-122.249, 37.879, 3, 5));
+        assertArrayEquals(new long[] {46}, graph.closest(-122.249, 37.879, 3, 0.1));
+        assertArrayEquals(new long[0], graph.closest(-122.26, 37.86, 3, 0.1));
+    }
+
+    @Test
+    public void testFollowsRoad() {
+        /* Along Beta Avenue from 41 to 66, then west on Alpha Street to 46, skipping 63. */
+        MapMatcher.Trace trace = new MapMatcher.Trace(
+                new double[] {-122.2501, -122.2302, -122.2299, -122.2502},
+                new double[] {37.8301, 37.8802, 37.8799, 37.8801}, null);
+        MapMatcher.Match match = matcher.match(trace);
+        assertArrayEquals(new long[] {41, 66, 66, 46}, match.vertices);
+        assertEquals(Collections.singletonList(Arrays.asList(41L, 63L, 66L, 46L)), match.routes);
+    }
+
+    @Test
+    public void testOffRoadPointsAndBreaks() {
+        /* The second point is nowhere near a road. The third is too far from the first to have
+         * been reached a minute later, so the route restarts there. */
+        MapMatcher.Trace trace = new MapMatcher.Trace(
+                new double[] {-122.2799, -122.26, -122.2401},
+                new double[] {37.8301, 37.86, 37.8699},
+                new long[] {0, 30000, 60000});
+        MapMatcher.Match match = matcher.match(trace);
+        assertArrayEquals(new long[] {11, -1, 55}, match.vertices);
+        assertEquals(Arrays.asList(Arrays.asList(11L), Arrays.asList(55L)), match.routes);
+    }
+
+    @Test
+    public void testMatchAll() {
+        MapMatcher.Trace a = new MapMatcher.Trace(new double[] {-122.2701, -122.2501},
+                new double[] {37.8401, 37.8799}, null);
+        MapMatcher.Trace b = new MapMatcher.Trace(new double[0], new double[0], new long[0]);
+        List<MapMatcher.Match> matches = matcher.matchAll(Arrays.asList(a, b, a));
+        assertEquals(Collections.singletonList(Arrays.asList(22L, 46L)), matches.get(0).routes);
+        assertEquals(0, matches.get(1).routes.size());
+        assertArrayEquals(matches.get(0).vertices, matches.get(2).vertices);
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks histogram bucketing, the Prometheus exposition, and the search counters.
+ */
+public class TestMetrics {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (int i = 0; i < 400; i += 1) {
+            long upper = Metrics.upperBound(i);
+            assertEquals(i, Metrics.bucketOf(upper - 1));
+            assertEquals(i + 1, Metrics.bucketOf(upper));
+        }
+        assertEquals(Metrics.bucketOf(Long.MAX_VALUE), Metrics.bucketOf(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testQuantiles() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (long v = 1; v <= 1000; v += 1) {
+            h.record(v * 1000);
+        }
+        assertEquals(1000, h.count());
+        long median = h.valueAtQuantile(0.5);
+        assertTrue(median >= 500_000 && median < 500_000 * 1.13);
+        long max = h.valueAtQuantile(1.0);
+        assertTrue(max >= 1_000_000 && max < 1_000_000 * 1.13);
+    }
+
+    @Test
+    public void testCoordinatedOmissionCorrection() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        /* A 10 ms stall with a request due every millisecond hides nine more slow requests. */
+        h.recordCorrected(10_000_000, 1_000_000);
+        assertEquals(10, h.count());
+        assertTrue(h.valueAtQuantile(0.1) < 1_200_000);
+    }
+
+    @Test
+    public void testRenderAndSearchCounters() {
+        long settled = Metrics.NODES_SETTLED.get();
+        long relaxed = Metrics.EDGES_RELAXED.get();
+        long closest = Metrics.CLOSEST_CALLS.get();
+        Router.shortestPath(graph, -122.27, 37.84, -122.23, 37.88);
+        Router.shortestPath(graph, 22, 66, Profile.DRIVE);
+        assertEquals(closest + 2, Metrics.CLOSEST_CALLS.get());
+        assertTrue(Metrics.NODES_SETTLED.get() > settled);
+        assertTrue(Metrics.EDGES_RELAXED.get() > relaxed);
+
+        Metrics.requestLatency("/test").record(3_000_000);
+        String text = Metrics.render();
+        assertTrue(text.contains("# TYPE bearmaps_search_nodes_settled_total counter\n"));
+        assertTrue(text.contains(
+                "bearmaps_request_duration_seconds_bucket{endpoint=\"/test\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains(
+                "bearmaps_request_duration_seconds_count{endpoint=\"/test\"} 1\n"));
+    }
+}
@@ -0,0 +1,118 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that applying OSM change files produces a new graph version and leaves the old one
+ * untouched.
+ */
+public class TestOsmChanges {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private GraphDB graphTiny;
+
+    @Before
+    public void setUp() throws Exception {
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+    }
+
+    private static GraphDB apply(GraphDB g, String body) {
+        String osc = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><osmChange version=\"0.6\">"
+                + body + "</osmChange>";
+        return g.applyChanges(new ByteArrayInputStream(osc.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Set<Long> set(Iterable<Long> ids) {
+        Set<Long> result = new HashSet<>();
+        for (long id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    @Test
+    public void testCreateWay() {
+        GraphDB next = apply(graphTiny, "<create>"
+                + "<node id=\"77\" lat=\"37.835\" lon=\"-122.26\"/>"
+                + "<way id=\"4\"><nd ref=\"22\"/><nd ref=\"77\"/><nd ref=\"41\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way></create>");
+        assertTrue(next.version() > graphTiny.version());
+        assertTrue(set(next.adjacent(22)).contains(77L));
+        assertTrue(set(next.adjacent(41)).contains(77L));
+        assertFalse(set(graphTiny.vertices()).contains(77L));
+        assertFalse(set(graphTiny.adjacent(22)).contains(77L));
+        List<Long> route = Router.shortestPath(next, 22, 41);
+        assertEquals(List.of(22L, 77L, 41L), route);
+    }
+
+    @Test
+    public void testDeleteWay() {
+        GraphDB next = apply(graphTiny, "<delete><way id=\"3\"/></delete>");
+        assertFalse(set(next.vertices()).contains(55L));
+        assertFalse(set(next.adjacent(63)).contains(55L));
+        assertTrue(set(graphTiny.vertices()).contains(55L));
+        assertEquals(Collections.emptyList(), Router.shortestPath(next, 63, 55, Profile.DRIVE));
+    }
+
+    @Test
+    public void testDeleteWaySharingSegment() {
+        GraphDB both = apply(graphTiny, "<create><way id=\"4\"><nd ref=\"63\"/><nd ref=\"55\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way></create>");
+        GraphDB next = apply(both, "<delete><way id=\"4\"/></delete>");
+        assertTrue(set(next.adjacent(63)).contains(55L));
+        assertEquals(List.of(63L, 55L), Router.shortestPath(next, 63, 55, Profile.DRIVE));
+        GraphDB modified = apply(both, "<modify><way id=\"4\"><nd ref=\"55\"/><nd ref=\"46\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way></modify>");
+        assertTrue(set(modified.adjacent(63)).contains(55L));
+        assertTrue(set(modified.adjacent(55)).contains(46L));
+    }
+
+    @Test
+    public void testModifyReconnectsDetachedNode() {
+        GraphDB without = apply(graphTiny, "<delete><way id=\"3\"/></delete>");
+        GraphDB with = apply(without, "<create><way id=\"3\"><nd ref=\"63\"/><nd ref=\"55\"/>"
+                + "<tag k=\"highway\" v=\"tertiary\"/></way></create>");
+        assertTrue(with.version() > without.version());
+        assertTrue(set(with.adjacent(55)).contains(63L));
+        assertEquals(graphTiny.lat(55), with.lat(55), 0.0);
+    }
+
+    @Test
+    public void testLiveOverridesCarryOver() {
+        graphTiny.updateEdgeWeights(List.of(new EdgeWeightUpdate(41, 63, 1.0, true, true)));
+        GraphDB next = apply(graphTiny, "<modify><node id=\"55\" lat=\"37.871\" lon=\"-122.24\"/>"
+                + "</modify>");
+        assertEquals(37.871, next.lat(55), 0.0);
+        CompactGraph cg = next.compact();
+        int slot = cg.slot(cg.indexOf(41), 63);
+        assertEquals(Double.POSITIVE_INFINITY, next.liveWeights().weights(Profile.DRIVE)[slot],
+                0.0);
+        assertTrue(next.liveWeights().version > graphTiny.liveWeights().version);
+    }
+
+    @Test
+    public void testReloadKeepsOverrides() {
+        graphTiny.updateEdgeWeights(List.of(new EdgeWeightUpdate(41, 63, 1.0, true, true)));
+        GraphDB reloaded = new GraphDB(OSM_DB_PATH_TINY);
+        reloaded.inheritLiveWeights(graphTiny);
+        CompactGraph cg = reloaded.compact();
+        int slot = cg.slot(cg.indexOf(63), 41);
+        assertEquals(Double.POSITIVE_INFINITY,
+                reloaded.liveWeights().weights(Profile.DRIVE)[slot], 0.0);
+        assertTrue(reloaded.liveWeights().version > graphTiny.liveWeights().version);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedChangeFile() {
+        apply(graphTiny, "<create><node id=\"oops\"/></create>");
+    }
+}
@@ -0,0 +1,118 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how OSM tags become per-profile travel times: maxspeed parsing, one-way directions,
+ * and which roads each profile may use.
+ */
+public class TestProfiles {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static final double EPSILON = 1e-9;
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    private static GraphDB create(String way) {
+        String osc = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><osmChange version=\"0.6\">"
+                + "<create>" + way + "</create></osmChange>";
+        return graphTiny.applyChanges(
+                new ByteArrayInputStream(osc.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static double weight(GraphDB g, Profile p, long v, long w) {
+        CompactGraph cg = g.compact();
+        return cg.weights(p)[cg.slot(cg.indexOf(v), w)];
+    }
+
+    private static double length(GraphDB g, long v, long w) {
+        CompactGraph cg = g.compact();
+        return cg.adjLength[cg.slot(cg.indexOf(v), w)];
+    }
+
+    @Test
+    public void testParseMaxspeed() {
+        assertEquals(35.0, Profile.parseMaxspeed("35 mph"), EPSILON);
+        assertEquals(35.0, Profile.parseMaxspeed("35mph"), EPSILON);
+        assertEquals(50 / 1.609344, Profile.parseMaxspeed("50"), EPSILON);
+        assertEquals(50 / 1.609344, Profile.parseMaxspeed("50 km/h"), EPSILON);
+        assertTrue(Double.isNaN(Profile.parseMaxspeed(null)));
+        assertTrue(Double.isNaN(Profile.parseMaxspeed("signals")));
+    }
+
+    @Test
+    public void testParseOneway() {
+        assertEquals(1, GraphBuildingHandler.parseOneway("yes"));
+        assertEquals(1, GraphBuildingHandler.parseOneway("1"));
+        assertEquals(-1, GraphBuildingHandler.parseOneway("-1"));
+        assertEquals(-1, GraphBuildingHandler.parseOneway("reverse"));
+        assertEquals(0, GraphBuildingHandler.parseOneway("no"));
+    }
+
+    @Test
+    public void testOnewayYes() {
+        /* Way 3 runs 63 -> 55 and is tagged oneway=yes. */
+        assertTrue(Double.isFinite(weight(graphTiny, Profile.DRIVE, 63, 55)));
+        assertEquals(Double.POSITIVE_INFINITY, weight(graphTiny, Profile.DRIVE, 55, 63), 0);
+        assertEquals(Double.POSITIVE_INFINITY, weight(graphTiny, Profile.BIKE, 55, 63), 0);
+        assertTrue(Double.isFinite(weight(graphTiny, Profile.WALK, 55, 63)));
+    }
+
+    @Test
+    public void testOnewayReverse() {
+        GraphDB g = create("<way id=\"4\"><nd ref=\"11\"/><nd ref=\"41\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/><tag k=\"oneway\" v=\"-1\"/></way>");
+        assertEquals(Double.POSITIVE_INFINITY, weight(g, Profile.DRIVE, 11, 41), 0);
+        assertTrue(Double.isFinite(weight(g, Profile.DRIVE, 41, 11)));
+        assertTrue(Double.isFinite(weight(g, Profile.WALK, 11, 41)));
+    }
+
+    @Test
+    public void testRoundaboutIsOneway() {
+        GraphDB g = create("<way id=\"4\"><nd ref=\"22\"/><nd ref=\"41\"/><nd ref=\"11\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/>"
+                + "<tag k=\"junction\" v=\"roundabout\"/></way>");
+        assertTrue(Double.isFinite(weight(g, Profile.DRIVE, 22, 41)));
+        assertTrue(Double.isFinite(weight(g, Profile.DRIVE, 41, 11)));
+        assertEquals(Double.POSITIVE_INFINITY, weight(g, Profile.DRIVE, 41, 22), 0);
+        assertEquals(Double.POSITIVE_INFINITY, weight(g, Profile.DRIVE, 11, 41), 0);
+    }
+
+    @Test
+    public void testMotorwayExcludesWalkAndBike() {
+        for (String highway : new String[] {"motorway", "trunk"}) {
+            GraphDB g = create("<way id=\"4\"><nd ref=\"22\"/><nd ref=\"41\"/>"
+                    + "<tag k=\"highway\" v=\"" + highway + "\"/></way>");
+            assertTrue(Double.isFinite(weight(g, Profile.DRIVE, 22, 41)));
+            assertEquals(Double.POSITIVE_INFINITY, weight(g, Profile.WALK, 22, 41), 0);
+            assertEquals(Double.POSITIVE_INFINITY, weight(g, Profile.BIKE, 22, 41), 0);
+        }
+    }
+
+    @Test
+    public void testProfileWeights() {
+        /* Way 2 is primary with maxspeed "35 mph"; way 1 is residential without a maxspeed. */
+        double primary = length(graphTiny, 41, 63);
+        assertEquals(primary / 35 * 3600, weight(graphTiny, Profile.DRIVE, 41, 63), EPSILON);
+        assertEquals(primary / 12 * 3600, weight(graphTiny, Profile.BIKE, 41, 63), EPSILON);
+        assertEquals(primary / 3.1 * 3600, weight(graphTiny, Profile.WALK, 41, 63), EPSILON);
+        double residential = length(graphTiny, 11, 22);
+        assertEquals(residential / 25 * 3600, weight(graphTiny, Profile.DRIVE, 11, 22), EPSILON);
+        assertFalse(weight(graphTiny, Profile.DRIVE, 11, 22)
+                == weight(graphTiny, Profile.WALK, 11, 22));
+    }
+}
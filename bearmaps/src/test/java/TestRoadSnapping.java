@@ -0,0 +1,86 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks snapping onto road segments and routes that begin and end mid-edge on the tiny graph.
+ */
+public class TestRoadSnapping {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testSnapMatchesBruteForce() {
+        CompactGraph cg = graph.compact();
+        Random r = new Random(38);
+        for (int i = 0; i < 200; i += 1) {
+            double lon = -122.29 + r.nextDouble() * 0.07;
+            double lat = 37.82 + r.nextDouble() * 0.07;
+            double px = GraphDB.projectToX(lon, lat);
+            double py = GraphDB.projectToY(lon, lat);
+            double expected = Double.POSITIVE_INFINITY;
+            for (int v = 0; v < cg.size(); v += 1) {
+                for (int e = cg.adjStart[v]; e < cg.adjStart[v + 1]; e += 1) {
+                    expected = Math.min(expected, segmentDistance(cg, v, cg.adjTarget[e], px, py));
+                }
+            }
+            SegmentIndex.Snap snap = graph.snapToRoad(lon, lat);
+            int v = cg.adjTarget[cg.adjTwin[snap.slot]];
+            assertEquals(expected, segmentDistance(cg, v, cg.adjTarget[snap.slot], px, py), 1e-12);
+        }
+    }
+
+    @Test
+    public void testRouteBetweenMidpoints() {
+        double lon1 = (graph.lon(22) + graph.lon(46)) / 2;
+        double lat1 = (graph.lat(22) + graph.lat(46)) / 2;
+        double lon2 = (graph.lon(46) + graph.lon(66)) / 2;
+        double lat2 = (graph.lat(46) + graph.lat(66)) / 2;
+        RoadRoute route = Router.shortestPathOnRoads(graph, lon1, lat1, lon2, lat2);
+        assertNotNull(route);
+        assertEquals(Arrays.asList(46L), route.vertices);
+        double expected = (graph.distance(22, 46) + graph.distance(46, 66)) / 2;
+        assertEquals(expected, route.weight, 1e-3);
+        assertEquals(lon1, route.startLon, 1e-6);
+        assertEquals(lat2, route.endLat, 1e-6);
+    }
+
+    @Test
+    public void testRouteWithinOneSegment() {
+        double dlon = graph.lon(46) - graph.lon(22);
+        double dlat = graph.lat(46) - graph.lat(22);
+        RoadRoute route = Router.shortestPathOnRoads(graph,
+                graph.lon(22) + 0.75 * dlon, graph.lat(22) + 0.75 * dlat,
+                graph.lon(22) + 0.25 * dlon, graph.lat(22) + 0.25 * dlat);
+        assertNotNull(route);
+        assertEquals(Collections.emptyList(), route.vertices);
+        assertEquals(graph.distance(22, 46) / 2, route.weight, 1e-3);
+    }
+
+    /** Returns the projected distance from a point to the segment between two vertices. */
+    private static double segmentDistance(CompactGraph cg, int v, int w, double px, double py) {
+        double vx = GraphDB.projectToX(cg.lon[v], cg.lat[v]);
+        double vy = GraphDB.projectToY(cg.lon[v], cg.lat[v]);
+        double dx = GraphDB.projectToX(cg.lon[w], cg.lat[w]) - vx;
+        double dy = GraphDB.projectToY(cg.lon[w], cg.lat[w]) - vy;
+        double t = ((px - vx) * dx + (py - vy) * dy) / (dx * dx + dy * dy);
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(vx + t * dx - px, vy + t * dy - py);
+    }
+}
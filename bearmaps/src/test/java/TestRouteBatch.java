@@ -0,0 +1,91 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks batch routing on the tiny graph against the single-route results.
+ */
+public class TestRouteBatch {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        MapServer.initialize(graph);
+        initialized = true;
+    }
+
+    @Test
+    public void testResultsInOrder() throws Exception {
+        RouteBatchRequest.Pair[] pairs = new RouteBatchRequest.Pair[200];
+        for (int i = 0; i < pairs.length; i += 2) {
+            pairs[i] = new RouteBatchRequest.Pair(-122.27, 37.84, -122.23, 37.88);
+            pairs[i + 1] = new RouteBatchRequest.Pair(-122.25, 37.83, -122.25, 37.88);
+        }
+        String json = routes(new RouteBatchRequest(null, false, false, -1, pairs));
+        assertTrue(json.startsWith("[{\"routing_success\":true,\"path\":[22,46,66],"
+                + "\"directions\":[\"Start on Alpha Street"));
+        String second = json.substring(json.indexOf("},{") + 2);
+        assertTrue(second.startsWith("{\"routing_success\":true,\"path\":[41,63,66,46],"));
+        assertEquals(pairs.length, json.split("routing_success").length - 1);
+    }
+
+    @Test
+    public void testPolyline() throws Exception {
+        RouteBatchRequest.Pair[] pairs = {
+            new RouteBatchRequest.Pair(-122.27, 37.84, -122.28, 37.83)
+        };
+        String json = routes(new RouteBatchRequest("drive", false, true, -1, pairs));
+        String polyline = RouteGeometry.of(graph, Arrays.asList(22L, 11L)).encodedPolyline();
+        assertTrue(json.endsWith("\"polyline\":\"" + polyline.replace("\\", "\\\\") + "\"}]"));
+    }
+
+    @Test
+    public void testFailedRouteKeepsArrayWhole() throws Exception {
+        /* A null pair makes its worker throw; the batch is written without validation. */
+        RouteBatchRequest.Pair[] pairs = {
+            new RouteBatchRequest.Pair(-122.27, 37.84, -122.28, 37.83),
+            null,
+            new RouteBatchRequest.Pair(-122.27, 37.84, -122.28, 37.83)
+        };
+        StringWriter out = new StringWriter();
+        MapServer.writeRoutes(graph, new RouteBatchRequest(null, false, false, -1, pairs), out);
+        String json = out.toString();
+        assertTrue(json.endsWith("}]"));
+        String[] results = json.split("routing_success");
+        assertEquals(4, results.length);
+        assertTrue(results[1].startsWith("\":true"));
+        assertTrue(results[2].startsWith("\":false,\"path\":[],\"directions\":[]"));
+        assertTrue(results[3].startsWith("\":true"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProfile() {
+        RouteBatchRequest.Pair[] pairs = {
+            new RouteBatchRequest.Pair(-122.27, 37.84, -122.28, 37.83)
+        };
+        new RouteBatchRequest("hovercraft", false, false, -1, pairs).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyBatch() {
+        new RouteBatchRequest(null, false, false, -1, new RouteBatchRequest.Pair[0]).validate();
+    }
+
+    private static String routes(RouteBatchRequest batch) throws Exception {
+        batch.validate();
+        StringWriter out = new StringWriter();
+        MapServer.writeRoutes(graph, batch, out);
+        return out.toString();
+    }
+}
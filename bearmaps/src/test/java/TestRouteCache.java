@@ -0,0 +1,88 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that RouteCache returns the same routes as Router and shares work between callers.
+ */
+public class TestRouteCache {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+    private static final int CALLERS = 8;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesRouter() {
+        RouteCache cache = new RouteCache(4);
+        RouteCache.Entry entry = cache.get(graphTiny, 22L, 66L, null, false);
+        assertEquals(Router.shortestPath(graphTiny, 22L, 66L), entry.path);
+    }
+
+    @Test
+    public void testRepeatedLookupHits() {
+        RouteCache cache = new RouteCache(4);
+        RouteCache.Entry first = cache.get(graphTiny, 41L, 46L, null, false);
+        RouteCache.Entry second = cache.get(graphTiny, 41L, 46L, null, false);
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testEviction() {
+        RouteCache cache = new RouteCache(1);
+        RouteCache.Entry first = cache.get(graphTiny, 41L, 46L, null, false);
+        cache.get(graphTiny, 22L, 11L, null, false);
+        assertEquals(first.path, cache.get(graphTiny, 41L, 46L, null, false).path);
+    }
+
+    @Test
+    public void testConcurrentCallersShareResult() throws Exception {
+        AtomicInteger computed = new AtomicInteger();
+        RouteCache cache = new RouteCache(4, (g, start, end, profile, live) -> {
+            computed.incrementAndGet();
+            try {
+                /* Hold the search open so the other callers arrive while it runs. */
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return RouteCache.compute(g, start, end, profile, live);
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+        CyclicBarrier together = new CyclicBarrier(CALLERS);
+        try {
+            List<Future<RouteCache.Entry>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i += 1) {
+                results.add(pool.submit(() -> {
+                    together.await();
+                    return cache.get(graphTiny, 66L, 55L, null, false);
+                }));
+            }
+            RouteCache.Entry expected = results.get(0).get();
+            for (Future<RouteCache.Entry> f : results) {
+                assertSame(expected, f.get());
+            }
+            assertEquals(1, computed.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks route simplification and polyline encoding.
+ */
+public class TestRouteGeometry {
+    @Test
+    public void testEncodedPolyline() {
+        /* The worked example from the Encoded Polyline Algorithm Format documentation. */
+        RouteGeometry route = new RouteGeometry(new double[] {-120.2, -120.95, -126.453},
+                new double[] {38.5, 40.7, 43.252});
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", route.encodedPolyline());
+    }
+
+    @Test
+    public void testSimplifyPerDepth() {
+        /* A gentle zigzag a few meters wide along a street in Berkeley. */
+        int n = 101;
+        double[] lon = new double[n];
+        double[] lat = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            lon[i] = -122.27 + i * 0.0002;
+            lat[i] = 37.87 + (i % 2) * 0.00002;
+        }
+        RouteGeometry route = new RouteGeometry(lon, lat);
+        assertEquals("[0, 100]", Arrays.toString(route.at(0)));
+        assertEquals(n, route.at(Rasterer.MAX_DEPTH).length);
+        /* At depth 0 the polyline is just the first and last points of the route. */
+        RouteGeometry ends = new RouteGeometry(new double[] {lon[0], lon[n - 1]},
+                new double[] {lat[0], lat[n - 1]});
+        assertEquals(ends.encodedPolyline(), route.encodedPolyline(0));
+        assertEquals(route.encodedPolyline(Rasterer.MAX_DEPTH), route.encodedPolyline());
+    }
+}
@@ -0,0 +1,115 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks prefix and full-name search, cursor paging, and the streamed JSON responses.
+ */
+public class TestSearch {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static LocationIndex index;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        MapServer.initialize(graph);
+        List<GraphDB.Node> nodes = new ArrayList<>();
+        String[] names = {"Sather Gate", "Safeway", "Safeway", "Sather Tower", "Shattuck",
+            "Top Dog", "safeway!", "Sa-fe-way"};
+        for (int i = 0; i < names.length; i += 1) {
+            GraphDB.Node n = new GraphDB.Node(100 + i, -122.26, 37.87);
+            n.setName(names[i]);
+            nodes.add(n);
+        }
+        nodes.add(new GraphDB.Node(200, -122.25, 37.86));
+        index = new LocationIndex(nodes);
+        initialized = true;
+    }
+
+    @Test
+    public void testTinyGraph() {
+        assertEquals(Arrays.asList("Top Left"), graph.getLocationsByPrefix("top"));
+        assertEquals(Arrays.asList("Top Left"), graph.getLocationsByPrefix("TO"));
+        assertEquals(0, graph.getLocationsByPrefix("x").size());
+        List<LocationParams> found = graph.getLocations("top left");
+        assertEquals(1, found.size());
+        assertEquals(46, found.get(0).id);
+        assertEquals(-122.25, found.get(0).lonti, 1e-9);
+    }
+
+    @Test
+    public void testPrefixIsDistinctAndOrdered() {
+        List<String> all = new ArrayList<>();
+        assertNull(index.byPrefix("sa", null, Integer.MAX_VALUE, all::add));
+        assertEquals(Arrays.asList("Sa-fe-way", "Safeway", "safeway!", "Sather Gate",
+                "Sather Tower"), all);
+        assertEquals(8, index.size());
+    }
+
+    @Test
+    public void testPrefixPages() {
+        List<String> seen = new ArrayList<>();
+        LocationIndex.Cursor cursor = null;
+        int pages = 0;
+        do {
+            List<String> page = new ArrayList<>();
+            cursor = index.byPrefix("s", cursor, 2, page::add);
+            if (cursor != null) {
+                assertEquals(2, page.size());
+                cursor = LocationIndex.Cursor.decode(cursor.encode());
+            }
+            seen.addAll(page);
+            pages += 1;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals(Arrays.asList("Sa-fe-way", "Safeway", "safeway!", "Sather Gate",
+                "Sather Tower", "Shattuck"), seen);
+    }
+
+    @Test
+    public void testFullNamePages() {
+        List<Long> ids = new ArrayList<>();
+        LocationIndex.Cursor cursor = index.byName("SAFEWAY", null, 2, l -> ids.add(l.id));
+        assertEquals(Arrays.asList(107L, 101L), ids);
+        assertNull(index.byName("safeway", cursor, 2, l -> ids.add(l.id)));
+        assertEquals(Arrays.asList(107L, 101L, 102L, 106L), ids);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCursor() {
+        LocationIndex.Cursor.decode("bm90IGEgY3Vyc29y");
+    }
+
+    @Test
+    public void testStreamedJson() throws Exception {
+        assertEquals("[\"Top Left\"]", search("term", "t"));
+        assertEquals("{\"results\":[\"Top Left\"],\"next_cursor\":null}",
+                search("term", "t", "limit", "5"));
+        assertEquals("[{\"latti\":37.88,\"lonti\":-122.25,\"name\":\"Top Left\",\"id\":46}]",
+                search("term", "Top Left", "full", ""));
+    }
+
+    private static String search(String... params) throws Exception {
+        Map<String, String[]> req = new HashMap<>();
+        for (int i = 0; i < params.length; i += 2) {
+            req.put(params[i], new String[] {params[i + 1]});
+        }
+        StringWriter out = new StringWriter();
+        MapServer.writeSearchResults(graph, SearchRequestParams.from(req), out);
+        return out.toString();
+    }
+}
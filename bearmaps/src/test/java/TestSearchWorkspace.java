@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that resetting a search workspace forgets every vertex of the previous search.
+ */
+public class TestSearchWorkspace {
+    @Test
+    public void testResetForgetsPreviousSearch() {
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(4);
+        ws.relax(0, -1, 0.0);
+        assertEquals(0, ws.poll());
+        ws.relax(1, 0, 2.0, 2.0, 7);
+        ws.relax(2, 0, 1.0);
+        assertEquals(2, ws.poll());
+        assertEquals(7, ws.label(1));
+
+        ws = SearchWorkspace.forCurrentThread(4);
+        assertTrue(ws.isEmpty());
+        for (int v = 0; v < 4; v += 1) {
+            assertFalse(ws.isSettled(v));
+            assertEquals(Double.POSITIVE_INFINITY, ws.dist(v), 0);
+            assertEquals(-1, ws.pred(v));
+            assertEquals(-1, ws.label(v));
+        }
+        assertTrue(ws.relax(2, -1, 5.0));
+        assertFalse(ws.relax(2, 1, 6.0));
+        assertEquals(2, ws.poll());
+        assertEquals(5.0, ws.dist(2), 0);
+        assertFalse(ws.relax(2, 1, 1.0));
+    }
+
+    @Test
+    public void testGrowsForLargerGraphs() {
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(2);
+        ws.relax(1, -1, 0.0);
+        ws = SearchWorkspace.forCurrentThread(1000);
+        assertEquals(Double.POSITIVE_INFINITY, ws.dist(1), 0);
+        ws.relax(999, -1, 3.0);
+        assertEquals(999, ws.poll());
+        assertTrue(ws.isSettled(999));
+    }
+
+    @Test
+    public void testEnsureCapacityKeepsSearch() {
+        SearchWorkspace ws = new SearchWorkspace();
+        ws.reset(2);
+        ws.relax(0, -1, 0.0);
+        ws.relax(1, 0, 4.0);
+        assertEquals(0, ws.poll());
+        ws.ensureCapacity(8);
+        assertTrue(ws.isSettled(0));
+        assertEquals(4.0, ws.dist(1), 0);
+        assertEquals(Double.POSITIVE_INFINITY, ws.dist(7), 0);
+        ws.relax(7, 1, 1.0);
+        assertEquals(7, ws.poll());
+        assertEquals(1, ws.poll());
+        assertTrue(ws.isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that routing across shards, each running as its own process and serving its cells of
+ * a partition written once up front over a loopback socket, finds routes as short as routing
+ * on the whole tiny graph.
+ */
+public class TestShardedRouting {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static final double DELTA = 1e-9;
+    private static final int NUM_SHARDS = 2;
+    private GraphDB graphTiny;
+    private Path partition;
+    private List<Process> shards;
+    private List<InetSocketAddress> addresses;
+    private ShardedGraph sharded;
+
+    @Before
+    public void setUp() throws Exception {
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        partition = Files.createTempDirectory("shards");
+        ShardServer.write(graphTiny, null, 2, partition);
+        shards = new ArrayList<>();
+        addresses = new ArrayList<>();
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        for (int s = 0; s < NUM_SHARDS; s += 1) {
+            addresses.add(new InetSocketAddress(loopback, startShard(loopback, s)));
+        }
+        sharded = new ShardedGraph(addresses, 2);
+    }
+
+    /** Launches one shard in a new JVM and returns the port it reports listening on. */
+    private int startShard(InetAddress address, int shard) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "ShardServer", partition.toString(), address.getHostAddress(), "0",
+                Integer.toString(shard), Integer.toString(NUM_SHARDS))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        shards.add(p);
+        BufferedReader out = new BufferedReader(
+                new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+        String line = out.readLine();
+        if (line == null) {
+            throw new IOException("Shard " + shard + " exited before listening");
+        }
+        return Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Process p : shards) {
+            p.destroy();
+            p.waitFor();
+        }
+        try (Stream<Path> files = Files.walk(partition)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testPartitionBoundsCellSize() {
+        GraphPartition p = GraphPartition.inertial(graphTiny.compact(), 2);
+        int[] sizes = new int[p.numCells];
+        for (int c : p.cell) {
+            sizes[c] += 1;
+        }
+        for (int c = 0; c < p.numCells; c += 1) {
+            assertTrue(sizes[c] >= 1 && sizes[c] <= 2);
+            assertEquals(sizes[c], p.members(c).length);
+            for (int v : p.members(c)) {
+                assertEquals(c, p.cell[v]);
+            }
+        }
+        assertEquals(p.numCells, sharded.numCells());
+    }
+
+    @Test
+    public void testMatchesSingleGraph() {
+        for (long v : graphTiny.vertices()) {
+            for (long w : graphTiny.vertices()) {
+                List<Long> expected = Router.shortestPath(graphTiny, v, w);
+                List<Long> actual = Router.shortestPath(sharded,
+                        graphTiny.lon(v), graphTiny.lat(v), graphTiny.lon(w), graphTiny.lat(w));
+                assertEquals(v, (long) actual.get(0));
+                assertEquals(w, (long) actual.get(actual.size() - 1));
+                assertEquals("From " + v + " to " + w,
+                        length(expected), length(actual), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testErrorReply() throws IOException {
+        /* Shard 0 serves the even cells, so it does not serve cell 1. */
+        try (Socket s = new Socket(addresses.get(0).getAddress(), addresses.get(0).getPort())) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            out.writeByte(ShardServer.CELL);
+            out.writeInt(1);
+            out.flush();
+            assertEquals(ShardServer.ERROR, in.readByte());
+            assertTrue(in.readUTF().contains("not served"));
+            out.writeByte(ShardServer.LIST);
+            out.flush();
+            assertEquals(ShardServer.OK, in.readByte());
+            assertTrue(in.readInt() > 0);
+        }
+    }
+
+    private double length(List<Long> path) {
+        double total = 0.0;
+        for (int i = 1; i < path.size(); i += 1) {
+            total += graphTiny.distance(path.get(i - 1), path.get(i));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the tiled, memory-mapped graph answers queries like the in-memory tiny graph
+ * while keeping only a bounded number of tiles resident.
+ */
+public class TestTiledGraphDB {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static final double DELTA = 1e-9;
+    private static GraphDB graphTiny;
+    private static Path dir;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        dir = Files.createTempDirectory("tiles");
+        TiledGraphDB.write(graphTiny, dir, 0.01);
+        initialized = true;
+    }
+
+    @Test
+    public void testAdjacentAndLocations() {
+        TiledGraphDB tiled = new TiledGraphDB(dir, 1);
+        for (long v : graphTiny.vertices()) {
+            assertEquals(graphTiny.lon(v), tiled.lon(v), DELTA);
+            assertEquals(graphTiny.lat(v), tiled.lat(v), DELTA);
+            Set<Long> expected = new HashSet<>();
+            for (long w : graphTiny.adjacent(v)) {
+                expected.add(w);
+            }
+            Set<Long> actual = new HashSet<>();
+            for (long w : tiled.adjacent(v)) {
+                actual.add(w);
+            }
+            assertEquals(expected, actual);
+            assertTrue(tiled.residentTiles() <= 1);
+        }
+    }
+
+    @Test
+    public void testClosestAndRoutes() {
+        TiledGraphDB tiled = new TiledGraphDB(dir, 2);
+        for (long v : graphTiny.vertices()) {
+            assertEquals(v, tiled.closest(graphTiny.lon(v) + 1e-4, graphTiny.lat(v)));
+            for (long w : graphTiny.vertices()) {
+                List<Long> expected = Router.shortestPath(graphTiny, v, w);
+                List<Long> actual = Router.shortestPath(tiled,
+                        graphTiny.lon(v), graphTiny.lat(v), graphTiny.lon(w), graphTiny.lat(w));
+                assertEquals(length(expected), length(actual), DELTA);
+                assertTrue(tiled.residentTiles() <= 2);
+            }
+        }
+    }
+
+    private double length(List<Long> path) {
+        double total = 0.0;
+        for (int i = 1; i < path.size(); i += 1) {
+            total += graphTiny.distance(path.get(i - 1), path.get(i));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks vector tile encoding, simplification, and the tile grid on the tiny graph.
+ */
+public class TestVectorTile {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testRootTileHoldsEveryWay() {
+        List<VectorTile.Feature> features = VectorTile.decode(VectorTile.encode(graph, 0, 0, 0));
+        Map<Long, VectorTile.Feature> byWay = new HashMap<>();
+        for (VectorTile.Feature f : features) {
+            byWay.put(f.way, f);
+        }
+        assertEquals(3, features.size());
+        assertEquals(4, byWay.get(1L).x.length);
+        assertEquals(3, byWay.get(2L).x.length);
+        assertEquals(2, byWay.get(3L).x.length);
+        assertEquals("Alpha Street", byWay.get(1L).name);
+        assertEquals("", byWay.get(3L).name);
+        double expectedX = (graph.lon(11) - MapServer.ROOT_ULLON) / MapServer.ROOT_LON_DELTA
+                * VectorTile.EXTENT;
+        double expectedY = (MapServer.ROOT_ULLAT - graph.lat(11)) / MapServer.ROOT_LAT_DELTA
+                * VectorTile.EXTENT;
+        VectorTile.Feature alpha = byWay.get(1L);
+        long x = Math.round(expectedX);
+        long y = Math.round(expectedY);
+        assertTrue(alpha.x[0] == x && alpha.y[0] == y || alpha.x[3] == x && alpha.y[3] == y);
+    }
+
+    @Test
+    public void testSimplify() {
+        double[] px = {0, 1, 2, 3, 4};
+        boolean[] straight = VectorTile.simplify(px, new double[] {0, 0.2, 0, -0.2, 0}, 0.5);
+        assertEquals("[true, false, false, false, true]", Arrays.toString(straight));
+        boolean[] spike = VectorTile.simplify(px, new double[] {0, 0, 1, 0, 0}, 0.5);
+        assertEquals("[true, false, true, false, true]", Arrays.toString(spike));
+    }
+
+    @Test
+    public void testGridIsCached() {
+        RasterRequestParams params = new RasterRequestParams.Builder()
+                .setUllon(-122.29).setUllat(37.885).setLrlon(-122.22).setLrlat(37.825)
+                .setW(300).setH(300).create();
+        RasterResultParams raster = new Rasterer().getMapRaster(params);
+        VectorTileCache cache = new VectorTileCache(64);
+        byte[] grid = cache.forRaster(graph, raster);
+        ByteBuffer in = ByteBuffer.wrap(grid);
+        assertEquals(raster.depth, VectorTile.readVarint(in));
+        VectorTile.readVarint(in);
+        VectorTile.readVarint(in);
+        int cols = (int) VectorTile.readVarint(in);
+        int rows = (int) VectorTile.readVarint(in);
+        assertEquals(raster.renderGrid[0].length, cols);
+        assertEquals(raster.renderGrid.length, rows);
+        boolean anyRoads = false;
+        for (int i = 0; i < rows * cols; i += 1) {
+            byte[] tile = new byte[(int) VectorTile.readVarint(in)];
+            in.get(tile);
+            anyRoads |= !VectorTile.decode(tile).isEmpty();
+        }
+        assertTrue(anyRoads);
+        assertFalse(in.hasRemaining());
+        assertEquals(rows * cols, cache.size());
+        assertArrayEquals(grid, cache.forRaster(graph, raster));
+        assertEquals(rows * cols, cache.size());
+    }
+}